@@ -0,0 +1,96 @@
+package com.ufund.api.ufundapi.controller;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.ufund.api.ufundapi.model.BasketNeed;
+import com.ufund.api.ufundapi.model.CheckoutResult;
+import com.ufund.api.ufundapi.model.Session;
+import com.ufund.api.ufundapi.persistence.CupboardDAO;
+import com.ufund.api.ufundapi.persistence.SessionDAO;
+import com.ufund.api.ufundapi.persistence.UserDAO;
+
+/**
+ * Handles the REST API request for checking out a user's basket
+ * <br>
+ * The basket is taken from the user before the cupboard is touched, so the same
+ * basket cannot be funded twice by two requests at once, and put back if the
+ * cupboard cannot take the count of every need in it or cannot record the checkout
+ */
+@RestController
+@RequestMapping("users")
+public class CheckoutController {
+    private static final Logger LOG = Logger.getLogger(CheckoutController.class.getName());
+    private CupboardDAO cupboardDAO;
+    private UserDAO userDAO;
+    private SessionDAO sessionDAO;
+
+    /**
+     * Creates a REST API controller to respond to checkout requests
+     *
+     * @param cupboardDAO The {@link CupboardDAO Cupboard Data Access Object} to take the needs from
+     * @param userDAO The {@link UserDAO User Data Access Object} holding the baskets
+     * @param sessionDAO The {@link SessionDAO Session Data Access Object} to check authorization
+     */
+    public CheckoutController(CupboardDAO cupboardDAO, UserDAO userDAO, SessionDAO sessionDAO) {
+        this.cupboardDAO = cupboardDAO;
+        this.userDAO = userDAO;
+        this.sessionDAO = sessionDAO;
+    }
+
+    /**
+     * Funds every {@linkplain com.ufund.api.ufundapi.model.Need need} in a user's basket
+     * and empties the basket
+     *
+     * @param id The id of the user checking out
+     *
+     * @return ResponseEntity with the {@link CheckoutResult outcome} and HTTP status of OK if the basket was funded<br>
+     * ResponseEntity with the {@link CheckoutResult outcome} and HTTP status of CONFLICT if a need was gone or would go past its cost, the basket is kept<br>
+     * ResponseEntity with HTTP status of BAD_REQUEST if the basket is empty<br>
+     * ResponseEntity with HTTP status of NOT_FOUND if the user does not exist<br>
+     * ResponseEntity with HTTP status of UNAUTHORIZED if the user is not signed in<br>
+     * ResponseEntity with HTTP status of INTERNAL_SERVER_ERROR otherwise
+     */
+    @PostMapping("/{id}/checkout")
+    public ResponseEntity<CheckoutResult> checkout(@PathVariable int id) {
+        LOG.info("POST /users/" + id + "/checkout");
+        try {
+            Session session = sessionDAO.getSession(id);
+            if (!sessionDAO.isAuthorized(session, id, false)) {
+                return new ResponseEntity<>(HttpStatus.UNAUTHORIZED);
+            }
+            ArrayList<BasketNeed> basket = userDAO.takeBasket(id);
+            if (basket == null) {
+                return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+            }
+            if (basket.isEmpty()) {
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            }
+            CheckoutResult result;
+            try {
+                result = cupboardDAO.checkout(id, basket);
+            } catch (IOException e) {
+                // the cupboard hands back what it took when the checkout cannot be recorded
+                userDAO.restoreBasket(id, basket);
+                throw e;
+            }
+            if (!result.isCompleted()) {
+                userDAO.restoreBasket(id, basket);
+                return new ResponseEntity<>(result, HttpStatus.CONFLICT);
+            }
+            return new ResponseEntity<>(result, HttpStatus.OK);
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, e.getLocalizedMessage());
+            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package com.ufund.api.ufundapi.controller;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -8,14 +11,24 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.ufund.api.ufundapi.persistence.CupboardDAO;
+import com.ufund.api.ufundapi.persistence.NeedOrder;
 import com.ufund.api.ufundapi.persistence.SessionDAO;
+import com.ufund.api.ufundapi.persistence.UserDAO;
+import com.ufund.api.ufundapi.model.BulkResult;
 import com.ufund.api.ufundapi.model.Need;
+import com.ufund.api.ufundapi.model.TypeAggregate;
 
 /**
  * Handles the REST API requests for the Need resource
@@ -25,17 +38,60 @@ import com.ufund.api.ufundapi.model.Need;
 @RestController
 @RequestMapping("cupboard")
 public class CupboardController {
+    static final int MAX_PAGE_SIZE = 100;
+    static final int MAX_EDIT_DISTANCE = 2;
+    static final int MAX_COMPLETIONS = 20;
+    static final int MAX_BULK_SIZE = 10000;
+    static final String NEXT_CURSOR = "X-Next-Cursor";
+
     private CupboardDAO cupboardDAO;
+    private UserDAO userDAO;
     private SessionDAO sessionDAO;
+    private ObjectMapper objectMapper;
+    private String etagPrefix;              // Tells apart versions from different runs of the server
+    private volatile CachedCupboard cached; // The serialized cupboard, null until first requested
+
+    /**
+     * The serialized body of one version of the cupboard
+     */
+    private static final class CachedCupboard {
+        final long version;
+        final byte[] body;
+        final String etag;
+
+        CachedCupboard(long version, byte[] body, String etag) {
+            this.version = version;
+            this.body = body;
+            this.etag = etag;
+        }
+    }
 
     /**
      * Creates a REST API controller to reponds to requests
      * 
-     * @param cupboardDao The {@link CupboardDAO Cupboard Data Access Object} to perform CRUD operations
+     * @param cupboardDAO The {@link CupboardDAO Cupboard Data Access Object} to perform CRUD operations
+     * @param userDAO The {@link UserDAO User Data Access Object} holding the baskets the needs are in
+     * @param sessionDAO The {@link SessionDAO Session Data Access Object} to check authorization
      */
-    public CupboardController(CupboardDAO cupboardDAO, SessionDAO sessionDAO) {
+    public CupboardController(CupboardDAO cupboardDAO, UserDAO userDAO, SessionDAO sessionDAO) {
+        this(cupboardDAO, userDAO, sessionDAO, new ObjectMapper());
+    }
+
+    /**
+     * Creates a REST API controller to reponds to requests
+     * 
+     * @param cupboardDAO The {@link CupboardDAO Cupboard Data Access Object} to perform CRUD operations
+     * @param userDAO The {@link UserDAO User Data Access Object} holding the baskets the needs are in
+     * @param sessionDAO The {@link SessionDAO Session Data Access Object} to check authorization
+     * @param objectMapper Serializes the cupboard for the cached GET response
+     */
+    @Autowired
+    public CupboardController(CupboardDAO cupboardDAO, UserDAO userDAO, SessionDAO sessionDAO, ObjectMapper objectMapper) {
         this.cupboardDAO = cupboardDAO;
+        this.userDAO = userDAO;
         this.sessionDAO = sessionDAO;
+        this.objectMapper = objectMapper;
+        this.etagPrefix = Long.toHexString(ThreadLocalRandom.current().nextLong());
     }
 
     /**
@@ -100,6 +156,8 @@ public class CupboardController {
      * 
      * @param id The ID of the need to delete
      * 
+     * The need is also taken out of every basket holding it
+     * 
      * @return ResponseEntity with HTTP status of OK if deleted successfully<br>
      * ResponseEntity with HTTP status of NOT_FOUND if need doesn't exist<br>
      * ResponseEntity with HTTP status of UNAUTHORIZED if admin isn't signed in
@@ -112,6 +170,7 @@ public class CupboardController {
                 if(!cupboardDAO.deleteNeed(id)) {
                     return new ResponseEntity<>(HttpStatus.NOT_FOUND);
                 }
+                userDAO.removeFromBaskets(id);
                 return new ResponseEntity<>(HttpStatus.OK);
             } else {
                 return new ResponseEntity<>(HttpStatus.UNAUTHORIZED);
@@ -121,6 +180,107 @@ public class CupboardController {
         }
     }
 
+    /**
+     * Creates many {@linkplain Need needs} at once, all or none of them
+     * 
+     * @param needs The {@link Need needs} to create, at most {@value #MAX_BULK_SIZE}
+     * 
+     * @return ResponseEntity with the result of each need and HTTP status of OK if all were created<br>
+     * ResponseEntity with the result of each need and HTTP status of BAD_REQUEST if none were created<br>
+     * ResponseEntity with HTTP status of BAD_REQUEST if there are too many needs<br>
+     * ResponseEntity with HTTP status of UNAUTHORIZED if an admin is not signed in<br>
+     * ResponseEntity with HTTP status of INTERNAL_SERVER_ERROR otherwise
+     */
+    @PostMapping("/bulk")
+    public ResponseEntity<BulkResult[]> createNeeds(@RequestBody Need[] needs) {
+        try {
+            if (!sessionDAO.isAuthorized(null, null, true)) {
+                return new ResponseEntity<>(HttpStatus.UNAUTHORIZED);
+            }
+            if (needs.length > MAX_BULK_SIZE) {
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            }
+            return bulkResponse(cupboardDAO.createNeeds(needs));
+        } catch (IOException e) {
+            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Updates many existing {@linkplain Need needs} at once, each identified by its own id, all or none of them
+     * 
+     * @param needs The updated {@link Need needs}, at most {@value #MAX_BULK_SIZE}
+     * 
+     * @return ResponseEntity with the result of each need and HTTP status of OK if all were updated<br>
+     * ResponseEntity with the result of each need and HTTP status of BAD_REQUEST if none were updated<br>
+     * ResponseEntity with HTTP status of BAD_REQUEST if there are too many needs<br>
+     * ResponseEntity with HTTP status of UNAUTHORIZED if an admin is not signed in<br>
+     * ResponseEntity with HTTP status of INTERNAL_SERVER_ERROR otherwise
+     */
+    @PutMapping("/bulk")
+    public ResponseEntity<BulkResult[]> updateNeeds(@RequestBody Need[] needs) {
+        try {
+            if (!sessionDAO.isAuthorized(null, null, true)) {
+                return new ResponseEntity<>(HttpStatus.UNAUTHORIZED);
+            }
+            if (needs.length > MAX_BULK_SIZE) {
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            }
+            return bulkResponse(cupboardDAO.updateNeeds(needs));
+        } catch (IOException e) {
+            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Deletes many {@linkplain Need needs} at once, all or none of them,
+     * taking the deleted needs out of every basket holding them
+     * 
+     * @param ids The IDs of the needs to delete, at most {@value #MAX_BULK_SIZE}
+     * 
+     * @return ResponseEntity with the result of each id and HTTP status of OK if all were deleted<br>
+     * ResponseEntity with the result of each id and HTTP status of BAD_REQUEST if none were deleted<br>
+     * ResponseEntity with HTTP status of BAD_REQUEST if there are too many ids<br>
+     * ResponseEntity with HTTP status of UNAUTHORIZED if an admin is not signed in<br>
+     * ResponseEntity with HTTP status of INTERNAL_SERVER_ERROR otherwise
+     */
+    @DeleteMapping("/bulk")
+    public ResponseEntity<BulkResult[]> deleteNeeds(@RequestBody int[] ids) {
+        try {
+            if (!sessionDAO.isAuthorized(null, null, true)) {
+                return new ResponseEntity<>(HttpStatus.UNAUTHORIZED);
+            }
+            if (ids.length > MAX_BULK_SIZE) {
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            }
+            ResponseEntity<BulkResult[]> response = bulkResponse(cupboardDAO.deleteNeeds(ids));
+            if (response.getStatusCode() == HttpStatus.OK) {
+                for (int id : ids) {
+                    userDAO.removeFromBaskets(id);
+                }
+            }
+            return response;
+        } catch (IOException e) {
+            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Builds the response to a bulk change from the result of each item
+     * 
+     * @param results The result of each item
+     * 
+     * @return ResponseEntity with the results and HTTP status of OK if the change was applied, BAD_REQUEST otherwise
+     */
+    private static ResponseEntity<BulkResult[]> bulkResponse(BulkResult[] results) {
+        for (BulkResult result : results) {
+            if (!result.isApplied()) {
+                return new ResponseEntity<>(results, HttpStatus.BAD_REQUEST);
+            }
+        }
+        return new ResponseEntity<>(results, HttpStatus.OK);
+    }
+
     /**
      * Searches for a {@linkplain Need need} by name containing the specified text
      * 
@@ -139,19 +299,235 @@ public class CupboardController {
             return new ResponseEntity<>(needs, HttpStatus.NOT_FOUND);
         }
     }
- 
+
     /**
-     * Retrieves all {@linkplain Need needs} from the cupboard
+     * Searches the name, type and description of every {@linkplain Need need}, best matches first
      * 
-     * @return ResponseEntity with array of {@link Need need} objects and HTTP status of OK<br>
-     * ResponseEntity with HTTP status of OK with empty list if there are no needs
+     * @param query The words to search for
+     * @param page The page of results, starting from 0
+     * @param size The number of results on a page, at most {@value #MAX_PAGE_SIZE}
+     * 
+     * @return ResponseEntity with the ranked {@link Need need} objects and HTTP status of OK, empty if nothing matches<br>
+     * ResponseEntity with HTTP status of BAD_REQUEST if the page or size is out of range
      */
-    @GetMapping()
-    public ResponseEntity<Need[]> getAllNeeds() {
-        Need[] needs = cupboardDAO.getAllNeeds();
+    @GetMapping("/search")
+    public ResponseEntity<Need[]> searchNeeds(@RequestParam("q") String query,
+                                              @RequestParam(value = "page", defaultValue = "0") int page,
+                                              @RequestParam(value = "size", defaultValue = "20") int size) {
+        if (page < 0 || size < 1 || size > MAX_PAGE_SIZE || (long) page * size > Integer.MAX_VALUE - size) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        Need[] needs = cupboardDAO.searchNeeds(query, page * size, size);
         return new ResponseEntity<>(needs, HttpStatus.OK);
     }
 
+    /**
+     * Searches {@linkplain Need need} names for close matches of every word, tolerating typos
+     * 
+     * @param query The words to search for
+     * @param distance The most single character edits allowed per word, by default
+     *                 more edits are allowed for longer words
+     * 
+     * @return ResponseEntity with the matching {@link Need need} objects and HTTP status of OK, closest first, empty if nothing matches<br>
+     * ResponseEntity with HTTP status of BAD_REQUEST if the distance is more than {@value #MAX_EDIT_DISTANCE}
+     */
+    @GetMapping("/fuzzy")
+    public ResponseEntity<Need[]> fuzzySearchNeeds(@RequestParam("q") String query,
+                                                   @RequestParam(value = "distance", defaultValue = "-1") int distance) {
+        if (distance > MAX_EDIT_DISTANCE) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        Need[] needs = cupboardDAO.fuzzySearchNeeds(query, distance);
+        return new ResponseEntity<>(needs, HttpStatus.OK);
+    }
+
+    /**
+     * Completes the start of a {@linkplain Need need} name as it is typed
+     * 
+     * @param prefix The start of the name, ignoring case
+     * @param limit The most completions to return, at most {@value #MAX_COMPLETIONS}
+     * 
+     * @return ResponseEntity with the completing {@link Need need} objects in alphabetical order and HTTP status of OK, empty if nothing matches<br>
+     * ResponseEntity with HTTP status of BAD_REQUEST if the limit is out of range
+     */
+    @GetMapping("/autocomplete")
+    public ResponseEntity<Need[]> autocompleteNeeds(@RequestParam("prefix") String prefix,
+                                                    @RequestParam(value = "limit", defaultValue = "10") int limit) {
+        if (limit < 1 || limit > MAX_COMPLETIONS) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        Need[] needs = cupboardDAO.autocompleteNeeds(prefix, limit);
+        return new ResponseEntity<>(needs, HttpStatus.OK);
+    }
+
+    /**
+     * Gets the number of {@linkplain Need needs}, their total quantity and their
+     * total value for every type
+     * <br>
+     * The totals are kept up to date as needs change, so this does not read the needs themselves
+     * 
+     * @return ResponseEntity with the totals of every type, ordered by type, and HTTP status of OK
+     */
+    @GetMapping("/aggregates")
+    public ResponseEntity<TypeAggregate[]> getAggregates() {
+        return new ResponseEntity<>(cupboardDAO.getAggregates(), HttpStatus.OK);
+    }
+
+    /**
+     * Retrieves all {@linkplain Need needs} from the cupboard, or one page of them
+     * <br>
+     * The whole cupboard is only serialized again when its version changes, and is
+     * tagged with a strong ETag so that clients polling an unchanged cupboard get no body at all.
+     * When a limit is given, only that many needs after the cursor are returned, in
+     * id order, and the {@value #NEXT_CURSOR} header holds the cursor of the next page.
+     * <br>
+     * When any filter or a sort order is given, only the matching needs are returned,
+     * answered from the cupboard's type, cost and quantity indexes. A limit then caps
+     * the number of matches, but filtered results cannot be paged with a cursor
+     * 
+     * @param ifNoneMatch The ETags the client already holds, may be null
+     * @param limit The most needs on a page, at most {@value #MAX_PAGE_SIZE}, null for every need
+     * @param after The id the page starts after, null for the first page
+     * @param type The type of the needs, ignoring case, null for any type
+     * @param minCost The lowest cost, inclusive, null for no lower bound
+     * @param maxCost The highest cost, inclusive, null for no upper bound
+     * @param minQuantity The lowest quantity, inclusive, null for no lower bound
+     * @param maxQuantity The highest quantity, inclusive, null for no upper bound
+     * @param sort id, cost, quantity or name, with a leading minus sign for descending cost or quantity, null for id
+     * 
+     * @return ResponseEntity with JSON array of {@link Need need} objects and HTTP status of OK<br>
+     * ResponseEntity with HTTP status of OK with empty list if there are no needs<br>
+     * ResponseEntity with HTTP status of NOT_MODIFIED if the client already holds this version<br>
+     * ResponseEntity with HTTP status of BAD_REQUEST if the limit is out of range, the sort order
+     * is unknown or a cursor is given with filters<br>
+     * ResponseEntity with HTTP status of INTERNAL_SERVER_ERROR if the needs cannot be serialized
+     */
+    @GetMapping()
+    public ResponseEntity<byte[]> getAllNeeds(@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                              @RequestParam(value = "limit", required = false) Integer limit,
+                                              @RequestParam(value = "after", required = false) Integer after,
+                                              @RequestParam(value = "type", required = false) String type,
+                                              @RequestParam(value = "minCost", required = false) Integer minCost,
+                                              @RequestParam(value = "maxCost", required = false) Integer maxCost,
+                                              @RequestParam(value = "minQuantity", required = false) Integer minQuantity,
+                                              @RequestParam(value = "maxQuantity", required = false) Integer maxQuantity,
+                                              @RequestParam(value = "sort", required = false) String sort) {
+        if (type != null || minCost != null || maxCost != null || minQuantity != null || maxQuantity != null || sort != null) {
+            if (after != null || (limit != null && (limit < 1 || limit > MAX_PAGE_SIZE))) {
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            }
+            NeedOrder order;
+            try {
+                order = sort == null ? NeedOrder.ID : NeedOrder.parse(sort);
+            } catch (IllegalArgumentException e) {
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            }
+            Need[] needs = cupboardDAO.queryNeeds(type,
+                    minCost == null ? Integer.MIN_VALUE : minCost, maxCost == null ? Integer.MAX_VALUE : maxCost,
+                    minQuantity == null ? Integer.MIN_VALUE : minQuantity, maxQuantity == null ? Integer.MAX_VALUE : maxQuantity,
+                    order, limit == null ? Integer.MAX_VALUE : limit);
+            try {
+                return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(objectMapper.writeValueAsBytes(needs));
+            } catch (JsonProcessingException e) {
+                return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+            }
+        }
+        if (limit != null) {
+            return getNeedsPage(limit, after);
+        }
+        CachedCupboard current;
+        try {
+            current = currentCupboard();
+        } catch (JsonProcessingException e) {
+            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+        if (current.etag == null) {
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(current.body);
+        }
+        if (etagMatches(ifNoneMatch, current.etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(current.etag).build();
+        }
+        return ResponseEntity.ok().eTag(current.etag).contentType(MediaType.APPLICATION_JSON).body(current.body);
+    }
+
+    /**
+     * Gets one page of {@linkplain Need needs} in id order
+     * 
+     * @param limit The most needs on the page
+     * @param after The id the page starts after, null for the first page
+     * 
+     * @return ResponseEntity with JSON array of {@link Need need} objects and HTTP status of OK,
+     * with the cursor of the next page if there is one<br>
+     * ResponseEntity with HTTP status of BAD_REQUEST if the limit is out of range<br>
+     * ResponseEntity with HTTP status of INTERNAL_SERVER_ERROR if the needs cannot be serialized
+     */
+    private ResponseEntity<byte[]> getNeedsPage(int limit, Integer after) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        // one extra need tells whether there is a next page
+        Need[] needs = cupboardDAO.getNeedsPage(after == null ? Integer.MIN_VALUE : after, limit + 1);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON);
+        if (needs.length > limit) {
+            needs = Arrays.copyOf(needs, limit);
+            response.header(NEXT_CURSOR, Integer.toString(needs[limit - 1].getId()));
+        }
+        try {
+            return response.body(objectMapper.writeValueAsBytes(needs));
+        } catch (JsonProcessingException e) {
+            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Gets the serialized cupboard for the current version, serializing it if the version changed
+     * <br>
+     * If the cupboard changes while it is being read, the body is served untagged
+     * and not cached, since it cannot be tied to a single version
+     * 
+     * @return The serialized cupboard
+     * 
+     * @throws JsonProcessingException if the needs cannot be serialized
+     */
+    private CachedCupboard currentCupboard() throws JsonProcessingException {
+        long version = cupboardDAO.getVersion();
+        CachedCupboard current = cached;
+        if (current != null && current.version == version) {
+            return current;
+        }
+        byte[] body = objectMapper.writeValueAsBytes(cupboardDAO.getAllNeeds());
+        if (cupboardDAO.getVersion() != version) {
+            return new CachedCupboard(version, body, null);
+        }
+        current = new CachedCupboard(version, body, "\"" + etagPrefix + "-" + version + "\"");
+        cached = current;
+        return current;
+    }
+
+    /**
+     * Checks whether an If-None-Match header holds the given ETag
+     * 
+     * @param ifNoneMatch The header value, may be null
+     * @param etag The ETag of the current version
+     * 
+     * @return true if the client already holds the current version
+     */
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Responds to the GET request for a {@linkplain Need need} for the given id
      * 
@@ -169,5 +545,21 @@ public class CupboardController {
         else
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
     }
+
+    /**
+     * Responds to the GET request for how many helpers have a {@linkplain Need need} in their basket
+     * 
+     * @param id The id of the {@link Need need}
+     * 
+     * @return ResponseEntity with the number of baskets holding the need and HTTP status of OK if found<br>
+     * ResponseEntity with HTTP status of NOT_FOUND if not found
+     */
+    @GetMapping("/{id}/demand")
+    public ResponseEntity<Integer> getDemand(@PathVariable int id) {
+        if (cupboardDAO.getNeed(id) == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<>(userDAO.countBasketsWith(id), HttpStatus.OK);
+    }
     
 }
@@ -0,0 +1,310 @@
+package com.ufund.api.ufundapi.controller;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ufund.api.ufundapi.model.BasketNeed;
+import com.ufund.api.ufundapi.model.Need;
+import com.ufund.api.ufundapi.model.User;
+import com.ufund.api.ufundapi.persistence.CupboardDAO;
+import com.ufund.api.ufundapi.persistence.SessionDAO;
+import com.ufund.api.ufundapi.persistence.UserDAO;
+
+/**
+ * Handles the REST API requests for exporting the cupboard, users and baskets
+ * <br>
+ * Exports are streamed to the response as CSV or JSON lines, optionally gzipped,
+ * one record at a time. Needs come from the cupboard snapshot current when the
+ * export starts, and each user is copied under its own lock as it is reached, so
+ * an export never holds a lock that live requests wait on for its whole duration
+ */
+@RestController
+@RequestMapping("export")
+public class ExportController {
+    private static final Logger LOG = Logger.getLogger(ExportController.class.getName());
+    static final String CSV = "csv";
+    static final String JSONL = "jsonl";
+    static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    static final MediaType GZIP = MediaType.parseMediaType("application/gzip");
+
+    private static final List<Column<Need>> NEED_COLUMNS = List.of(
+        new Column<>("id", Need::getId),
+        new Column<>("name", Need::getName),
+        new Column<>("cost", Need::getCost),
+        new Column<>("quantity", Need::getQuantity),
+        new Column<>("type", Need::getType),
+        new Column<>("description", Need::getDescription));
+
+    // passwords and security answers are never exported
+    private static final List<Column<User>> USER_COLUMNS = List.of(
+        new Column<>("id", User::getId),
+        new Column<>("userName", User::getUserName),
+        new Column<>("restricted", User::getRestricted),
+        new Column<>("basketLines", User::getBasketSize),
+        new Column<>("basketItems", user -> user.getBasket().stream().mapToLong(BasketNeed::getCount).sum()));
+
+    private static final List<Column<BasketLine>> BASKET_COLUMNS = List.of(
+        new Column<>("userId", line -> line.user.getId()),
+        new Column<>("userName", line -> line.user.getUserName()),
+        new Column<>("needId", line -> line.line.getNeedId()),
+        new Column<>("needName", line -> line.need == null ? null : line.need.getName()),
+        new Column<>("cost", line -> line.need == null ? null : line.need.getCost()),
+        new Column<>("count", line -> line.line.getCount()));
+
+    private CupboardDAO cupboardDAO;
+    private UserDAO userDAO;
+    private SessionDAO sessionDAO;
+    private ObjectMapper objectMapper;
+
+    /**
+     * One field of an exported record
+     */
+    private static final class Column<T> {
+        final String name;
+        final Function<T, Object> value;
+
+        Column(String name, Function<T, Object> value) {
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    /**
+     * One need in the basket of one user, joined against the cupboard
+     */
+    private static final class BasketLine {
+        final User user;
+        final BasketNeed line;
+        final Need need;    // As the cupboard has it now, null if it has been deleted
+
+        BasketLine(User user, BasketNeed line, Need need) {
+            this.user = user;
+            this.line = line;
+            this.need = need;
+        }
+    }
+
+    /**
+     * Creates a REST API controller to respond to export requests
+     *
+     * @param cupboardDAO The {@link CupboardDAO Cupboard Data Access Object} to read needs from
+     * @param userDAO The {@link UserDAO User Data Access Object} to read users and baskets from
+     * @param sessionDAO The {@link SessionDAO Session Data Access Object} to check authorization
+     * @param objectMapper Writes JSON lines
+     */
+    public ExportController(CupboardDAO cupboardDAO, UserDAO userDAO, SessionDAO sessionDAO, ObjectMapper objectMapper) {
+        this.cupboardDAO = cupboardDAO;
+        this.userDAO = userDAO;
+        this.sessionDAO = sessionDAO;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Exports every {@linkplain Need need} in the cupboard
+     *
+     * @param format csv or jsonl
+     * @param gzip true to gzip the export
+     *
+     * @return ResponseEntity streaming the needs with HTTP status of OK<br>
+     * ResponseEntity with HTTP status of BAD_REQUEST if the format is unknown<br>
+     * ResponseEntity with HTTP status of UNAUTHORIZED if an admin is not signed in<br>
+     * ResponseEntity with HTTP status of INTERNAL_SERVER_ERROR otherwise
+     */
+    @GetMapping("/needs")
+    public ResponseEntity<StreamingResponseBody> exportNeeds(@RequestParam(value = "format", defaultValue = JSONL) String format,
+                                                             @RequestParam(value = "gzip", defaultValue = "false") boolean gzip) {
+        LOG.info("GET /export/needs");
+        // the snapshot array is shared, not copied, and never changes
+        return export("needs", format, gzip, NEED_COLUMNS, () -> Arrays.stream(cupboardDAO.getAllNeeds()));
+    }
+
+    /**
+     * Exports every user, without their credentials
+     *
+     * @param format csv or jsonl
+     * @param gzip true to gzip the export
+     *
+     * @return ResponseEntity streaming the users with HTTP status of OK<br>
+     * ResponseEntity with HTTP status of BAD_REQUEST if the format is unknown<br>
+     * ResponseEntity with HTTP status of UNAUTHORIZED if an admin is not signed in<br>
+     * ResponseEntity with HTTP status of INTERNAL_SERVER_ERROR otherwise
+     */
+    @GetMapping("/users")
+    public ResponseEntity<StreamingResponseBody> exportUsers(@RequestParam(value = "format", defaultValue = JSONL) String format,
+                                                             @RequestParam(value = "gzip", defaultValue = "false") boolean gzip) {
+        LOG.info("GET /export/users");
+        return export("users", format, gzip, USER_COLUMNS, userDAO::streamUsers);
+    }
+
+    /**
+     * Exports every {@linkplain Need need} in every user's basket, one record per need per user
+     *
+     * @param format csv or jsonl
+     * @param gzip true to gzip the export
+     *
+     * @return ResponseEntity streaming the basket lines with HTTP status of OK<br>
+     * ResponseEntity with HTTP status of BAD_REQUEST if the format is unknown<br>
+     * ResponseEntity with HTTP status of UNAUTHORIZED if an admin is not signed in<br>
+     * ResponseEntity with HTTP status of INTERNAL_SERVER_ERROR otherwise
+     */
+    @GetMapping("/baskets")
+    public ResponseEntity<StreamingResponseBody> exportBaskets(@RequestParam(value = "format", defaultValue = JSONL) String format,
+                                                               @RequestParam(value = "gzip", defaultValue = "false") boolean gzip) {
+        LOG.info("GET /export/baskets");
+        return export("baskets", format, gzip, BASKET_COLUMNS,
+                      () -> userDAO.streamUsers().flatMap(user -> user.getBasket().stream()
+                                   .map(line -> new BasketLine(user, line, cupboardDAO.getNeed(line.getNeedId())))));
+    }
+
+    /**
+     * Supplies the records of an export
+     */
+    @FunctionalInterface
+    private interface Records<T> {
+        Stream<T> open() throws IOException;
+    }
+
+    /**
+     * Checks the request and builds the streaming response for an export
+     *
+     * @param name Names the downloaded file
+     * @param format csv or jsonl
+     * @param gzip true to gzip the export
+     * @param columns The fields of each record
+     * @param records Supplies the records
+     *
+     * @return The response
+     */
+    private <T> ResponseEntity<StreamingResponseBody> export(String name, String format, boolean gzip,
+                                                             List<Column<T>> columns, Records<T> records) {
+        try {
+            if (!sessionDAO.isAuthorized(null, null, true)) {
+                return new ResponseEntity<>(HttpStatus.UNAUTHORIZED);
+            }
+            String lowerFormat = format.toLowerCase(Locale.ROOT);
+            if (!lowerFormat.equals(CSV) && !lowerFormat.equals(JSONL)) {
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            }
+            boolean csv = lowerFormat.equals(CSV);
+            Stream<T> stream = records.open();
+            String filename = name + "." + lowerFormat + (gzip ? ".gz" : "");
+            MediaType type = gzip ? GZIP : csv ? new MediaType("text", "csv", StandardCharsets.UTF_8) : NDJSON;
+            return ResponseEntity.ok()
+                    .contentType(type)
+                    .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(filename).build().toString())
+                    .body(out -> write(out, gzip, csv, columns, stream));
+        } catch (IOException e) {
+            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Writes the records of an export to the response one at a time
+     *
+     * @param out The response body, left open for the servlet container
+     * @param gzip true to gzip the export
+     * @param csv true for CSV, false for JSON lines
+     * @param columns The fields of each record
+     * @param records The records, closed once written
+     *
+     * @throws IOException when the response cannot be written to
+     */
+    private <T> void write(OutputStream out, boolean gzip, boolean csv, List<Column<T>> columns, Stream<T> records) throws IOException {
+        GZIPOutputStream zipped = gzip ? new GZIPOutputStream(out, 65536) : null;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(zipped != null ? zipped : out, StandardCharsets.UTF_8), 65536);
+        try (Stream<T> stream = records) {
+            Iterator<T> iterator = stream.iterator();
+            if (csv) {
+                writeCsv(writer, columns, iterator);
+            } else {
+                writeJsonLines(writer, columns, iterator);
+            }
+            writer.flush();
+            if (zipped != null) {
+                zipped.finish();
+            }
+        }
+    }
+
+    /**
+     * Writes records as CSV with a header row
+     */
+    private static <T> void writeCsv(Writer writer, List<Column<T>> columns, Iterator<T> records) throws IOException {
+        for (int i = 0; i < columns.size(); i++) {
+            writer.write(i == 0 ? "" : ",");
+            writer.write(columns.get(i).name);
+        }
+        writer.write("\r\n");
+        while (records.hasNext()) {
+            T record = records.next();
+            for (int i = 0; i < columns.size(); i++) {
+                writer.write(i == 0 ? "" : ",");
+                writer.write(csvField(columns.get(i).value.apply(record)));
+            }
+            writer.write("\r\n");
+        }
+    }
+
+    /**
+     * Formats one CSV field, quoting it if it holds a comma, quote or line break
+     *
+     * @param value The value, may be null
+     * @return The field
+     */
+    static String csvField(Object value) {
+        if (value == null) {
+            return "";
+        }
+        String text = value.toString();
+        if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+            return text;
+        }
+        return "\"" + text.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Writes records as one JSON object per line
+     */
+    private <T> void writeJsonLines(Writer writer, List<Column<T>> columns, Iterator<T> records) throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(writer)) {
+            // the writer is flushed and finished by the caller
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+            generator.setRootValueSeparator(null);
+            while (records.hasNext()) {
+                T record = records.next();
+                generator.writeStartObject();
+                for (Column<T> column : columns) {
+                    generator.writeObjectField(column.name, column.value.apply(record));
+                }
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+            }
+        }
+    }
+}
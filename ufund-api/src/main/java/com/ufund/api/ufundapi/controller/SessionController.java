@@ -148,9 +148,7 @@ public class SessionController {
         try {  
             User user = userDAO.getUserByName(username);
             if (user != null){          
-                int id = user.getId();
-                Session newSession = sessionDAO.createSession(id, username);
-                sessionDAO.updateSession(newSession);
+                Session newSession = sessionDAO.refreshSession(user.getId(), username);
                 return new ResponseEntity<Session>(newSession, HttpStatus.OK);
             } else {
                 return new ResponseEntity<>(HttpStatus.NOT_FOUND);
@@ -2,10 +2,15 @@ package com.ufund.api.ufundapi.controller;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -14,12 +19,20 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 
 import com.ufund.api.ufundapi.model.Session;
 import com.ufund.api.ufundapi.model.User;
 import com.ufund.api.ufundapi.model.BasketNeed;
 import com.ufund.api.ufundapi.model.Need;
+import com.ufund.api.ufundapi.persistence.CupboardDAO;
 import com.ufund.api.ufundapi.persistence.SessionDAO;
 import com.ufund.api.ufundapi.persistence.UserDAO;
 
@@ -31,17 +44,38 @@ import com.ufund.api.ufundapi.persistence.UserDAO;
 @RequestMapping("users")
 public class UserController {
     private static final Logger LOG = Logger.getLogger(UserController.class.getName());
+    static final int MAX_PAGE_SIZE = 100;
+    static final String NEXT_CURSOR = "X-Next-Cursor";
     private UserDAO userDAO;
     private SessionDAO sessionDAO;
+    private CupboardDAO cupboardDAO;
+    private ObjectMapper objectMapper;
 
     /**
      * Creates a REST API to respond to request
      * 
      * @param userdao to perform CRUD operations
+     * @param sessionDAO to check who is signed in
+     * @param cupboardDAO to hold the needs put in baskets
+     */
+    public UserController(UserDAO userDAO, SessionDAO sessionDAO, CupboardDAO cupboardDAO){
+        this(userDAO, sessionDAO, cupboardDAO, new ObjectMapper());
+    }
+
+    /**
+     * Creates a REST API to respond to request
+     * 
+     * @param userDAO to perform CRUD operations
+     * @param sessionDAO to check who is signed in
+     * @param cupboardDAO to hold the needs put in baskets
+     * @param objectMapper to write users straight to the response
      */
-    public UserController(UserDAO userDAO, SessionDAO sessionDAO){
+    @Autowired
+    public UserController(UserDAO userDAO, SessionDAO sessionDAO, CupboardDAO cupboardDAO, ObjectMapper objectMapper){
         this.userDAO = userDAO;
         this.sessionDAO = sessionDAO;
+        this.cupboardDAO = cupboardDAO;
+        this.objectMapper = objectMapper;
     }
 
     /**
@@ -82,7 +116,7 @@ public class UserController {
                 
                 // Checks if either session is valid/authorized or if admin is signed in
                 if (sessionDAO.isAuthorized(session, user.getUserName(), true)){
-                    return new ResponseEntity<User>(user,HttpStatus.OK);
+                    return new ResponseEntity<User>(joinBasket(user),HttpStatus.OK);
                 } else {
                     return new ResponseEntity<>(HttpStatus.UNAUTHORIZED);
                 }
@@ -98,19 +132,40 @@ public class UserController {
     }
 
    /**
-     * Gets all users
+     * Gets all users, or one page of them
+     * <br>
+     * Users are written to the response one at a time as they are read, so the
+     * whole collection is never held in memory. When a limit is given, only that
+     * many users after the cursor are returned, in id order, and the
+     * {@value #NEXT_CURSOR} header holds the cursor of the next page. Each
+     * basket is joined against the cupboard as its user is written
      * 
-     * @return Array of all users with HTTP status
+     * @param limit The most users on a page, at most {@value #MAX_PAGE_SIZE}, null for every user
+     * @param after The id the page starts after, null for the first page
+     * @return JSON array of users with HTTP status, BAD_REQUEST if the limit is out of range
      */
     @GetMapping()
-    public ResponseEntity<User[]> getAllUsers() {
+    public ResponseEntity<StreamingResponseBody> getAllUsers(@RequestParam(value = "limit", required = false) Integer limit,
+                                                             @RequestParam(value = "after", required = false) Integer after) {
         LOG.info("GET /users");
         try {
             // Checks if admin is signed in
             if (sessionDAO.isAuthorized(null, null, true)){
-
-                User[] users = userDAO.getAllUsers();
-                return new ResponseEntity<>(users, HttpStatus.OK);
+                if (limit == null) {
+                    Stream<User> users = userDAO.streamUsers().map(this::joinBasket);
+                    return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(writeUsers(users));
+                }
+                if (limit < 1 || limit > MAX_PAGE_SIZE) {
+                    return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+                }
+                // one extra user tells whether there is a next page
+                User[] users = userDAO.getUsersPage(after == null ? Integer.MIN_VALUE : after, limit + 1);
+                ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON);
+                if (users.length > limit) {
+                    users = Arrays.copyOf(users, limit);
+                    response.header(NEXT_CURSOR, Integer.toString(users[limit - 1].getId()));
+                }
+                return response.body(writeUsers(Arrays.stream(users).map(this::joinBasket)));
             } else {
                 return new ResponseEntity<>(HttpStatus.UNAUTHORIZED);
             }
@@ -120,6 +175,30 @@ public class UserController {
         }
     }
 
+    /**
+     * Writes users to a response as a JSON array, one user at a time
+     * 
+     * @param users The users to write, closed once written
+     * @return The body that writes them
+     */
+    private StreamingResponseBody writeUsers(Stream<User> users) {
+        // flushing after every user would send a chunk per user
+        ObjectWriter writer = objectMapper.writerFor(User.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        return out -> {
+            try (Stream<User> stream = users;
+                 JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+                // the response stream belongs to the servlet container
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                generator.writeStartArray();
+                Iterator<User> iterator = stream.iterator();
+                while (iterator.hasNext()) {
+                    writer.writeValue(generator, iterator.next());
+                }
+                generator.writeEndArray();
+            }
+        };
+    }
+
     /**
      * Updates a user with provided user object
      * 
@@ -143,7 +222,7 @@ public class UserController {
 
                 User updatedUser = userDAO.updateUser(user);
                 if (updatedUser != null) {
-                    return new ResponseEntity<>(updatedUser, HttpStatus.OK);
+                    return new ResponseEntity<>(joinBasket(updatedUser), HttpStatus.OK);
                 } else {
                     return new ResponseEntity<>(HttpStatus.NOT_FOUND);
                 }
@@ -198,7 +277,7 @@ public class UserController {
         try {
             User user = userDAO.getUserByName(username);
             if (user != null) {
-                return new ResponseEntity<>(user, HttpStatus.OK);
+                return new ResponseEntity<>(joinBasket(user), HttpStatus.OK);
             } else {
                 return new ResponseEntity<>(HttpStatus.NOT_FOUND);
             }
@@ -208,6 +287,39 @@ public class UserController {
         }
     }
 
+    /**
+     * Joins the lines of a basket against the cupboard as it stands now
+     * <br>
+     * The cupboard finds each need in the copy it last published, so this takes
+     * no locks and shares the needs rather than copying them
+     * 
+     * @param basket The lines, each naming its need by id
+     * @return The lines with their needs, leaving out needs no longer in the cupboard
+     */
+    private ArrayList<BasketNeed> joinBasket(ArrayList<BasketNeed> basket) {
+        ArrayList<BasketNeed> joined = new ArrayList<>(basket.size());
+        for (BasketNeed line : basket) {
+            Need need = cupboardDAO.getNeed(line.getNeedId());
+            if (need != null) {
+                joined.add(line.join(need));
+            }
+        }
+        return joined;
+    }
+
+    /**
+     * Joins the basket of a user about to be sent against the cupboard as it stands now
+     * 
+     * @param user A copy of the user, as the {@link UserDAO} hands out, may be null
+     * @return The same user with the needs in its basket, leaving out needs no longer in the cupboard
+     */
+    private User joinBasket(User user) {
+        if (user != null) {
+            user.joinBasket(cupboardDAO::getNeed);
+        }
+        return user;
+    }
+
     @GetMapping("/{id}/basket")
     public ResponseEntity<ArrayList<BasketNeed>> getBasket(@PathVariable int id) {
         LOG.info("GET /user/"+ id + "/basket");
@@ -216,7 +328,7 @@ public class UserController {
             if (sessionDAO.isAuthorized(session, id, false)){
                 ArrayList<BasketNeed> basket = userDAO.getBasket(id);
                 if (basket != null) {
-                    return new ResponseEntity<>(basket, HttpStatus.OK);
+                    return new ResponseEntity<>(joinBasket(basket), HttpStatus.OK);
                 } else {
                     return new ResponseEntity<>(HttpStatus.NOT_FOUND);
                 }
@@ -242,8 +354,22 @@ public class UserController {
                     if(userDAO.needExists(id, need)) {
                         return new ResponseEntity<>(HttpStatus.CONFLICT); 
                     }
-                    User updatedUser = userDAO.addNeed(id, need);
-                    return new ResponseEntity<User>(updatedUser, HttpStatus.CREATED);
+                    // hold the need so nobody else can fund it first
+                    if(!cupboardDAO.holdNeed(id, need.getId(), 1)) {
+                        return new ResponseEntity<>(HttpStatus.CONFLICT);
+                    }
+                    User updatedUser;
+                    try {
+                        updatedUser = userDAO.addNeed(id, need);
+                    } catch(IOException e) {
+                        cupboardDAO.releaseHold(id, need.getId());
+                        throw e;
+                    }
+                    if(updatedUser == null) {
+                        cupboardDAO.releaseHold(id, need.getId());
+                        return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+                    }
+                    return new ResponseEntity<User>(joinBasket(updatedUser), HttpStatus.CREATED);
                 }
                 else {
                     return new ResponseEntity<>(HttpStatus.NOT_FOUND);
@@ -269,8 +395,24 @@ public class UserController {
                     if(!userDAO.needExists(id, need)) {
                         return new ResponseEntity<>(HttpStatus.NOT_FOUND); 
                     }
-                    User updatedUser = userDAO.editCount(id, need, count);
-                    return new ResponseEntity<User>(updatedUser, HttpStatus.CREATED);
+                    BasketNeed line = user.getBasketNeed(need);
+                    int oldCount = line == null ? 0 : line.getCount();
+                    if(!cupboardDAO.holdNeed(id, need.getId(), count)) {
+                        return new ResponseEntity<>(HttpStatus.CONFLICT);
+                    }
+                    User updatedUser;
+                    try {
+                        updatedUser = userDAO.editCount(id, need, count);
+                    } catch(IOException e) {
+                        // put the hold back to what the basket held before
+                        cupboardDAO.holdNeed(id, need.getId(), oldCount);
+                        throw e;
+                    }
+                    if(updatedUser == null) {
+                        cupboardDAO.releaseHold(id, need.getId());
+                        return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+                    }
+                    return new ResponseEntity<User>(joinBasket(updatedUser), HttpStatus.CREATED);
                 }
                 else {
                     return new ResponseEntity<>(HttpStatus.NOT_FOUND);
@@ -306,7 +448,8 @@ public class UserController {
                         return new ResponseEntity<>(HttpStatus.NOT_FOUND); 
                     }
                     User updatedUser = userDAO.removeNeed(id, need);
-                    return new ResponseEntity<User>(updatedUser, HttpStatus.OK);
+                    cupboardDAO.releaseHold(id, need.getId());
+                    return new ResponseEntity<User>(joinBasket(updatedUser), HttpStatus.OK);
                 }
                 else {
                     return new ResponseEntity<>(HttpStatus.NOT_FOUND);
@@ -1,13 +1,21 @@
 package com.ufund.api.ufundapi.model;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 /**
  * Represents a Need in a basket with a count of how many are in the basket
- * 
+ * <br>
+ * A basket keeps only the id of the need, so a need in many baskets is stored
+ * once, in the cupboard. The need itself is only filled in when the basket is
+ * read, from the cupboard as it stands then
+ *
  * @author Timothy Steffens
  */
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class BasketNeed {
-    @JsonProperty("need") private Need need;
+    @JsonProperty("needId") private int needId;
+    @JsonProperty("need") private Need need;    // Null until the line is joined against the cupboard
     @JsonProperty("count") private int count;
 
     /**
@@ -15,11 +23,40 @@ public class BasketNeed {
      * @param need the need
      * @param count the count of the need
      */
-    public BasketNeed(@JsonProperty("need") Need need, @JsonProperty("count") int count){
+    public BasketNeed(Need need, int count){
+        this(need.getId(), need, count);
+    }
+
+    /**
+     * Creates a basket need that refers to its need by id
+     * @param needId the id of the need
+     * @param count the count of the need
+     */
+    public BasketNeed(int needId, int count){
+        this(needId, null, count);
+    }
+
+    /**
+     * Creates a basket need from JSON, which names the need by id, or embeds it as baskets used to
+     * @param needId the id of the need, may be null when the need is embedded
+     * @param need the need, may be null
+     * @param count the count of the need
+     */
+    @JsonCreator
+    public BasketNeed(@JsonProperty("needId") Integer needId, @JsonProperty("need") Need need, @JsonProperty("count") int count){
+        this.needId = need != null ? need.getId() : needId != null ? needId : 0;
         this.need = need;
         this.count = count;
     }
 
+    public int getNeedId(){
+        return this.needId;
+    }
+
+    /**
+     * Retrieves the need
+     * @return The need as it was when the line was joined against the cupboard, null if it was not
+     */
     public Need getNeed(){
         return this.need;
     }
@@ -35,4 +72,21 @@ public class BasketNeed {
         this.count = num;
         return true;
     }
+
+    /**
+     * Makes the line that a basket stores
+     * @return A line with the same need id and count, without the need
+     */
+    public BasketNeed reference(){
+        return new BasketNeed(needId, count);
+    }
+
+    /**
+     * Fills in the need of this line
+     * @param need The need with this line's id, as the cupboard has it now
+     * @return A line with the need and the same count
+     */
+    public BasketNeed join(Need need){
+        return new BasketNeed(needId, need, count);
+    }
 }
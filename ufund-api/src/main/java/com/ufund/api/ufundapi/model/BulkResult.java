@@ -0,0 +1,94 @@
+package com.ufund.api.ufundapi.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Represents what happened to one item of a bulk change to the cupboard
+ * <br>
+ * A bulk change is applied whole or not at all, so when any item fails every
+ * other item reports {@link Outcome#NOT_APPLIED}
+ */
+public class BulkResult {
+
+    /**
+     * What happened to an item
+     */
+    public enum Outcome {
+        /** The need was created */
+        CREATED,
+        /** The need was updated */
+        UPDATED,
+        /** The need was deleted */
+        DELETED,
+        /** The item was valid, but another item failed so nothing was changed */
+        NOT_APPLIED,
+        /** The item was missing or is not a valid need */
+        INVALID,
+        /** The need clashes with an existing need or another item */
+        CONFLICT,
+        /** There is no need with the id */
+        NOT_FOUND
+    }
+
+    @JsonProperty("index") private final int index;
+    @JsonProperty("id") private final int id;
+    @JsonProperty("outcome") private final Outcome outcome;
+    @JsonProperty("need") private final Need need;
+
+    /**
+     * Create the result of one item
+     * @param index The position of the item in the request
+     * @param id The id of the need the item is about
+     * @param outcome What happened to the item
+     * @param need The need as stored, null unless it was created or updated
+     */
+    public BulkResult(@JsonProperty("index") int index, @JsonProperty("id") int id,
+                      @JsonProperty("outcome") Outcome outcome, @JsonProperty("need") Need need) {
+        this.index = index;
+        this.id = id;
+        this.outcome = outcome;
+        this.need = need;
+    }
+
+    /**
+     * Retrieves the position of the item in the request
+     * @return The index of the item
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Retrieves the id of the need the item is about
+     * @return The id of the need
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Retrieves what happened to the item
+     * @return The outcome of the item
+     */
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * Retrieves the need as stored
+     * @return The need, null unless it was created or updated
+     */
+    public Need getNeed() {
+        return need;
+    }
+
+    /**
+     * Checks whether the item changed the cupboard
+     * @return true if the need was created, updated or deleted
+     */
+    @JsonIgnore
+    public boolean isApplied() {
+        return outcome == Outcome.CREATED || outcome == Outcome.UPDATED || outcome == Outcome.DELETED;
+    }
+}
@@ -0,0 +1,70 @@
+package com.ufund.api.ufundapi.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Represents the outcome of checking out a basket against the cupboard
+ * <br>
+ * A checkout either funds every {@linkplain Need need} in the basket or none of them
+ */
+public class CheckoutResult {
+
+    @JsonProperty("completed") private final boolean completed;
+    @JsonProperty("funded") private final BasketNeed[] funded;
+    @JsonProperty("unavailable") private final int[] unavailable;
+
+    /**
+     * Create the outcome of a checkout
+     * @param completed true if the basket was funded
+     * @param funded The needs that were funded, as they stand after the checkout, and how many of each
+     * @param unavailable The ids of the needs that are gone or would go past their cost
+     */
+    public CheckoutResult(@JsonProperty("completed") boolean completed, @JsonProperty("funded") BasketNeed[] funded,
+                          @JsonProperty("unavailable") int[] unavailable) {
+        this.completed = completed;
+        this.funded = funded;
+        this.unavailable = unavailable;
+    }
+
+    /**
+     * Creates the outcome of a checkout that funded the whole basket
+     * @param funded The needs that were funded and how many of each
+     * @return The outcome
+     */
+    public static CheckoutResult completed(BasketNeed[] funded) {
+        return new CheckoutResult(true, funded, new int[0]);
+    }
+
+    /**
+     * Creates the outcome of a checkout that changed nothing
+     * @param unavailable The ids of the needs that could not be funded
+     * @return The outcome
+     */
+    public static CheckoutResult rejected(int[] unavailable) {
+        return new CheckoutResult(false, new BasketNeed[0], unavailable);
+    }
+
+    /**
+     * Retrieves whether the basket was funded
+     * @return true if every need in the basket was funded
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * Retrieves the needs that were funded
+     * @return The funded needs and their counts, empty if the checkout was rejected
+     */
+    public BasketNeed[] getFunded() {
+        return funded;
+    }
+
+    /**
+     * Retrieves the needs that stopped the checkout
+     * @return The ids of the needs that could not be funded, empty if the checkout completed
+     */
+    public int[] getUnavailable() {
+        return unavailable;
+    }
+}
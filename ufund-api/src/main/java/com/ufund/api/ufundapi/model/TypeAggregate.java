@@ -0,0 +1,69 @@
+package com.ufund.api.ufundapi.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Represents the totals over every {@linkplain Need need} of one type
+ */
+public class TypeAggregate {
+
+    @JsonProperty("type") private final String type;
+    @JsonProperty("needs") private final long needs;
+    @JsonProperty("totalQuantity") private final long totalQuantity;
+    @JsonProperty("totalValue") private final long totalValue;
+
+    /**
+     * Create the totals for a type
+     * @param type The type of the needs
+     * @param needs The number of needs of the type
+     * @param totalQuantity The sum of their quantities
+     * @param totalValue The sum of their costs times their quantities
+     */
+    public TypeAggregate(@JsonProperty("type") String type, @JsonProperty("needs") long needs,
+                         @JsonProperty("totalQuantity") long totalQuantity, @JsonProperty("totalValue") long totalValue) {
+        this.type = type;
+        this.needs = needs;
+        this.totalQuantity = totalQuantity;
+        this.totalValue = totalValue;
+    }
+
+    /**
+     * Retrieves the type the totals are for
+     * @return The type of the needs
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Retrieves the number of needs of the type
+     * @return The number of needs
+     */
+    public long getNeeds() {
+        return needs;
+    }
+
+    /**
+     * Retrieves the sum of the quantities of the needs of the type
+     * @return The total quantity
+     */
+    public long getTotalQuantity() {
+        return totalQuantity;
+    }
+
+    /**
+     * Retrieves the sum of cost times quantity over the needs of the type
+     * @return The total value
+     */
+    public long getTotalValue() {
+        return totalValue;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return String.format("TypeAggregate [type=%s, needs=%d, totalQuantity=%d, totalValue=%d]", type, needs, totalQuantity, totalValue);
+    }
+}
@@ -2,8 +2,13 @@ package com.ufund.api.ufundapi.model;
 
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.IntFunction;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.ufund.api.ufundapi.util.Passwordhasher;
 
@@ -14,7 +19,7 @@ public class User {
     @JsonProperty("id") private int id;
     @JsonProperty("userName") private String userName;
     @JsonProperty("role") private Role role;
-    @JsonProperty("basket") private ArrayList<BasketNeed> basket;
+    private LinkedHashMap<Integer, BasketNeed> basket; // Keyed by need id, in the order the needs were added
     @JsonProperty("password") private String password;
     @JsonProperty("security") private ArrayList<String> security;
     @JsonProperty("restricted") private boolean restricted;
@@ -34,7 +39,7 @@ public class User {
         this.id = id;
         this.userName = userName;
         this.password = password;
-        this.basket = new ArrayList<>();
+        this.basket = new LinkedHashMap<>();
         if(userName.equals("admin")){
             this.role = Role.MANAGER;
         } else {
@@ -55,7 +60,8 @@ public class User {
         this.id = id;
         this.userName = userName;
         this.password = password;
-        this.basket = basket;
+        this.basket = new LinkedHashMap<>();
+        setBasket(basket);
         if(userName.equals("admin")){
             this.role = Role.MANAGER;
         } else {
@@ -99,10 +105,70 @@ public class User {
 
     /**
      * Retrieves the basket
-     * @return The array list of needs
+     * @return A copy of the needs in the basket, by id, in the order they were added
      */
+    @JsonProperty("basket")
     public ArrayList<BasketNeed> getBasket() {
-        return basket;
+        return new ArrayList<>(basket.values());
+    }
+
+    /**
+     * Replaces the basket, adding together the counts of lines for the same need
+     * <br>
+     * Only the id of each need is kept, see {@link BasketNeed#reference()}
+     * @param lines The needs in the basket, may be null for an empty basket
+     */
+    @JsonProperty("basket")
+    private void setBasket(List<BasketNeed> lines) {
+        basket.clear();
+        if (lines != null) {
+            for (BasketNeed line : lines) {
+                if (line != null) {
+                    basket.merge(line.getNeedId(), line.reference(),
+                                 (first, second) -> new BasketNeed(first.getNeedId(), first.getCount() + second.getCount()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills in the need of every line in the basket, leaving out the needs that are gone
+     * <br>
+     * Only for a copy of the user about to be sent, a stored user keeps the
+     * needs by id alone
+     * @param needs Finds a need by its id, null when there is no such need
+     */
+    public void joinBasket(IntFunction<Need> needs) {
+        basket.replaceAll((needId, line) -> {
+            Need need = needs.apply(needId);
+            return need != null ? line.join(need) : null;
+        });
+        basket.values().removeIf(Objects::isNull);
+    }
+
+    /**
+     * Empties the basket
+     * @return The needs that were in the basket, in the order they were added
+     */
+    public ArrayList<BasketNeed> takeBasket() {
+        ArrayList<BasketNeed> taken = getBasket();
+        basket.clear();
+        return taken;
+    }
+
+    /**
+     * Puts needs back at the front of the basket, skipping any need already in it
+     * @param lines The needs to put back
+     */
+    public void restoreBasket(List<BasketNeed> lines) {
+        LinkedHashMap<Integer, BasketNeed> restored = new LinkedHashMap<>();
+        for (BasketNeed line : lines) {
+            if (!basket.containsKey(line.getNeedId())) {
+                restored.putIfAbsent(line.getNeedId(), line.reference());
+            }
+        }
+        restored.putAll(basket);
+        basket = restored;
     }
 
     public String getPassword() {
@@ -110,12 +176,12 @@ public class User {
     }
 
     /**
-     * Adds a need to the needs list
+     * Adds a need to the needs list, unless it is already there
      * @param need The need 
      */
     public void addNeed(Need need) {
         if (need != null) {
-            basket.add(new BasketNeed(need, 1));
+            basket.putIfAbsent(need.getId(), new BasketNeed(need.getId(), 1));
         } else {
             throw new IllegalArgumentException("Cannot add null Need to basket");
         }
@@ -125,20 +191,34 @@ public class User {
      * @param need The need to remove 
      */
     public void removeNeed(Need need) {
-        for (int i = 0; i < basket.size(); i++){
-            if (basket.get(i).getNeed().getId() == need.getId()){
-                basket.remove(i);
-            }
-        }
+        removeNeed(need.getId());
+    }
+
+    /**
+     * Removes a need from the needs list by its id
+     * @param needId The id of the need to remove
+     * @return true if the need was in the basket
+     */
+    public boolean removeNeed(int needId) {
+        return basket.remove(needId) != null;
     }
 
+    /**
+     * Finds a need in the basket by its id
+     * @param need The need to look for
+     * @return The need and its count, null if it is not in the basket
+     */
     public BasketNeed getBasketNeed(Need need) {
-        for (int i = 0; i < basket.size(); i++){
-            if (basket.get(i).getNeed().getId() == need.getId()){
-                return basket.get(i);
-            }
-        }
-        return null;
+        return basket.get(need.getId());
+    }
+
+    /**
+     * Counts the needs in the basket
+     * @return The number of lines in the basket
+     */
+    @JsonIgnore
+    public int getBasketSize() {
+        return basket.size();
     }
 
     public ArrayList<String> getSecurity(){
@@ -0,0 +1,80 @@
+package com.ufund.api.ufundapi.persistence;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ufund.api.ufundapi.model.Need;
+import com.ufund.api.ufundapi.model.TypeAggregate;
+
+/**
+ * Running totals per type over the {@linkplain Need needs} of the cupboard
+ * <br>
+ * Every add and remove adjusts the totals of one type, so they stay exact
+ * without ever revisiting the other needs. Types are grouped ignoring case, as
+ * the {@link TypeIndex type index} looks them up, and each group is named as
+ * the need that started the group spelled it. Unlike the search indexes the totals
+ * are not safe to read concurrently: the cupboard reads them while holding its
+ * write lock and publishes the result with each snapshot
+ */
+class AggregateIndex implements NeedIndex {
+    private static final int NEEDS = 0;
+    private static final int QUANTITY = 1;
+    private static final int VALUE = 2;
+
+    private final Map<String, long[]> totals = new HashMap<>(); // normalized type to its needs, quantity and value, null is a type of its own
+    private final Map<String, String> names = new HashMap<>();  // normalized type to the spelling it is reported under
+
+    /**
+     * Gets the key a type is totalled under
+     * 
+     * @param type The type of a need, may be null
+     * @return The type ignoring case, null for null
+     */
+    private static String keyOf(String type) {
+        return type == null ? null : TrigramIndex.normalize(type);
+    }
+
+    @Override
+    public void add(Need need) {
+        String key = keyOf(need.getType());
+        long[] sums = totals.computeIfAbsent(key, k -> new long[3]);
+        names.putIfAbsent(key, need.getType());
+        sums[NEEDS]++;
+        sums[QUANTITY] += need.getQuantity();
+        sums[VALUE] += (long) need.getCost() * need.getQuantity();
+    }
+
+    @Override
+    public void remove(Need need) {
+        String key = keyOf(need.getType());
+        long[] sums = totals.get(key);
+        if (sums == null) {
+            return;
+        }
+        sums[NEEDS]--;
+        sums[QUANTITY] -= need.getQuantity();
+        sums[VALUE] -= (long) need.getCost() * need.getQuantity();
+        if (sums[NEEDS] == 0) {
+            totals.remove(key);
+            names.remove(key);
+        }
+    }
+
+    /**
+     * Copies the current totals
+     * 
+     * @return The totals of every type with at least one need, ordered by type
+     */
+    TypeAggregate[] aggregates() {
+        List<TypeAggregate> aggregates = new ArrayList<>(totals.size());
+        for (Map.Entry<String, long[]> entry : totals.entrySet()) {
+            long[] sums = entry.getValue();
+            aggregates.add(new TypeAggregate(names.get(entry.getKey()), sums[NEEDS], sums[QUANTITY], sums[VALUE]));
+        }
+        aggregates.sort(Comparator.comparing(TypeAggregate::getType, Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER)));
+        return aggregates.toArray(new TypeAggregate[0]);
+    }
+}
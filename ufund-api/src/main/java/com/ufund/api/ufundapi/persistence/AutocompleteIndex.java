@@ -0,0 +1,149 @@
+package com.ufund.api.ufundapi.persistence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntPredicate;
+
+import com.ufund.api.ufundapi.model.Need;
+
+/**
+ * Prefix index over the full names of every {@linkplain Need need}
+ * <br>
+ * Lower cased names are kept in a trie, with the ids of the needs of each name at
+ * the letter it ends on. Completing a prefix walks down to the prefix and then
+ * visits names in alphabetical order until enough are found, so the work depends
+ * on the prefix and the number of completions rather than the size of the cupboard.
+ * Only the first {@value #MAX_KEY_LENGTH} characters of a name are indexed, and
+ * letters no name uses any more are pruned, which bounds the memory to the names
+ * actually in the cupboard
+ */
+class AutocompleteIndex implements NeedIndex {
+    /** The most characters of a name that are indexed */
+    static final int MAX_KEY_LENGTH = 64;
+
+    private final TrieNode<Set<Integer>> root = new TrieNode<>('\0'); // holds the ids of needs at the end of each name
+
+    /**
+     * Gets the key a name or prefix is indexed under
+     * 
+     * @param text The name or prefix
+     * @return The text in lower case, cut to {@value #MAX_KEY_LENGTH} characters
+     */
+    static String key(String text) {
+        String normalized = TrigramIndex.normalize(text);
+        return normalized.length() > MAX_KEY_LENGTH ? normalized.substring(0, MAX_KEY_LENGTH) : normalized;
+    }
+
+    @Override
+    public void add(Need need) {
+        if (need.getName() == null) {
+            return;
+        }
+        String key = key(need.getName());
+        TrieNode<Set<Integer>> node = root;
+        for (int i = 0; i < key.length(); i++) {
+            node = node.getOrAdd(key.charAt(i));
+        }
+        if (node.value == null) {
+            node.value = ConcurrentHashMap.newKeySet();
+        }
+        node.value.add(need.getId());
+    }
+
+    @Override
+    public void remove(Need need) {
+        if (need.getName() == null) {
+            return;
+        }
+        String key = key(need.getName());
+        List<TrieNode<Set<Integer>>> path = new ArrayList<>();
+        TrieNode<Set<Integer>> node = root;
+        path.add(node);
+        for (int i = 0; i < key.length() && node != null; i++) {
+            node = node.get(key.charAt(i));
+            path.add(node);
+        }
+        if (node == null || node.value == null) {
+            return;
+        }
+        node.value.remove(need.getId());
+        if (!node.value.isEmpty()) {
+            return;
+        }
+        node.value = null;
+        // prune the letters that no longer lead to any name
+        for (int i = path.size() - 1; i > 0; i--) {
+            TrieNode<Set<Integer>> child = path.get(i);
+            if (child.value != null || child.children.length > 0) {
+                break;
+            }
+            path.get(i - 1).remove(child.letter);
+        }
+    }
+
+    /**
+     * Gets the needs whose name starts with a prefix, in alphabetical order of name
+     * 
+     * @param prefix The prefix typed so far
+     * @param limit The most ids to return
+     * @return The ids of the first completions, needs sharing a name ordered by id
+     */
+    List<Integer> complete(String prefix, int limit) {
+        return complete(prefix, limit, id -> true);
+    }
+
+    /**
+     * Gets the needs whose name starts with a prefix and that pass a check, in
+     * alphabetical order of name
+     * <br>
+     * The check is made before an id counts towards the limit, so ids it turns
+     * down, such as names that only share the indexed part of a long prefix,
+     * do not cut the completions short
+     * 
+     * @param prefix The prefix typed so far
+     * @param limit The most ids to return
+     * @param accept Decides whether the need with an id is a completion
+     * @return The ids of the first completions, needs sharing a name ordered by id
+     */
+    List<Integer> complete(String prefix, int limit, IntPredicate accept) {
+        List<Integer> ids = new ArrayList<>();
+        String key = key(prefix);
+        TrieNode<Set<Integer>> node = root;
+        for (int i = 0; i < key.length() && node != null; i++) {
+            node = node.get(key.charAt(i));
+        }
+        if (node != null && limit > 0) {
+            collect(node, limit, accept, ids);
+        }
+        return ids;
+    }
+
+    /**
+     * Adds the ids below a node in alphabetical order of name until there are enough
+     * 
+     * @param node The node to start from
+     * @param limit The most ids wanted
+     * @param accept Decides whether an id is wanted
+     * @param ids Collects the ids
+     */
+    private static void collect(TrieNode<Set<Integer>> node, int limit, IntPredicate accept, List<Integer> ids) {
+        Set<Integer> here = node.value;
+        if (here != null) {
+            List<Integer> sorted = new ArrayList<>(here);
+            sorted.sort(null);
+            for (int i = 0; i < sorted.size() && ids.size() < limit; i++) {
+                if (accept.test(sorted.get(i))) {
+                    ids.add(sorted.get(i));
+                }
+            }
+        }
+        for (TrieNode<Set<Integer>> child : node.children) {
+            if (ids.size() >= limit) {
+                return;
+            }
+            collect(child, limit, accept, ids);
+        }
+    }
+}
@@ -3,7 +3,11 @@ package com.ufund.api.ufundapi.persistence;
 import java.io.IOException;
 import java.util.List;
 
+import com.ufund.api.ufundapi.model.BasketNeed;
+import com.ufund.api.ufundapi.model.BulkResult;
+import com.ufund.api.ufundapi.model.CheckoutResult;
 import com.ufund.api.ufundapi.model.Need;
+import com.ufund.api.ufundapi.model.TypeAggregate;
 
 /**
  * Defines the interface for Need object persistence
@@ -74,6 +78,44 @@ public interface CupboardDAO {
      */
     boolean deleteNeed(int id) throws IOException;
 
+    /**
+     * Creates and saves many {@linkplain Need needs} at once
+     * <br>
+     * Every need is checked before any is created, and either all of them are
+     * created or, if any is missing, invalid or clashes with an existing need, none are
+     * 
+     * @param needs The {@link Need needs} to create
+     * @return The result of each need, in the same order
+     * 
+     * @throws IOException if an issue with underlying storage
+     */
+    BulkResult[] createNeeds(Need[] needs) throws IOException;
+
+    /**
+     * Updates many existing {@linkplain Need needs} at once, each identified by its own id
+     * <br>
+     * Either all of them are updated or, if any is missing, invalid, unknown or
+     * given twice, none are
+     * 
+     * @param needs The updated {@link Need needs}
+     * @return The result of each need, in the same order
+     * 
+     * @throws IOException if an issue with underlying storage
+     */
+    BulkResult[] updateNeeds(Need[] needs) throws IOException;
+
+    /**
+     * Deletes many {@linkplain Need needs} at once
+     * <br>
+     * Either all of them are deleted or, if any id is unknown or given twice, none are
+     * 
+     * @param ids The IDs of the needs to delete
+     * @return The result of each id, in the same order
+     * 
+     * @throws IOException if an issue with underlying storage
+     */
+    BulkResult[] deleteNeeds(int[] ids) throws IOException;
+
     /**
      * Generates an array of {@linkplain Need needs} from the map for any
      * {@linkplain Need needs} that contains the text specified by containsText
@@ -89,4 +131,117 @@ public interface CupboardDAO {
     * Gets a need based on its ID
      */
     Need getNeed(int id);
+
+    /**
+     * Gets a page of {@linkplain Need needs} in id order
+     * 
+     * @param after The id the page starts after, {@link Integer#MIN_VALUE} for the first page
+     * @param limit The most {@link Need needs} on the page
+     * 
+     * @return The {@link Need needs} with the lowest ids greater than after, may be empty
+     */
+    Need[] getNeedsPage(int after, int limit);
+
+    /**
+     * Searches the name, type and description of every {@linkplain Need need} for
+     * any of the words of a query, best matches first
+     * 
+     * @param query The words to search for
+     * @param offset How many of the best matches to skip
+     * @param limit The most {@link Need needs} to return
+     * 
+     * @return The ranked {@link Need needs}, may be empty
+     */
+    Need[] searchNeeds(String query, int offset, int limit);
+
+    /**
+     * Searches {@linkplain Need need} names for close matches of every word of a
+     * query, tolerating typos up to an edit distance, closest matches first
+     * 
+     * @param query The words to search for
+     * @param maxDistance The most single character edits allowed per word, or a
+     *                    negative number to allow more edits for longer words
+     * 
+     * @return The matching {@link Need needs}, may be empty
+     */
+    Need[] fuzzySearchNeeds(String query, int maxDistance);
+
+    /**
+     * Completes a prefix of a {@linkplain Need need} name
+     * 
+     * @param prefix The start of the name, ignoring case
+     * @param limit The most {@link Need needs} to return
+     * 
+     * @return The first {@link Need needs} whose name starts with the prefix, in alphabetical order, may be empty
+     */
+    Need[] autocompleteNeeds(String prefix, int limit);
+
+    /**
+     * Finds the {@linkplain Need needs} matching every given filter, in the given order
+     * 
+     * @param type The type to match, ignoring case, null for any type
+     * @param minCost The lowest cost, inclusive, {@link Integer#MIN_VALUE} for no lower bound
+     * @param maxCost The highest cost, inclusive, {@link Integer#MAX_VALUE} for no upper bound
+     * @param minQuantity The lowest quantity, inclusive, {@link Integer#MIN_VALUE} for no lower bound
+     * @param maxQuantity The highest quantity, inclusive, {@link Integer#MAX_VALUE} for no upper bound
+     * @param order The order to list the matches in
+     * @param limit The most {@link Need needs} to return
+     * 
+     * @return The first matching {@link Need needs} in order, may be empty
+     */
+    Need[] queryNeeds(String type, int minCost, int maxCost, int minQuantity, int maxQuantity, NeedOrder order, int limit);
+
+    /**
+     * Gets the number of {@linkplain Need needs}, their total quantity and their
+     * total value, cost times quantity, for every type
+     * 
+     * @return The totals of every type with at least one {@link Need need}, ordered by type
+     */
+    TypeAggregate[] getAggregates();
+
+    /**
+     * Holds some of a {@linkplain Need need} for a user's basket for a while, so
+     * that nobody else can fund it first, replacing any hold the user already has
+     * on the need and starting its time over
+     * 
+     * @param userId The id of the user
+     * @param needId The id of the need
+     * @param count How much to hold, 0 to hand the hold back
+     * 
+     * @return true if the need is held, false if too little of it is left to hold, in which case any earlier hold stays
+     */
+    boolean holdNeed(int userId, int needId, int count);
+
+    /**
+     * Hands back a user's hold on a {@linkplain Need need}, if there is one
+     * 
+     * @param userId The id of the user
+     * @param needId The id of the need
+     */
+    void releaseHold(int userId, int needId);
+
+    /**
+     * Funds a basket, adding the count of every {@linkplain Need need} in it to the
+     * quantity received, as long as none of them would go past its cost
+     * <br>
+     * Either every need in the basket is taken or none is, and a completed checkout
+     * is recorded in storage before this returns. What the user holds of a need
+     * is funded first and any of the hold left over is handed back
+     * 
+     * @param userId The id of the user checking out
+     * @param basket The ids of the needs to fund and how many of each, lines for the same need are added together
+     * 
+     * @return The {@link CheckoutResult outcome}, listing the needs that could not take their count when nothing was funded
+     * 
+     * @throws IOException if an issue with underlying storage, in which case nothing was funded
+     */
+    CheckoutResult checkout(int userId, List<BasketNeed> basket) throws IOException;
+
+    /**
+     * Gets the version of the cupboard, which changes whenever a {@linkplain Need need}
+     * is created, updated or deleted
+     * 
+     * @return The current version
+     */
+    long getVersion();
 }
\ No newline at end of file
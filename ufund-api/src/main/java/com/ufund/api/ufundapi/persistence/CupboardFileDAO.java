@@ -1,44 +1,337 @@
 package com.ufund.api.ufundapi.persistence;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.TreeMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import jakarta.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import com.ufund.api.ufundapi.model.BasketNeed;
+import com.ufund.api.ufundapi.model.BulkResult;
+import com.ufund.api.ufundapi.model.CheckoutResult;
 import com.ufund.api.ufundapi.model.Need;
+import com.ufund.api.ufundapi.model.TypeAggregate;
+import com.ufund.api.ufundapi.util.CupboardImporter;
+import com.ufund.api.ufundapi.util.FileSync;
 
 /**
  * Implements the functionality for JSON file-based peristance for the Cupboard
+ * <br>
+ * Mutations are appended to a write-ahead log next to the cupboard file and
+ * folded into a full snapshot of the cupboard once the log holds enough records,
+ * so a single edit only costs a small append rather than a rewrite of every need.
+ * A compaction threshold of 0 turns the log off and rewrites the snapshot on every mutation.
+ * <br>
+ * Readers never lock: every mutation publishes a new immutable {@link Snapshot snapshot}
+ * of the cupboard, and reads are served from whichever snapshot was last published.
+ * A snapshot keeps the needs in a {@link NeedTrie persistent trie} that shares all
+ * but the changed paths with the one before, so publishing does not copy the cupboard.
+ * Name searches go through a {@link TrigramIndex trigram index} rather than a scan,
+ * ranked searches through a {@link FullTextIndex full-text index} and typo tolerant
+ * searches through a {@link FuzzyIndex trie} of name words and completions of a
+ * name through an {@link AutocompleteIndex autocomplete trie}. Filtered queries
+ * start from a {@link TypeIndex type index} or a cost or quantity {@link RangeIndex range index},
+ * and the {@link AggregateIndex totals per type} are published with every snapshot.
+ * <br>
+ * Checkouts do not take the lock to claim stock: how much of every need is still
+ * wanted, its cost less the quantity received, is also kept in a {@link NeedStock},
+ * which a checkout decrements with compare and set. The lock is only taken afterwards
+ * to publish the new quantities and log them, and whichever checkout gets it first
+ * does so for every checkout waiting behind it.
+ * <br>
+ * Adding a need to a basket holds some of its stock for that user for a while,
+ * and the checkout turns the hold into funding. Holds that run out are handed
+ * back by a {@link TimingWheel timing wheel}, and live only in memory.
  * 
  * @author Colin Rindge, Kyle Long
  */
 @Component
 public class CupboardFileDAO implements CupboardDAO {
-    private Map<Integer, Need> needs;
+    /** Number of log records written before the log is folded into the snapshot */
+    static final int DEFAULT_COMPACT_THRESHOLD = 500;
+    /** Seconds a basket holds stock for before it is handed back */
+    static final int DEFAULT_HOLD_SECONDS = 900;
+    private static final long HOLD_TICK_MILLIS = 1000;
+    private static final int HOLD_SLOTS = 1024;
+
+    private Map<Integer, Need> needs;   // The writers' working copy, guarded by its own lock
+    private NeedTrie published = NeedTrie.EMPTY; // The same needs as the next snapshot will share them, guarded by the needs lock
+    private volatile Snapshot snapshot; // The cupboard as readers currently see it
+    private final TrigramIndex nameIndex = new TrigramIndex();  // Trigrams of need names
+    private final FullTextIndex textIndex = new FullTextIndex(); // Words of names, types and descriptions
+    private final FuzzyIndex fuzzyIndex = new FuzzyIndex();      // Words of names for typo tolerant search
+    private final AutocompleteIndex prefixIndex = new AutocompleteIndex(); // Full names for completing prefixes
+    private final TypeIndex typeIndex = new TypeIndex();         // Ids of the needs of each type
+    private final RangeIndex costIndex = new RangeIndex(Need::getCost);         // Needs ordered by cost
+    private final RangeIndex quantityIndex = new RangeIndex(Need::getQuantity); // Needs ordered by quantity
+    private final AggregateIndex aggregateIndex = new AggregateIndex(); // Totals per type, only read under the lock
+    private final List<NeedIndex> indexes = List.of(nameIndex, textIndex, fuzzyIndex, prefixIndex,
+                                                    typeIndex, costIndex, quantityIndex, aggregateIndex); // Kept in step with the needs map
+    private final Map<Integer, NeedStock> stock = new ConcurrentHashMap<>(); // How much of each need is still wanted, claimed without the lock
+    private final Map<Long, Hold> holds = new ConcurrentHashMap<>(); // The live hold of each user on each need
+    private final TimingWheel<Hold> holdWheel;  // Hands back holds that run out, advanced by one thread at a time
+    private ScheduledExecutorService holdTicker; // Advances the wheel, null until the first hold
+    private long holdMillis;                    // How long a hold lasts, 0 to place no holds
+    private final ConcurrentLinkedQueue<StockChange> pendingStock = new ConcurrentLinkedQueue<>(); // Claimed or released stock not yet published
     private ObjectMapper objectMapper;
     private static int nextId;
     private String filename;
+    private Path logPath;           // The write-ahead log sitting next to the snapshot file
+    private FileChannel log;        // Open append channel to the log, null until the first append
+    private int logRecords;         // The number of records currently in the log
+    private int compactThreshold;   // Log size that triggers compaction, 0 to disable the log
+    private boolean fsync;          // Whether every append is forced to the storage device
+
+    /**
+     * An immutable view of the cupboard at one point in time
+     * <br>
+     * A snapshot is never changed once published, so a reader holding one sees
+     * either all of a mutation or none of it
+     */
+    static final class Snapshot {
+        final NeedTrie byId;            // Every need by id, sharing most of its nodes with the snapshot before
+        final TypeAggregate[] aggregates; // Totals per type over the same needs, must not be modified
+        final long version;             // Goes up by one with every published mutation
+        private volatile Need[] needs;  // The same needs ordered by id, listed on first read
+
+        /**
+         * Creates a snapshot
+         * @param byId Every need by id
+         * @param aggregates The totals per type over the same needs
+         * @param version The version of the cupboard
+         */
+        Snapshot(NeedTrie byId, TypeAggregate[] aggregates, long version) {
+            this.byId = byId;
+            this.aggregates = aggregates;
+            this.version = version;
+        }
+
+        /**
+         * Lists every need ordered by id
+         * <br>
+         * The list is only made once a reader asks for it, so a run of mutations
+         * with no such reads between them never lists the cupboard
+         * @return The shared array of needs, must not be modified
+         */
+        Need[] needs() {
+            Need[] all = needs;
+            if (all == null) {
+                all = byId.toArray(); // two readers may both list it, either result is the same
+                needs = all;
+            }
+            return all;
+        }
+    }
+
+    /**
+     * A single mutation recorded in the write-ahead log
+     * <br>
+     * A checkout is recorded as the quantities its needs reached rather than as the
+     * amounts funded, so replaying it twice does no harm
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    static class LogEntry {
+        static final String PUT = "put";
+        static final String DELETE = "delete";
+        static final String CHECKOUT = "checkout";
+        static final String RELEASE = "release";
+
+        @JsonProperty("op") String op;
+        @JsonProperty("id") int id;
+        @JsonProperty("need") Need need;
+        @JsonProperty("user") Integer user;
+        @JsonProperty("quantities") Map<Integer, Integer> quantities;
+
+        /**
+         * Creates a log entry for a put or a delete
+         * @param op The operation, either {@link #PUT} or {@link #DELETE}
+         * @param id The id of the affected need
+         * @param need The full need for a put, null for a delete
+         */
+        LogEntry(String op, int id, Need need) {
+            this(op, id, need, null, null);
+        }
+
+        /**
+         * Creates a log entry
+         * @param op The operation, {@link #PUT}, {@link #DELETE}, {@link #CHECKOUT}
+         *           or {@link #RELEASE} for stock given back by a checkout that failed
+         * @param id The id of the affected need, 0 for a change of stock
+         * @param need The full need for a put, null otherwise
+         * @param user The id of the user checking out for a change of stock, null otherwise
+         * @param quantities The quantity received of each need for a change of stock, null otherwise
+         */
+        @JsonCreator
+        LogEntry(@JsonProperty("op") String op, @JsonProperty("id") int id, @JsonProperty("need") Need need,
+                 @JsonProperty("user") Integer user, @JsonProperty("quantities") Map<Integer, Integer> quantities) {
+            this.op = op;
+            this.id = id;
+            this.need = need;
+            this.user = user;
+            this.quantities = quantities;
+        }
+    }
+
+    /**
+     * Stock claimed by a checkout, or given back by one that failed, that has not
+     * been published and logged yet
+     */
+    private static final class StockChange {
+        final String op;    // Either LogEntry.CHECKOUT or LogEntry.RELEASE
+        final int userId;   // The user checking out
+        final int[] needIds; // The needs whose quantity changed
+
+        StockChange(String op, int userId, int[] needIds) {
+            this.op = op;
+            this.userId = userId;
+            this.needIds = needIds;
+        }
+    }
+
+    /**
+     * Stock of one need held for the basket of one user until a deadline
+     * <br>
+     * A hold is never changed: changing the amount replaces it with a new one.
+     * Whoever ends a hold first, by checking out, replacing, releasing or
+     * expiring it, owns its amount
+     */
+    private static final class Hold {
+        final int userId;
+        final int needId;
+        final int count;
+        final long deadline;
+        private final AtomicBoolean active = new AtomicBoolean(true);
+
+        Hold(int userId, int needId, int count, long deadline) {
+            this.userId = userId;
+            this.needId = needId;
+            this.count = count;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Ends the hold
+         * @return true if this call ended it, false if it had already ended
+         */
+        boolean end() {
+            return active.compareAndSet(true, false);
+        }
+
+        boolean isActive() {
+            return active.get();
+        }
+    }
+
+    /**
+     * Stock taken by one line of a checkout, kept so it can be given back
+     */
+    private static final class Claim {
+        final int needId;
+        final int taken; // Taken from the available part of the stock
+        final Hold hold; // The hold that was turned into funding, null if there was none
+
+        Claim(int needId, int taken, Hold hold) {
+            this.needId = needId;
+            this.taken = taken;
+            this.hold = hold;
+        }
+    }
+
+    /**
+     * Creates a Cupboard File Data Access Object with the default log settings
+     * 
+     * @param filename Filename to read from and write to
+     * @param objectMapper Provides JSON Object to/from Java Object serialization and deserialization
+     * 
+     * @throws IOException when file cannot be accessed or read from
+     */
+    public CupboardFileDAO(String filename, ObjectMapper objectMapper) throws IOException {
+        this(filename, objectMapper, DEFAULT_COMPACT_THRESHOLD, false);
+    }
+
+    /**
+     * Creates a Cupboard File Data Access Object with the default hold time
+     * 
+     * @param filename Filename to read from and write to
+     * @param objectMapper Provides JSON Object to/from Java Object serialization and deserialization
+     * @param compactThreshold Number of log records kept before they are folded into the snapshot, 0 disables the log
+     * @param fsync true to force every log append to the storage device before returning
+     * 
+     * @throws IOException when file cannot be accessed or read from
+     */
+    public CupboardFileDAO(String filename, ObjectMapper objectMapper, int compactThreshold, boolean fsync) throws IOException {
+        this(filename, objectMapper, compactThreshold, fsync, DEFAULT_HOLD_SECONDS);
+    }
 
     /**
      * Creates a Cupboard File Data Access Object
      * 
      * @param filename Filename to read from and write to
      * @param objectMapper Provides JSON Object to/from Java Object serialization and deserialization
+     * @param compactThreshold Number of log records kept before they are folded into the snapshot, 0 disables the log
+     * @param fsync true to force every log append to the storage device before returning
+     * @param holdSeconds Seconds a basket holds stock for, 0 to place no holds
      * 
      * @throws IOException when file cannot be accessed or read from
      */
-    public CupboardFileDAO(@Value("${cupboard.file}") String filename, ObjectMapper objectMapper) throws IOException {
+    @Autowired
+    public CupboardFileDAO(@Value("${cupboard.file}") String filename, ObjectMapper objectMapper,
+                           @Value("${cupboard.log.threshold:" + DEFAULT_COMPACT_THRESHOLD + "}") int compactThreshold,
+                           @Value("${cupboard.log.fsync:false}") boolean fsync,
+                           @Value("${cupboard.hold.seconds:" + DEFAULT_HOLD_SECONDS + "}") int holdSeconds) throws IOException {
         this.filename = filename;
         this.objectMapper = objectMapper;
+        this.logPath = Path.of(filename + ".log");
+        this.compactThreshold = compactThreshold;
+        this.fsync = fsync;
+        this.holdMillis = Math.max(holdSeconds, 0) * 1000L;
+        this.holdWheel = new TimingWheel<>(HOLD_TICK_MILLIS, HOLD_SLOTS, System.currentTimeMillis(), this::expire);
         load();
     }
 
+    /**
+     * Stops handing back holds that run out
+     */
+    @PreDestroy
+    public void close() {
+        synchronized(holdWheel) {
+            if (holdTicker != null) {
+                holdTicker.shutdownNow();
+            }
+        }
+    }
+
     /**
      * Generates the next id for a new {@linkplain Need need}
      * 
@@ -51,23 +344,119 @@ public class CupboardFileDAO implements CupboardDAO {
     }
 
     /**
-     * Generates an array of {@linkplain Need needs} from the map
+     * Stores a need in the needs map, replacing any need with the same id, and
+     * keeps the indexes and its stock in step
+     * <br>
+     * Must be called while holding the lock on the needs map
+     * 
+     * @param need The need to store
+     */
+    private void putNeed(Need need) {
+        Need old = needs.get(need.getId());
+        NeedStock needStock = stock.get(need.getId());
+        int wanted = need.getCost() - need.getQuantity();
+        if (old == null || needStock == null) {
+            stock.computeIfAbsent(need.getId(), id -> new NeedStock()).set(wanted);
+        } else {
+            // move the stock only by what the edit changed, so a checkout that has
+            // taken from it but not committed yet keeps what it took
+            needStock.adjust(wanted - (old.getCost() - old.getQuantity()));
+        }
+        indexNeed(need);
+    }
+
+    /**
+     * Stores a need in the needs map and the indexes, leaving its stock alone
+     * <br>
+     * Must be called while holding the lock on the needs map
+     * 
+     * @param need The need to store
+     */
+    private void indexNeed(Need need) {
+        Need old = needs.put(need.getId(), need);
+        published = published.with(need);
+        for (NeedIndex index : indexes) {
+            if (old != null) {
+                index.remove(old);
+            }
+            index.add(need);
+        }
+    }
+
+    /**
+     * Removes a need from the needs map and the indexes
+     * <br>
+     * Must be called while holding the lock on the needs map
+     * 
+     * @param id The id of the need to remove
+     * @return The removed need, null if there was none
+     */
+    private Need removeNeed(int id) {
+        stock.remove(id);
+        Need old = needs.remove(id);
+        published = published.without(id);
+        if (old != null) {
+            for (NeedIndex index : indexes) {
+                index.remove(old);
+            }
+        }
+        return old;
+    }
+
+    /**
+     * Publishes the current state of the needs map as a new snapshot for readers
+     * <br>
+     * Must be called while holding the lock on the needs map, after every mutation
+     */
+    private void publish() {
+        Snapshot previous = snapshot;
+        long version = previous == null ? 0 : previous.version + 1;
+        snapshot = new Snapshot(published, aggregateIndex.aggregates(), version);
+    }
+
+    /**
+    ** {@inheritDoc}
+    */
+    @Override
+    public long getVersion() {
+        return snapshot.version;
+    }
+
+    /**
+     * Gets the array of {@linkplain Need needs} from the current snapshot
      * 
-     * @return  The array of {@link Need needs}, may be empty
+     * @return  The shared array of {@link Need needs}, may be empty, must not be modified
      */
     private Need[] getNeedsArray() {
-        return getNeedsArray(null);
+        return snapshot.needs();
     }
 
     /**
     ** {@inheritDoc}
     */
     public Need[] getNeedsArray(String containsText) { // if containsText == null, no filter
+        Snapshot current = snapshot;
+        if (containsText == null) {
+            return current.needs().clone();
+        }
         ArrayList<Need> needArrayList = new ArrayList<>();
+        String lowerText = TrigramIndex.normalize(containsText);
 
-        for (Need need : needs.values()) {
-            if (containsText == null || need.getName().toLowerCase().contains(containsText.toLowerCase())) {
-                needArrayList.add(need);
+        if (TrigramIndex.canSearch(lowerText)) {
+            // only the needs sharing every trigram with the query can match
+            List<Integer> candidates = nameIndex.candidates(lowerText);
+            candidates.sort(null);
+            for (int id : candidates) {
+                Need need = current.byId.get(id);
+                if (need != null && TrigramIndex.normalize(need.getName()).contains(lowerText)) {
+                    needArrayList.add(need);
+                }
+            }
+        } else {
+            for (Need need : current.needs()) {
+                if (TrigramIndex.normalize(need.getName()).contains(lowerText)) {
+                    needArrayList.add(need);
+                }
             }
         }
 
@@ -76,8 +465,151 @@ public class CupboardFileDAO implements CupboardDAO {
         return needArray;
     }
 
+    /**
+    ** {@inheritDoc}
+    */
+    @Override
+    public Need[] getNeedsPage(int after, int limit) {
+        // the trie is ordered by id, so only the path to after and the page are walked
+        return snapshot.byId.after(after, limit);
+    }
+
+    /**
+    ** {@inheritDoc}
+    */
+    @Override
+    public Need[] searchNeeds(String query, int offset, int limit) {
+        if (offset < 0 || limit <= 0) {
+            return new Need[0];
+        }
+        Snapshot current = snapshot;
+        ArrayList<Need> page = new ArrayList<>();
+        List<Integer> ranked = textIndex.search(query, offset + limit);
+        for (int i = offset; i < ranked.size(); i++) {
+            Need need = current.byId.get(ranked.get(i));
+            if (need != null) {
+                page.add(need);
+            }
+        }
+        return page.toArray(new Need[0]);
+    }
+
+    /**
+    ** {@inheritDoc}
+    */
+    @Override
+    public Need[] fuzzySearchNeeds(String query, int maxDistance) {
+        Snapshot current = snapshot;
+        ArrayList<Need> matches = new ArrayList<>();
+        for (int id : fuzzyIndex.search(query, maxDistance)) {
+            Need need = current.byId.get(id);
+            if (need != null) {
+                matches.add(need);
+            }
+        }
+        return matches.toArray(new Need[0]);
+    }
+
+    /**
+    ** {@inheritDoc}
+    */
+    @Override
+    public Need[] autocompleteNeeds(String prefix, int limit) {
+        Snapshot current = snapshot;
+        String lowerPrefix = TrigramIndex.normalize(prefix);
+        ArrayList<Need> completions = new ArrayList<>();
+        // names past the indexed length still have to start with the whole prefix,
+        // which is checked before the limit so that they do not use it up
+        IntPredicate completes = id -> {
+            Need need = current.byId.get(id);
+            return need != null && TrigramIndex.normalize(need.getName()).startsWith(lowerPrefix);
+        };
+        for (int id : prefixIndex.complete(prefix, limit, completes)) {
+            completions.add(current.byId.get(id));
+        }
+        return completions.toArray(new Need[0]);
+    }
+
+    /**
+    ** {@inheritDoc}
+    */
+    @Override
+    public TypeAggregate[] getAggregates() {
+        return snapshot.aggregates.clone();
+    }
+
+    /**
+    ** {@inheritDoc}
+    */
+    @Override
+    public Need[] queryNeeds(String type, int minCost, int maxCost, int minQuantity, int maxQuantity, NeedOrder order, int limit) {
+        if (limit <= 0 || minCost > maxCost || minQuantity > maxQuantity) {
+            return new Need[0];
+        }
+        Snapshot current = snapshot;
+        Predicate<Need> matches = need -> (type == null || type.equalsIgnoreCase(need.getType()))
+                && need.getCost() >= minCost && need.getCost() <= maxCost
+                && need.getQuantity() >= minQuantity && need.getQuantity() <= maxQuantity;
+
+        // start from whichever index narrows the query the most, preferring
+        // one that already yields the requested order on a tie
+        Iterable<Integer> source = null;    // Candidate ids, null to scan the snapshot
+        NeedOrder sourceOrder = NeedOrder.ID; // The order the candidates come in, null if unordered
+        int bound = current.needs().length;   // Most candidates the source yields
+        if (type != null) {
+            Set<Integer> ofType = typeIndex.ids(type);
+            source = ofType;
+            sourceOrder = null;
+            bound = ofType.size();
+        }
+        boolean byCost = order == NeedOrder.COST || order == NeedOrder.COST_DESC;
+        if (byCost || minCost != Integer.MIN_VALUE || maxCost != Integer.MAX_VALUE) {
+            int count = costIndex.count(minCost, maxCost, bound + 1);
+            if (count < bound || (byCost && count == bound)) {
+                source = costIndex.ids(minCost, maxCost, order == NeedOrder.COST_DESC);
+                sourceOrder = byCost ? order : NeedOrder.COST;
+                bound = count;
+            }
+        }
+        boolean byQuantity = order == NeedOrder.QUANTITY || order == NeedOrder.QUANTITY_DESC;
+        if (byQuantity || minQuantity != Integer.MIN_VALUE || maxQuantity != Integer.MAX_VALUE) {
+            int count = quantityIndex.count(minQuantity, maxQuantity, bound + 1);
+            if (count < bound || (byQuantity && count == bound)) {
+                source = quantityIndex.ids(minQuantity, maxQuantity, order == NeedOrder.QUANTITY_DESC);
+                sourceOrder = byQuantity ? order : NeedOrder.QUANTITY;
+            }
+        }
+
+        // once the candidates come in the requested order the first matches are the answer
+        boolean inOrder = sourceOrder == order;
+        ArrayList<Need> found = new ArrayList<>();
+        if (source == null) {
+            for (Need need : current.needs()) {
+                if (matches.test(need) && found.add(need) && inOrder && found.size() >= limit) {
+                    break;
+                }
+            }
+        } else {
+            for (Integer id : source) {
+                Need need = current.byId.get(id);
+                if (need != null && matches.test(need) && found.add(need) && inOrder && found.size() >= limit) {
+                    break;
+                }
+            }
+        }
+        if (!inOrder) {
+            found.sort(order.comparator());
+        }
+        return found.subList(0, Math.min(limit, found.size())).toArray(new Need[0]);
+    }
+
     /**
      * Saves the {@linkplain Need needs} from the array list into the file as an array of JSON objects
+     * <br>
+     * The snapshot is written to a temporary file and moved over the old one, so
+     * a crash part way through never leaves a half written cupboard behind. Both
+     * the file and the move reach the storage device before this returns, so the
+     * log may be emptied afterwards
      * 
      * @return true if the {@link Need needs} were written successfully
      * 
@@ -85,12 +617,100 @@ public class CupboardFileDAO implements CupboardDAO {
      */
     private boolean save() throws IOException {
         Need[] needArray = getNeedsArray();
-        objectMapper.writeValue(new File(filename), needArray);
+        File tempFile = new File(filename + ".tmp");
+        objectMapper.writeValue(tempFile, needArray);
+        FileSync.replace(tempFile.toPath(), Path.of(filename));
         return true;
     }
 
     /**
-     * Loads {@linkplain Need needs} from the JSON file into the tree map
+     * Records a mutation, either by appending it to the log or, when the log is
+     * disabled, by rewriting the whole snapshot and emptying any log left behind
+     * <br>
+     * Must be called while holding the lock on the needs map
+     * 
+     * @param entry The mutation to record
+     * 
+     * @throws IOException when the log or snapshot cannot be written to
+     */
+    private void persist(LogEntry entry) throws IOException {
+        persist(List.of(entry));
+    }
+
+    /**
+     * Records a batch of mutations with a single write: either one append of all
+     * their records, or one compaction when the batch would take the log past
+     * its threshold anyway
+     * <br>
+     * Must be called while holding the lock on the needs map, after the batch
+     * has been published
+     * 
+     * @param entries The mutations to record, in order
+     * 
+     * @throws IOException when the log or snapshot cannot be written to
+     */
+    private void persist(List<LogEntry> entries) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        if (compactThreshold <= 0 || logRecords + entries.size() >= compactThreshold) {
+            // the snapshot already holds the batch, so there is no need to log it first
+            compact();
+            return;
+        }
+        append(entries);
+    }
+
+    /**
+     * Appends records to the end of the log in one write
+     * 
+     * @param entries The mutations to append
+     * 
+     * @throws IOException when the log cannot be written to
+     */
+    private void append(List<LogEntry> entries) throws IOException {
+        if (log == null) {
+            log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        StringBuilder records = new StringBuilder();
+        for (LogEntry entry : entries) {
+            records.append(objectMapper.writeValueAsString(entry)).append('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(records.toString().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            log.write(buffer);
+        }
+        if (fsync) {
+            log.force(false);
+        }
+        logRecords += entries.size();
+    }
+
+    /**
+     * Folds the log into a fresh snapshot of the cupboard and empties the log
+     * <br>
+     * Replaying a record on top of a snapshot that already contains it leaves the
+     * need unchanged, so a crash between the two steps loses nothing. With the log
+     * disabled this is how every mutation is written, so a log left by an earlier
+     * run with the log enabled is emptied before it can be replayed over newer needs
+     * 
+     * @throws IOException when the snapshot or log cannot be written to
+     */
+    private void compact() throws IOException {
+        save();
+        if (log == null && Files.exists(logPath)) {
+            log = FileChannel.open(logPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        if (log != null) {
+            log.truncate(0);
+            log.force(false);
+        }
+        logRecords = 0;
+    }
+
+    /**
+     * Loads {@linkplain Need needs} from the JSON file into the tree map one at a
+     * time, then replays any mutations left in the log
      * 
      * @return true if the file was read successfully
      * 
@@ -98,20 +718,76 @@ public class CupboardFileDAO implements CupboardDAO {
      */
     private boolean load() throws IOException {
         needs = new TreeMap<>();
+        published = NeedTrie.EMPTY;
         nextId = 0;
 
-        Need[] needArray = objectMapper.readValue(new File(filename),Need[].class);
-
-        for (Need need : needArray) {
-            needs.put(need.getId(),need);
-            if (need.getId() > nextId)
-                nextId = need.getId();
+        // read one need at a time rather than materializing the whole array first
+        try (MappingIterator<Need> needIterator = objectMapper.readerFor(Need.class).readValues(new File(filename))) {
+            while (needIterator.hasNext()) {
+                Need need = needIterator.next();
+                putNeed(need);
+                if (need.getId() > nextId)
+                    nextId = need.getId();
+            }
+        }
+        replay();
+        publish();
+        if (compactThreshold <= 0 && logRecords > 0) {
+            compact(); // the log is off, so nothing would empty it otherwise
         }
         // Make the next id one greater than the maximum from the file
         ++nextId;
         return true;
     }
 
+    /**
+     * Applies every record in the log to the needs map, in the order they were written
+     * <br>
+     * A record that cannot be parsed is only tolerated as the final line, where it
+     * is the remains of an append that was interrupted by a crash
+     * 
+     * @throws IOException when the log cannot be read or holds a corrupt record
+     */
+    private void replay() throws IOException {
+        logRecords = 0;
+        if (!Files.exists(logPath)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(logPath, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            while (line != null) {
+                String next = reader.readLine();
+                if (!line.isBlank()) {
+                    LogEntry entry;
+                    try {
+                        entry = objectMapper.readValue(line, LogEntry.class);
+                    } catch (JsonProcessingException e) {
+                        if (next == null) {
+                            break; // torn final append
+                        }
+                        throw e;
+                    }
+                    if (LogEntry.DELETE.equals(entry.op)) {
+                        removeNeed(entry.id);
+                    } else if (entry.quantities != null) {
+                        for (Map.Entry<Integer, Integer> quantity : entry.quantities.entrySet()) {
+                            Need old = needs.get(quantity.getKey());
+                            if (old != null) {
+                                putNeed(withQuantity(old, quantity.getValue()));
+                            }
+                        }
+                    } else {
+                        putNeed(entry.need);
+                        if (entry.id > nextId)
+                            nextId = entry.id;
+                    }
+                    logRecords++;
+                }
+                line = next;
+            }
+        }
+    }
+
     /**
     ** {@inheritDoc}
      */
@@ -119,8 +795,9 @@ public class CupboardFileDAO implements CupboardDAO {
     public Need createNeed(Need need) throws IOException {
         synchronized(needs) {
             Need newNeed = new Need(nextId(), need.getName(), need.getCost(), need.getQuantity(), need.getType(), need.getDescription());
-            needs.put(newNeed.getId(), newNeed);
-            save(); // may throw an IOException
+            putNeed(newNeed);
+            publish();
+            persist(new LogEntry(LogEntry.PUT, newNeed.getId(), newNeed)); // may throw an IOException
             return newNeed;
         }
     }
@@ -131,18 +808,430 @@ public class CupboardFileDAO implements CupboardDAO {
     public Need updateNeed(int id, Need updatedNeed) throws IOException {
         synchronized(needs) {
             updatedNeed.setId(id);
-            needs.put(id, updatedNeed);
-            save();
+            putNeed(updatedNeed);
+            publish();
+            persist(new LogEntry(LogEntry.PUT, id, updatedNeed));
             return updatedNeed;
         }
     }
 
+    /**
+     * Marks every item of a rejected bulk change that did not fail itself as not applied
+     * 
+     * @param results The results of the items that failed, null for the others
+     * @param ids The id each item is about
+     * @return The completed results
+     */
+    private static BulkResult[] reject(BulkResult[] results, int[] ids) {
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                results[i] = new BulkResult(i, ids[i], BulkResult.Outcome.NOT_APPLIED, null);
+            }
+        }
+        return results;
+    }
+
+    /**
+    ** {@inheritDoc}
+    */
+    @Override
+    public BulkResult[] createNeeds(Need[] batch) throws IOException {
+        synchronized(needs) {
+            BulkResult[] results = new BulkResult[batch.length];
+            int[] ids = new int[batch.length];
+            boolean valid = true;
+            for (int i = 0; i < batch.length; i++) {
+                if (batch[i] == null || CupboardImporter.validate(batch[i]) != null) {
+                    // the same checks an imported need gets
+                    results[i] = new BulkResult(i, batch[i] == null ? 0 : batch[i].getId(), BulkResult.Outcome.INVALID, null);
+                    valid = false;
+                } else if (needs.containsKey(batch[i].getId())) {
+                    // the same check a single create gets from the controller
+                    results[i] = new BulkResult(i, batch[i].getId(), BulkResult.Outcome.CONFLICT, null);
+                    valid = false;
+                }
+                ids[i] = batch[i] == null ? 0 : batch[i].getId();
+            }
+            if (!valid) {
+                return reject(results, ids);
+            }
+            List<LogEntry> entries = new ArrayList<>(batch.length);
+            for (int i = 0; i < batch.length; i++) {
+                Need need = batch[i];
+                Need newNeed = new Need(nextId(), need.getName(), need.getCost(), need.getQuantity(), need.getType(), need.getDescription());
+                putNeed(newNeed);
+                entries.add(new LogEntry(LogEntry.PUT, newNeed.getId(), newNeed));
+                results[i] = new BulkResult(i, newNeed.getId(), BulkResult.Outcome.CREATED, newNeed);
+            }
+            publish();
+            persist(entries);
+            return results;
+        }
+    }
+
+    /**
+    ** {@inheritDoc}
+    */
+    @Override
+    public BulkResult[] updateNeeds(Need[] batch) throws IOException {
+        synchronized(needs) {
+            BulkResult[] results = new BulkResult[batch.length];
+            int[] ids = new int[batch.length];
+            Set<Integer> seen = new HashSet<>();
+            boolean valid = true;
+            for (int i = 0; i < batch.length; i++) {
+                if (batch[i] == null) {
+                    results[i] = new BulkResult(i, 0, BulkResult.Outcome.INVALID, null);
+                    valid = false;
+                    continue;
+                }
+                ids[i] = batch[i].getId();
+                if (CupboardImporter.validate(batch[i]) != null) {
+                    results[i] = new BulkResult(i, ids[i], BulkResult.Outcome.INVALID, null);
+                    valid = false;
+                } else if (!needs.containsKey(ids[i])) {
+                    results[i] = new BulkResult(i, ids[i], BulkResult.Outcome.NOT_FOUND, null);
+                    valid = false;
+                } else if (!seen.add(ids[i])) {
+                    results[i] = new BulkResult(i, ids[i], BulkResult.Outcome.CONFLICT, null);
+                    valid = false;
+                }
+            }
+            if (!valid) {
+                return reject(results, ids);
+            }
+            List<LogEntry> entries = new ArrayList<>(batch.length);
+            for (int i = 0; i < batch.length; i++) {
+                putNeed(batch[i]);
+                entries.add(new LogEntry(LogEntry.PUT, ids[i], batch[i]));
+                results[i] = new BulkResult(i, ids[i], BulkResult.Outcome.UPDATED, batch[i]);
+            }
+            publish();
+            persist(entries);
+            return results;
+        }
+    }
+
+    /**
+    ** {@inheritDoc}
+    */
+    @Override
+    public BulkResult[] deleteNeeds(int[] ids) throws IOException {
+        synchronized(needs) {
+            BulkResult[] results = new BulkResult[ids.length];
+            Set<Integer> seen = new HashSet<>();
+            boolean valid = true;
+            for (int i = 0; i < ids.length; i++) {
+                if (!needs.containsKey(ids[i])) {
+                    results[i] = new BulkResult(i, ids[i], BulkResult.Outcome.NOT_FOUND, null);
+                    valid = false;
+                } else if (!seen.add(ids[i])) {
+                    results[i] = new BulkResult(i, ids[i], BulkResult.Outcome.CONFLICT, null);
+                    valid = false;
+                }
+            }
+            if (!valid) {
+                return reject(results, ids);
+            }
+            List<LogEntry> entries = new ArrayList<>(ids.length);
+            for (int i = 0; i < ids.length; i++) {
+                removeNeed(ids[i]);
+                entries.add(new LogEntry(LogEntry.DELETE, ids[i], null));
+                results[i] = new BulkResult(i, ids[i], BulkResult.Outcome.DELETED, null);
+            }
+            publish();
+            persist(entries);
+            return results;
+        }
+    }
+
+    /**
+     * Copies a need with a different quantity
+     * 
+     * @param need The need to copy
+     * @param quantity The quantity of the copy
+     * @return The copy
+     */
+    private static Need withQuantity(Need need, int quantity) {
+        return new Need(need.getId(), need.getName(), need.getCost(), quantity, need.getType(), need.getDescription());
+    }
+
+    private static long holdKey(int userId, int needId) {
+        return ((long) userId << 32) | (needId & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Creates a hold and has it handed back once it runs out
+     */
+    private Hold schedule(Hold hold) {
+        holdWheel.schedule(hold, hold.deadline);
+        if (holdTicker == null) {
+            synchronized(holdWheel) {
+                if (holdTicker == null) {
+                    holdTicker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, "cupboard-holds");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    holdTicker.scheduleWithFixedDelay(() -> expireHolds(System.currentTimeMillis()),
+                                                      HOLD_TICK_MILLIS, HOLD_TICK_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+        return hold;
+    }
+
+    /**
+     * Hands back every hold that has run out by a time
+     * 
+     * @param now The time in milliseconds
+     */
+    void expireHolds(long now) {
+        synchronized(holdWheel) {
+            holdWheel.advance(now);
+        }
+    }
+
+    /**
+     * Hands back the stock of a hold that ran out, unless it was ended already
+     * 
+     * @param hold The hold
+     */
+    private void expire(Hold hold) {
+        if (hold.end()) {
+            NeedStock needStock = stock.get(hold.needId);
+            if (needStock != null) {
+                needStock.change(hold.count, -hold.count);
+            }
+            holds.remove(holdKey(hold.userId, hold.needId), hold);
+        }
+    }
+
+    /**
+     * Puts back a hold that a failed checkout ended, whose stock has already been
+     * moved back to the held part, unless the user holds the need again already
+     * 
+     * @param hold The ended hold
+     */
+    private void restoreHold(Hold hold) {
+        Hold restored = new Hold(hold.userId, hold.needId, hold.count, hold.deadline);
+        if (holds.putIfAbsent(holdKey(hold.userId, hold.needId), schedule(restored)) != null && restored.end()) {
+            NeedStock needStock = stock.get(hold.needId);
+            if (needStock != null) {
+                needStock.change(hold.count, -hold.count);
+            }
+        }
+    }
+
+    /**
+     * Gets how much of a need is held for baskets
+     * 
+     * @param needId The id of the need
+     * @return The amount held, 0 if the need does not exist
+     */
+    int heldQuantity(int needId) {
+        NeedStock needStock = stock.get(needId);
+        return needStock == null ? 0 : needStock.held();
+    }
+
+    /**
+    ** {@inheritDoc}
+    */
+    @Override
+    public boolean holdNeed(int userId, int needId, int count) {
+        if (holdMillis == 0) {
+            return true;
+        }
+        if (count <= 0) {
+            releaseHold(userId, needId);
+            return true;
+        }
+        NeedStock needStock = stock.get(needId);
+        if (needStock == null) {
+            return false;
+        }
+        long deadline = System.currentTimeMillis() + holdMillis;
+        boolean[] placed = new boolean[1];
+        // computing the hold serializes changes to the same user's hold, and nothing else
+        holds.compute(holdKey(userId, needId), (key, old) -> {
+            int previous = old != null && old.end() ? old.count : 0;
+            if (needStock.change(previous - count, count - previous)) {
+                placed[0] = true;
+                return schedule(new Hold(userId, needId, count, deadline));
+            }
+            return previous > 0 ? schedule(new Hold(userId, needId, previous, old.deadline)) : null;
+        });
+        return placed[0];
+    }
+
+    /**
+    ** {@inheritDoc}
+    */
+    @Override
+    public void releaseHold(int userId, int needId) {
+        Hold hold = holds.remove(holdKey(userId, needId));
+        if (hold != null && hold.end()) {
+            NeedStock needStock = stock.get(needId);
+            if (needStock != null) {
+                needStock.change(hold.count, -hold.count);
+            }
+        }
+    }
+
+    /**
+    ** {@inheritDoc}
+    */
+    @Override
+    public CheckoutResult checkout(int userId, List<BasketNeed> basket) throws IOException {
+        // claim in id order, adding up lines for the same need
+        TreeMap<Integer, Integer> wanted = new TreeMap<>();
+        for (BasketNeed line : basket) {
+            if (line.getCount() > 0) {
+                wanted.merge(line.getNeedId(), line.getCount(), Integer::sum);
+            }
+        }
+        if (wanted.isEmpty()) {
+            return CheckoutResult.completed(new BasketNeed[0]);
+        }
+        List<Integer> unavailable = new ArrayList<>();
+        List<Claim> claims = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> line : wanted.entrySet()) {
+            int id = line.getKey();
+            int count = line.getValue();
+            NeedStock needStock = stock.get(id);
+            long key = holdKey(userId, id);
+            if (needStock == null) {
+                unavailable.add(id);
+            } else if (!unavailable.isEmpty()) {
+                // already failed, only find out what else cannot be funded
+                Hold hold = holds.get(key);
+                if (needStock.available() + (hold != null && hold.isActive() ? hold.count : 0) < count) {
+                    unavailable.add(id);
+                }
+            } else {
+                // fund what the user holds first and take only the rest, handing back any hold left over
+                Hold hold = holds.remove(key);
+                if (hold != null && !hold.end()) {
+                    hold = null;
+                }
+                int held = hold == null ? 0 : hold.count;
+                int taken = count - held;
+                if (needStock.change(-taken, -held)) {
+                    claims.add(new Claim(id, taken, hold));
+                } else {
+                    if (hold != null) {
+                        restoreHold(hold);
+                    }
+                    unavailable.add(id);
+                }
+            }
+        }
+
+        int[] claimed = new int[claims.size()];
+        for (int i = 0; i < claimed.length; i++) {
+            claimed[i] = claims.get(i).needId;
+        }
+        if (!unavailable.isEmpty()) {
+            if (!claims.isEmpty()) {
+                release(userId, claims, claimed);
+            }
+            return CheckoutResult.rejected(unavailable.stream().mapToInt(Integer::intValue).toArray());
+        }
+        try {
+            commitStock(new StockChange(LogEntry.CHECKOUT, userId, claimed));
+        } catch (IOException e) {
+            // the checkout was not recorded, so nothing may stay taken
+            try {
+                release(userId, claims, claimed);
+            } catch (IOException releaseFailure) {
+                e.addSuppressed(releaseFailure);
+            }
+            throw e;
+        }
+
+        NeedTrie cupboard = snapshot.byId;
+        BasketNeed[] funded = new BasketNeed[claimed.length];
+        int i = 0;
+        for (Map.Entry<Integer, Integer> line : wanted.entrySet()) {
+            Need need = cupboard.get(line.getKey());
+            // the need may have been deleted since, in which case only its id is left
+            funded[i++] = need != null ? new BasketNeed(need, line.getValue()) : new BasketNeed(line.getKey(), line.getValue());
+        }
+        return CheckoutResult.completed(funded);
+    }
+
+    /**
+     * Hands back everything a checkout claimed, holds included, and commits the
+     * quantities as they stand after
+     * 
+     * @param userId The id of the user checking out
+     * @param claims What was claimed
+     * @param claimed The ids of the needs claimed
+     * 
+     * @throws IOException when the log or snapshot cannot be written to
+     */
+    private void release(int userId, List<Claim> claims, int[] claimed) throws IOException {
+        for (Claim claim : claims) {
+            NeedStock needStock = stock.get(claim.needId);
+            if (needStock != null) {
+                needStock.change(claim.taken, claim.hold == null ? 0 : claim.hold.count);
+                if (claim.hold != null) {
+                    restoreHold(claim.hold);
+                }
+            }
+        }
+        // a concurrent commit may have published the claimed quantities
+        commitStock(new StockChange(LogEntry.RELEASE, userId, claimed));
+    }
+
+    /**
+     * Queues a change of stock, then publishes and logs it along with every other
+     * change queued so far, in one snapshot and one append
+     * <br>
+     * When the lock is free the change goes out on its own. Under load the
+     * changes pile up while one thread holds the lock and the next one to get it
+     * commits them all, so a thread whose change was already committed by another
+     * only waits for the lock
+     * 
+     * @param change The change to commit
+     * 
+     * @throws IOException when the log or snapshot cannot be written to
+     */
+    private void commitStock(StockChange change) throws IOException {
+        pendingStock.add(change);
+        synchronized(needs) {
+            List<LogEntry> entries = new ArrayList<>();
+            StockChange pending;
+            while ((pending = pendingStock.poll()) != null) {
+                // record the quantities as they stand, which already include the change
+                Map<Integer, Integer> quantities = new TreeMap<>();
+                for (int id : pending.needIds) {
+                    Need old = needs.get(id);
+                    NeedStock needStock = stock.get(id);
+                    if (old == null || needStock == null) {
+                        continue; // deleted since it was claimed
+                    }
+                    int quantity = old.getCost() - needStock.wanted();
+                    quantities.put(id, quantity);
+                    if (old.getQuantity() != quantity) {
+                        indexNeed(withQuantity(old, quantity));
+                    }
+                }
+                entries.add(new LogEntry(pending.op, 0, null, pending.userId, quantities));
+            }
+            if (!entries.isEmpty()) {
+                publish();
+                persist(entries);
+            }
+        }
+    }
+
     /**
     ** {@inheritDoc}
     */
     @Override
     public boolean needExistsById(int id) {
-        return needs.containsKey(id); 
+        return snapshot.byId.get(id) != null; 
     }
 
     /**
@@ -151,9 +1240,9 @@ public class CupboardFileDAO implements CupboardDAO {
     @Override
     public boolean deleteNeed(int id) throws IOException {
         synchronized(needs) {
-            if (needExistsById(id)) {
-                needs.remove(id);
-                save();
+            if (removeNeed(id) != null) {
+                publish();
+                persist(new LogEntry(LogEntry.DELETE, id, null));
                 return true;
             } 
             return false;
@@ -162,6 +1251,8 @@ public class CupboardFileDAO implements CupboardDAO {
 
     /**
      * {@inheritDoc}
+     * <br>
+     * The array is shared by every reader of the same snapshot and must not be modified
      */
     @Override
     public Need[] getAllNeeds() {
@@ -199,13 +1290,7 @@ public class CupboardFileDAO implements CupboardDAO {
      */
     @Override
     public boolean needExists(Need need){
-        for(int oldId : needs.keySet()){
-            if(oldId == need.getId()){
-                return true;
-            }
-        }
-
-        return false;
+        return snapshot.byId.get(need.getId()) != null;
     }
 
     /**
@@ -213,11 +1298,6 @@ public class CupboardFileDAO implements CupboardDAO {
      */
     @Override
     public Need getNeed(int id) {
-        synchronized(needs) {
-            if (needs.containsKey(id))
-                return needs.get(id);
-            else
-                return null;
-        }
+        return snapshot.byId.get(id);
     }
 }
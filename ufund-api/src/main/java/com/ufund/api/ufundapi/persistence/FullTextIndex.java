@@ -0,0 +1,165 @@
+package com.ufund.api.ufundapi.persistence;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ufund.api.ufundapi.model.Need;
+
+/**
+ * Ranked full-text index over the name, type and description of every {@linkplain Need need}
+ * <br>
+ * Text is split into lower case words, and each word keeps a postings list of the
+ * needs holding it along with how often it appears there. Matches are ranked with
+ * BM25, where a word in the name counts {@value #NAME_WEIGHT} times and a word in
+ * the type {@value #TYPE_WEIGHT} times as much as one in the description
+ */
+class FullTextIndex implements NeedIndex {
+    static final int NAME_WEIGHT = 3;
+    static final int TYPE_WEIGHT = 2;
+    static final int DESCRIPTION_WEIGHT = 1;
+    private static final double K1 = 1.2;   // How quickly repeating a word stops adding to the score
+    private static final double B = 0.75;   // How much longer needs are penalized
+
+    private final Map<String, Map<Integer, Integer>> postings = new ConcurrentHashMap<>(); // word to need id to weighted count
+    private final Map<Integer, Integer> lengths = new ConcurrentHashMap<>(); // need id to weighted number of words
+    private final AtomicLong totalLength = new AtomicLong();
+
+    /**
+     * Splits text into lower case words of letters and digits
+     * 
+     * @param text The text to split, may be null
+     * @return The words in the order they appear
+     */
+    static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) {
+            return words;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean wordChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Counts the weighted occurrences of every word of a need
+     * 
+     * @param need The need
+     * @return Each word with its weighted count
+     */
+    private static Map<String, Integer> termCounts(Need need) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String word : tokenize(need.getName())) {
+            counts.merge(word, NAME_WEIGHT, Integer::sum);
+        }
+        for (String word : tokenize(need.getType())) {
+            counts.merge(word, TYPE_WEIGHT, Integer::sum);
+        }
+        for (String word : tokenize(need.getDescription())) {
+            counts.merge(word, DESCRIPTION_WEIGHT, Integer::sum);
+        }
+        return counts;
+    }
+
+    @Override
+    public void add(Need need) {
+        Map<String, Integer> counts = termCounts(need);
+        int length = 0;
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            postings.computeIfAbsent(entry.getKey(), key -> new ConcurrentHashMap<>()).put(need.getId(), entry.getValue());
+            length += entry.getValue();
+        }
+        lengths.put(need.getId(), length);
+        totalLength.addAndGet(length);
+    }
+
+    @Override
+    public void remove(Need need) {
+        for (String word : termCounts(need).keySet()) {
+            postings.computeIfPresent(word, (key, ids) -> {
+                ids.remove(need.getId());
+                return ids.isEmpty() ? null : ids;
+            });
+        }
+        Integer length = lengths.remove(need.getId());
+        if (length != null) {
+            totalLength.addAndGet(-length);
+        }
+    }
+
+    /**
+     * Ranks the needs matching any word of a query
+     * 
+     * @param query The query text
+     * @param limit The most ids to return
+     * @return The ids of the best matches, best first, ties broken by lowest id
+     */
+    List<Integer> search(String query, int limit) {
+        Set<String> words = new LinkedHashSet<>(tokenize(query));
+        int documents = lengths.size();
+        if (words.isEmpty() || documents == 0 || limit <= 0) {
+            return new ArrayList<>();
+        }
+        double averageLength = Math.max(1.0, (double) totalLength.get() / documents);
+
+        Map<Integer, Double> scores = new HashMap<>();
+        for (String word : words) {
+            Map<Integer, Integer> ids = postings.get(word);
+            if (ids == null) {
+                continue;
+            }
+            double idf = Math.log(1 + (documents - ids.size() + 0.5) / (ids.size() + 0.5));
+            for (Map.Entry<Integer, Integer> posting : ids.entrySet()) {
+                Integer length = lengths.get(posting.getKey());
+                if (length == null) {
+                    continue; // removed while we were reading
+                }
+                double count = posting.getValue();
+                double score = idf * count * (K1 + 1) / (count + K1 * (1 - B + B * length / averageLength));
+                scores.merge(posting.getKey(), score, Double::sum);
+            }
+        }
+
+        // keep the best few in a min-heap so that ranking costs O(n log limit)
+        PriorityQueue<Map.Entry<Integer, Double>> best = new PriorityQueue<>(limit + 1, FullTextIndex::compareWorstFirst);
+        for (Map.Entry<Integer, Double> entry : scores.entrySet()) {
+            best.add(entry);
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+        Integer[] ranked = new Integer[best.size()];
+        for (int i = ranked.length - 1; i >= 0; i--) {
+            ranked[i] = best.poll().getKey();
+        }
+        return new ArrayList<>(List.of(ranked));
+    }
+
+    /**
+     * Orders scored needs from the worst match to the best
+     * 
+     * @param a A need id with its score
+     * @param b Another need id with its score
+     * @return The comparison, lower scores and then higher ids first
+     */
+    private static int compareWorstFirst(Map.Entry<Integer, Double> a, Map.Entry<Integer, Double> b) {
+        int byScore = Double.compare(a.getValue(), b.getValue());
+        return byScore != 0 ? byScore : Integer.compare(b.getKey(), a.getKey());
+    }
+}
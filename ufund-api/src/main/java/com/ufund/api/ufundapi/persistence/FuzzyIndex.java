@@ -0,0 +1,232 @@
+package com.ufund.api.ufundapi.persistence;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.ufund.api.ufundapi.model.Need;
+
+/**
+ * Typo tolerant index over the words of every {@linkplain Need need} name
+ * <br>
+ * The distinct words are kept in a trie. A search walks the trie computing one row
+ * of the Levenshtein table per letter, which simulates a Levenshtein automaton for
+ * the query: as soon as every entry of a row is over the edit budget, no word
+ * below that point can match and the whole branch is skipped. The work therefore
+ * depends on the query and the budget rather than on the size of the cupboard.
+ * <br>
+ * Words are never taken out of the trie; a word no need uses any more is skipped
+ * and the trie is rebuilt once such words make up most of it
+ */
+class FuzzyIndex implements NeedIndex {
+    /** The largest edit distance a search may allow */
+    static final int MAX_DISTANCE = 2;
+
+    private final Map<String, Set<Integer>> postings = new ConcurrentHashMap<>(); // word to ids of needs using it
+    private volatile TrieNode<String> root = new TrieNode<>('\0'); // Swapped whole when the trie is rebuilt, holds each word at its end
+    private int trieSize;           // Words in the trie, including unused ones, written under the cupboard lock
+
+    /**
+     * Gets the edit distance a query word is allowed by default
+     * 
+     * @param word The query word
+     * @return 0 for very short words, 1 for short ones and {@value #MAX_DISTANCE} otherwise
+     */
+    static int defaultDistance(String word) {
+        if (word.length() <= 2) {
+            return 0;
+        }
+        return word.length() <= 5 ? 1 : MAX_DISTANCE;
+    }
+
+    /**
+     * Computes the Levenshtein distance between two words, giving up early once
+     * it must exceed a limit
+     * 
+     * @param a One word
+     * @param b The other word
+     * @param limit The largest distance of interest
+     * @return The distance, or limit + 1 if it is larger than limit
+     */
+    static int distance(String a, String b, int limit) {
+        if (Math.abs(a.length() - b.length()) > limit) {
+            return limit + 1;
+        }
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > limit) {
+                return limit + 1;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return Math.min(previous[b.length()], limit + 1);
+    }
+
+    @Override
+    public void add(Need need) {
+        for (String word : new HashSet<>(FullTextIndex.tokenize(need.getName()))) {
+            postings.computeIfAbsent(word, key -> ConcurrentHashMap.newKeySet()).add(need.getId());
+            insert(word);
+        }
+        if (trieSize > 2 * postings.size() + 64) {
+            rebuild();
+        }
+    }
+
+    @Override
+    public void remove(Need need) {
+        for (String word : FullTextIndex.tokenize(need.getName())) {
+            postings.computeIfPresent(word, (key, ids) -> {
+                ids.remove(need.getId());
+                return ids.isEmpty() ? null : ids;
+            });
+        }
+    }
+
+    /**
+     * Inserts a word into the trie unless it is already there
+     * 
+     * @param word The word to insert
+     */
+    private void insert(String word) {
+        TrieNode<String> node = root;
+        for (int i = 0; i < word.length(); i++) {
+            node = node.getOrAdd(word.charAt(i));
+        }
+        if (node.value == null) {
+            node.value = word;
+            trieSize++;
+        }
+    }
+
+    /**
+     * Builds a new trie from the words still in use and swaps it in
+     */
+    private void rebuild() {
+        // built off to the side so that readers keep searching the old trie meanwhile
+        FuzzyIndex fresh = new FuzzyIndex();
+        for (String word : postings.keySet()) {
+            fresh.insert(word);
+        }
+        root = fresh.root;
+        trieSize = fresh.trieSize;
+    }
+
+    /**
+     * Finds every word in use within some edit distance of a query word
+     * 
+     * @param word The query word
+     * @param limit The largest edit distance allowed
+     * @return Each matching word with its distance
+     */
+    private Map<String, Integer> similarWords(String word, int limit) {
+        Map<String, Integer> found = new HashMap<>();
+        int[] firstRow = new int[word.length() + 1];
+        for (int j = 0; j < firstRow.length; j++) {
+            firstRow[j] = j;
+        }
+        for (TrieNode<String> child : root.children) {
+            walk(child, word, firstRow, limit, found);
+        }
+        return found;
+    }
+
+    /**
+     * Computes the row of the Levenshtein table for one more letter and descends
+     * into the children while some entry of the row is still within the limit
+     * 
+     * @param node The trie node for the letter
+     * @param word The query word
+     * @param previous The row for the letters above this node
+     * @param limit The largest edit distance allowed
+     * @param found Collects each matching word with its distance
+     */
+    private void walk(TrieNode<String> node, String word, int[] previous, int limit, Map<String, Integer> found) {
+        int[] row = new int[previous.length];
+        row[0] = previous[0] + 1;
+        int rowMin = row[0];
+        for (int j = 1; j < row.length; j++) {
+            int cost = word.charAt(j - 1) == node.letter ? 0 : 1;
+            row[j] = Math.min(Math.min(row[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+            rowMin = Math.min(rowMin, row[j]);
+        }
+        String ending = node.value;
+        if (ending != null && row[row.length - 1] <= limit && postings.containsKey(ending)) {
+            found.put(ending, row[row.length - 1]);
+        }
+        if (rowMin <= limit) {
+            for (TrieNode<String> child : node.children) {
+                walk(child, word, row, limit, found);
+            }
+        }
+    }
+
+    /**
+     * Finds the needs whose name has a close match for every word of a query
+     * 
+     * @param query The query text
+     * @param maxDistance The largest edit distance allowed per word, or a negative
+     *                    number to pick it from the length of each word
+     * @return The ids of the matching needs, closest first, ties broken by lowest id
+     */
+    List<Integer> search(String query, int maxDistance) {
+        List<String> words = FullTextIndex.tokenize(query);
+        if (words.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<Integer, Integer> totals = null; // need id to the sum of its best distances
+        for (String word : new HashSet<>(words)) {
+            int limit = maxDistance < 0 ? defaultDistance(word) : Math.min(maxDistance, MAX_DISTANCE);
+            Map<Integer, Integer> best = new HashMap<>();
+            for (Map.Entry<String, Integer> match : similarWords(word, limit).entrySet()) {
+                Set<Integer> ids = postings.get(match.getKey());
+                if (ids == null) {
+                    continue;
+                }
+                for (Integer id : ids) {
+                    best.merge(id, match.getValue(), Math::min);
+                }
+            }
+            if (totals == null) {
+                totals = best;
+            } else {
+                Map<Integer, Integer> both = new HashMap<>();
+                for (Map.Entry<Integer, Integer> entry : totals.entrySet()) {
+                    Integer d = best.get(entry.getKey());
+                    if (d != null) {
+                        both.put(entry.getKey(), entry.getValue() + d);
+                    }
+                }
+                totals = both;
+            }
+            if (totals.isEmpty()) {
+                break;
+            }
+        }
+        List<Map.Entry<Integer, Integer>> ranked = new ArrayList<>(totals.entrySet());
+        ranked.sort(Map.Entry.<Integer, Integer>comparingByValue().thenComparing(Map.Entry.comparingByKey(Comparator.naturalOrder())));
+        List<Integer> ids = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> entry : ranked) {
+            ids.add(entry.getKey());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,28 @@
+package com.ufund.api.ufundapi.persistence;
+
+import com.ufund.api.ufundapi.model.Need;
+
+/**
+ * An in-memory index over the {@linkplain Need needs} of the cupboard
+ * <br>
+ * The {@link CupboardFileDAO cupboard} keeps every index in step with its needs,
+ * calling {@link #add(Need)} and {@link #remove(Need)} while holding its write lock.
+ * Lookups may run at the same time from any thread, so an index only has to offer
+ * candidates: the cupboard checks each hit against its current snapshot
+ */
+interface NeedIndex {
+
+    /**
+     * Adds a need that has just been created, loaded or updated
+     * 
+     * @param need The need to add
+     */
+    void add(Need need);
+
+    /**
+     * Removes a need that has just been deleted or is about to be replaced
+     * 
+     * @param need The need as it was added
+     */
+    void remove(Need need);
+}
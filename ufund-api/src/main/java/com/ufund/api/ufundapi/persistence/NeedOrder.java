@@ -0,0 +1,52 @@
+package com.ufund.api.ufundapi.persistence;
+
+import java.util.Comparator;
+
+import com.ufund.api.ufundapi.model.Need;
+
+/**
+ * The orders {@linkplain Need needs} can be listed in, each breaking ties by lowest id
+ */
+public enum NeedOrder {
+    /** Lowest id first */
+    ID(Comparator.comparingInt(Need::getId)),
+    /** Cheapest first */
+    COST(Comparator.comparingInt(Need::getCost)),
+    /** Most expensive first */
+    COST_DESC(Comparator.comparingInt(Need::getCost).reversed()),
+    /** Fewest needed first */
+    QUANTITY(Comparator.comparingInt(Need::getQuantity)),
+    /** Most needed first */
+    QUANTITY_DESC(Comparator.comparingInt(Need::getQuantity).reversed()),
+    /** Alphabetical by name, ignoring case */
+    NAME(Comparator.comparing(Need::getName, Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER)));
+
+    private final Comparator<Need> comparator;
+
+    NeedOrder(Comparator<Need> comparator) {
+        this.comparator = comparator.thenComparingInt(Need::getId);
+    }
+
+    /**
+     * Gets the comparator that puts needs in this order
+     * @return The comparator
+     */
+    public Comparator<Need> comparator() {
+        return comparator;
+    }
+
+    /**
+     * Parses an order from a request parameter, ignoring case, where a leading
+     * minus sign asks for the descending order, as in {@code -cost}
+     * @param value The parameter value
+     * @return The matching order
+     * @throws IllegalArgumentException if there is no such order
+     */
+    public static NeedOrder parse(String value) {
+        String name = value.trim().toUpperCase();
+        if (name.startsWith("-")) {
+            name = name.substring(1) + "_DESC";
+        }
+        return NeedOrder.valueOf(name);
+    }
+}
@@ -0,0 +1,114 @@
+package com.ufund.api.ufundapi.persistence;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How much of one {@linkplain com.ufund.api.ufundapi.model.Need need} is still
+ * wanted, split into the part anyone may fund and the part held for baskets
+ * <br>
+ * Both halves live in one atomic word, so every change to either is a single
+ * compare and set and a reader always sees the two agree. Nothing here locks:
+ * helpers funding different needs never touch the same word, and helpers
+ * funding the same need only retry against each other
+ */
+final class NeedStock {
+    private final AtomicLong state = new AtomicLong(); // Available in the high half, held in the low half
+
+    private static long pack(int available, int held) {
+        return ((long) available << 32) | (held & 0xFFFFFFFFL);
+    }
+
+    private static int available(long state) {
+        return (int) (state >> 32);
+    }
+
+    private static int held(long state) {
+        return (int) state;
+    }
+
+    /**
+     * Sets how much of the need is wanted in total, keeping whatever is held
+     *
+     * @param wanted The cost of the need less the quantity received
+     */
+    void set(int wanted) {
+        long current;
+        do {
+            current = state.get();
+        } while (!state.compareAndSet(current, pack(wanted - held(current), held(current))));
+    }
+
+    /**
+     * Changes how much of the need is wanted by some amount, keeping whatever is
+     * held and whatever checkouts have taken but not yet committed
+     *
+     * @param change The amount added to the available part, negative when less is wanted
+     */
+    void adjust(int change) {
+        long current;
+        do {
+            current = state.get();
+        } while (!state.compareAndSet(current, pack(available(current) + change, held(current))));
+    }
+
+    /**
+     * Moves amounts between the available and held parts, and out of the need
+     * altogether, as one step
+     * <br>
+     * The change is refused if it takes from the available part more than is there,
+     * or if it takes more than is wanted in total. The second matters once the cost
+     * is lowered below what is held: every hold is then worth less than its count,
+     * and funding one in full may leave nothing for the rest
+     *
+     * @param availableChange The amount added to the available part, negative to take from it
+     * @param heldChange The amount added to the held part, negative to take from it
+     * @return true if the change was made
+     */
+    boolean change(int availableChange, int heldChange) {
+        long current = state.get();
+        while (true) {
+            int available = available(current) + availableChange;
+            int held = held(current) + heldChange;
+            if (availableChange < 0 && available < 0) {
+                return false;
+            }
+            if (availableChange + heldChange < 0 && available + held < 0) {
+                return false; // the need would be funded past its cost
+            }
+            long next = pack(available, held);
+            long seen = state.compareAndExchange(current, next);
+            if (seen == current) {
+                return true;
+            }
+            current = seen;
+        }
+    }
+
+    /**
+     * Gets the part of the need anyone may fund
+     *
+     * @return The amount not held for any basket, negative when holds outlast a lowered cost
+     */
+    int available() {
+        return available(state.get());
+    }
+
+    /**
+     * Gets the part of the need held for baskets
+     *
+     * @return The amount held
+     */
+    int held() {
+        return held(state.get());
+    }
+
+    /**
+     * Gets how much of the need is wanted in total, held or not
+     *
+     * @return The cost of the need less the quantity received
+     */
+    int wanted() {
+        long current = state.get();
+        return available(current) + held(current);
+    }
+}
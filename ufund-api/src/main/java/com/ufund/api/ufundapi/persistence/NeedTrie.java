@@ -0,0 +1,165 @@
+package com.ufund.api.ufundapi.persistence;
+
+import java.util.ArrayList;
+
+import com.ufund.api.ufundapi.model.Need;
+
+/**
+ * An immutable map from id to {@linkplain Need need}, ordered by id
+ * <br>
+ * The needs sit in a trie of 32 way nodes, branching on five bits of the id at
+ * a time. Storing or removing a need copies only the seven nodes on its path
+ * and shares every other node with the trie it came from, so publishing a
+ * change costs the same however many needs there are
+ */
+final class NeedTrie {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    private static final int LEVELS = 7;    // Enough levels of five bits for all 32 bits of an id
+
+    /** The trie holding no needs */
+    static final NeedTrie EMPTY = new NeedTrie(null, 0);
+
+    private final Object[] root;    // Null when empty, inner nodes hold nodes and the last level holds needs
+    private final int size;
+
+    private NeedTrie(Object[] root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Turns an id into the key the trie branches on, so that keys compared
+     * without a sign come in the same order as the ids
+     */
+    private static int key(int id) {
+        return id ^ Integer.MIN_VALUE;
+    }
+
+    private static int slot(int key, int level) {
+        return (key >>> (BITS * (LEVELS - 1 - level))) & MASK;
+    }
+
+    /**
+     * Gets the number of needs
+     *
+     * @return The number of needs
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Finds a need by its id
+     *
+     * @param id The id of the need
+     * @return The need, null if there is none with that id
+     */
+    Need get(int id) {
+        int key = key(id);
+        Object[] node = root;
+        for (int level = 0; node != null && level < LEVELS - 1; level++) {
+            node = (Object[]) node[slot(key, level)];
+        }
+        return node == null ? null : (Need) node[slot(key, LEVELS - 1)];
+    }
+
+    /**
+     * Stores a need, replacing any need with the same id
+     *
+     * @param need The need
+     * @return The trie with the need in it, this trie is left as it was
+     */
+    NeedTrie with(Need need) {
+        boolean added = get(need.getId()) == null;
+        return new NeedTrie(set(root, 0, key(need.getId()), need), added ? size + 1 : size);
+    }
+
+    /**
+     * Removes a need
+     *
+     * @param id The id of the need
+     * @return The trie without the need, this trie if there was none with that id
+     */
+    NeedTrie without(int id) {
+        if (get(id) == null) {
+            return this;
+        }
+        return new NeedTrie(set(root, 0, key(id), null), size - 1);
+    }
+
+    /**
+     * Copies the path to a key, setting its value at the end
+     *
+     * @return The copied node, null once it holds nothing
+     */
+    private static Object[] set(Object[] node, int level, int key, Need need) {
+        Object[] copy = node == null ? new Object[WIDTH] : node.clone();
+        int slot = slot(key, level);
+        copy[slot] = level == LEVELS - 1 ? need : set((Object[]) copy[slot], level + 1, key, need);
+        if (need == null && copy[slot] == null) {
+            for (Object child : copy) {
+                if (child != null) {
+                    return copy;
+                }
+            }
+            return null; // drop nodes emptied by a removal
+        }
+        return copy;
+    }
+
+    /**
+     * Lists every need in id order
+     *
+     * @return A new array of the needs
+     */
+    Need[] toArray() {
+        ArrayList<Need> all = new ArrayList<>(size);
+        if (root != null) {
+            collect(root, 0, 0, false, all, size);
+        }
+        return all.toArray(new Need[0]);
+    }
+
+    /**
+     * Lists the needs with ids past a given id, in id order
+     *
+     * @param after The id the needs come after
+     * @param limit The most needs to list
+     * @return A new array of at most limit needs with the lowest ids greater than after
+     */
+    Need[] after(int after, int limit) {
+        ArrayList<Need> page = new ArrayList<>();
+        if (root != null && limit > 0 && after != Integer.MAX_VALUE) {
+            collect(root, 0, key(after) + 1, true, page, limit);
+        }
+        return page.toArray(new Need[0]);
+    }
+
+    /**
+     * Walks a node in key order, adding its needs to a list
+     *
+     * @param from The lowest key to add
+     * @param bounded true while the node lies on the path to from, so slots before it are skipped
+     * @return true once the list holds limit needs
+     */
+    private static boolean collect(Object[] node, int level, int from, boolean bounded, ArrayList<Need> out, int limit) {
+        int start = bounded ? slot(from, level) : 0;
+        for (int slot = start; slot < WIDTH; slot++) {
+            Object child = node[slot];
+            if (child == null) {
+                continue;
+            }
+            if (level == LEVELS - 1) {
+                out.add((Need) child);
+                if (out.size() >= limit) {
+                    return true;
+                }
+            } else if (collect((Object[]) child, level + 1, from, bounded && slot == start, out, limit)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,89 @@
+package com.ufund.api.ufundapi.persistence;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.ToIntFunction;
+
+import com.ufund.api.ufundapi.model.Need;
+
+/**
+ * Index of the {@linkplain Need needs} ordered by one whole number attribute,
+ * such as their cost or quantity
+ * <br>
+ * A range query walks only the part of the ordering that falls inside the range,
+ * and the needs come out already sorted by the attribute, lowest id first among equals
+ */
+class RangeIndex implements NeedIndex {
+    private final ToIntFunction<Need> attribute;
+    private final ConcurrentSkipListMap<Integer, Set<Integer>> postings = new ConcurrentSkipListMap<>(); // value to ids of needs with it
+
+    /**
+     * Creates an index over one attribute
+     * 
+     * @param attribute Reads the attribute from a need
+     */
+    RangeIndex(ToIntFunction<Need> attribute) {
+        this.attribute = attribute;
+    }
+
+    /**
+     * Gets the value of the indexed attribute of a need
+     * 
+     * @param need The need
+     * @return Its value
+     */
+    int valueOf(Need need) {
+        return attribute.applyAsInt(need);
+    }
+
+    @Override
+    public void add(Need need) {
+        postings.computeIfAbsent(valueOf(need), key -> new ConcurrentSkipListSet<>()).add(need.getId());
+    }
+
+    @Override
+    public void remove(Need need) {
+        postings.computeIfPresent(valueOf(need), (key, ids) -> {
+            ids.remove(need.getId());
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    /**
+     * Gets the ids of the needs whose attribute lies in a range
+     * 
+     * @param min The lowest value, inclusive
+     * @param max The highest value, inclusive
+     * @param descending true to list the highest values first
+     * @return The ids ordered by value, lowest id first among equal values
+     */
+    Iterable<Integer> ids(int min, int max, boolean descending) {
+        if (min > max) {
+            return List.of();
+        }
+        ConcurrentNavigableMap<Integer, Set<Integer>> range = postings.subMap(min, true, max, true);
+        ConcurrentNavigableMap<Integer, Set<Integer>> ordered = descending ? range.descendingMap() : range;
+        return () -> ordered.values().stream().flatMap(Set::stream).iterator();
+    }
+
+    /**
+     * Counts the needs whose attribute lies in a range, stopping early once there are enough
+     * 
+     * @param min The lowest value, inclusive
+     * @param max The highest value, inclusive
+     * @param enough The count past which counting stops
+     * @return The count, at most enough
+     */
+    int count(int min, int max, int enough) {
+        int count = 0;
+        for (Integer id : ids(min, max, false)) {
+            if (++count >= enough) {
+                break;
+            }
+        }
+        return count;
+    }
+}
@@ -17,6 +17,15 @@ public interface SessionDAO {
      */
     Session createSession(int id, String Username) throws IOException;
 
+    /**
+     * Slides the expiration of a user's session forward to now, creating the session if it does not exist
+     * @param id the id of the user, which is also the session id
+     * @param Username
+     * @return the refreshed Session, or null if the username is null
+     * @throws IOException
+     */
+    Session refreshSession(int id, String Username) throws IOException;
+
     /**
      * Gets a session by its id
      * @param id
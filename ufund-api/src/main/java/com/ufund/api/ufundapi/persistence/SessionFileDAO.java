@@ -2,42 +2,172 @@ package com.ufund.api.ufundapi.persistence;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.ufund.api.ufundapi.model.Session;
+import com.ufund.api.ufundapi.util.FileSync;
+import com.ufund.api.ufundapi.persistence.WriteBehindFlusher.Durability;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 
 @Component
 public class SessionFileDAO implements SessionDAO {
+    private static final Logger LOG = Logger.getLogger(SessionFileDAO.class.getName());
     
     /** Map serving as a local cache of Session opjects */
     Map<Integer, Session> sessions; 
 
+    /** Index from username to session, guarded by the sessions lock */
+    private Map<String, Session> sessionsByUser;
+
+    /** Sessions ordered from the least to the most recently validated, guarded by the sessions lock */
+    private NavigableSet<Session> sessionsByExpiry;
+
     /** Mapper object to convert between Session objects and JSON text */
     private ObjectMapper objectMapper;
 
     /** The filename used to store session objects */
     private String filename;
 
+    /** Decides when changes to the sessions are checkpointed to the file, null until started */
+    private WriteBehindFlusher flusher;
+
+    /** The durability the flusher is started with */
+    private Durability durability;
+
+    /** How often, in milliseconds, the flusher checkpoints in async mode */
+    private long checkpointInterval;
+
+    /** How often, in milliseconds, expired sessions are removed, 0 to never remove them */
+    private long reapInterval;
+
+    /** Background thread that removes expired sessions, null when reaping is off */
+    private ScheduledExecutorService reaper;
+
+    /** How many expired sessions are removed per acquisition of the sessions lock */
+    private int reapBatch;
+
+    /** The most sessions kept at once, 0 for no limit */
+    private int maxSessions;
+
     // how long it takes a session to expire, currently 30 minutes
     private static long expiryTime = 30*60*1000;
 
+    /**
+     * Creates a Session file data object that writes the file on every change
+     * <br>
+     * It must be {@linkplain #start() started} before the sessions are changed
+     * @param filename the session.json file to access
+     * @param objectMapper Mapper between JSON objects and Session Objects
+     * @throws IOException when file cannot be accessed or read from
+     */
+    public SessionFileDAO(String filename, ObjectMapper objectMapper) throws IOException {
+        this(filename, objectMapper, Durability.SYNC.name(), 30000, 0, 1000, 0);
+    }
+
     /**
      * Creates a Session file data object
+     * <br>
+     * Sessions live in memory, so with async durability a login or refresh never
+     * waits on the disk and the file is only a periodic checkpoint, while none
+     * never writes the file at all
+     * <br>
+     * Expired sessions are removed by a background reaper, and once the number of
+     * sessions reaches the cap the least recently validated one is evicted
+     * <br>
+     * It must be {@linkplain #start() started} before the sessions are changed,
+     * which Spring does once it has built it
      * @param filename the session.json file to access
      * @param objectMapper Mapper between JSON objects and Session Objects
+     * @param durability sync, group, async or none, see {@link Durability}
+     * @param checkpointInterval how often, in milliseconds, sessions are checkpointed in async mode
+     * @param reapInterval how often, in milliseconds, expired sessions are removed, 0 to never remove them
+     * @param reapBatch how many expired sessions are removed per acquisition of the lock
+     * @param maxSessions the most sessions kept at once, 0 for no limit
      * @throws IOException when file cannot be accessed or read from
      */
-    public SessionFileDAO(@Value("${sessions.file}") String filename, ObjectMapper objectMapper) throws IOException {
+    @Autowired
+    public SessionFileDAO(@Value("${sessions.file}") String filename, ObjectMapper objectMapper,
+                          @Value("${sessions.durability:async}") String durability,
+                          @Value("${sessions.checkpoint.interval:30000}") long checkpointInterval,
+                          @Value("${sessions.reap.interval:60000}") long reapInterval,
+                          @Value("${sessions.reap.batch:1000}") int reapBatch,
+                          @Value("${sessions.max:0}") int maxSessions) throws IOException {
         this.filename = filename;
         this.objectMapper = objectMapper;
+        this.reapBatch = Math.max(1, reapBatch);
+        this.maxSessions = maxSessions;
+        this.durability = Durability.parse(durability);
+        this.checkpointInterval = checkpointInterval;
+        this.reapInterval = reapInterval;
         load();
     }
 
+    /**
+     * Starts checkpointing the sessions and the reaper
+     * <br>
+     * Kept out of the constructor so that neither background thread reaches a
+     * half built data object. Calling it again does nothing
+     */
+    @PostConstruct
+    public void start() {
+        if (flusher != null) {
+            return;
+        }
+        flusher = new WriteBehindFlusher("sessions", durability, checkpointInterval, Integer.MAX_VALUE, this::save);
+        flusher.start();
+        if (reapInterval > 0){
+            reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "sessions-reaper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reaper.scheduleWithFixedDelay(this::reap, reapInterval, reapInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the reaper, checkpoints any pending session changes and stops the background flusher
+     * @throws IOException when file cannot be accessed or written to
+     */
+    @PreDestroy
+    public void close() throws IOException {
+        if (reaper != null){
+            reaper.shutdown();
+        }
+        if (flusher != null) {
+            flusher.close();
+        }
+    }
+
+    /**
+     * Removes expired sessions from the reaper thread, logging rather than throwing failures
+     */
+    private void reap() {
+        try {
+            removeExpiredSessions();
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.SEVERE, "Removing expired sessions failed", e);
+        }
+    }
+
     /**
      * Generates an array of {@linkplain Session sessions} from the tree map
      * @return The array of {@link Session sessions}
@@ -56,14 +186,21 @@ public class SessionFileDAO implements SessionDAO {
 
     /**
      * Saves the {@linkplain Session sessions} from the map into the file as an array of JSON objects
+     * <br>
+     * The sessions go to a temporary file that replaces the old one once complete,
+     * so a checkpoint cut short by a crash leaves the last one whole
      * @return true is the {@link Session sessions} were written successfully
      * @throws IOException when file cannot be accessed or written to
      */
     private boolean save() throws IOException {
-        Session[] sessionArray = getSessionsArray();
-
+        Session[] sessionArray;
+        synchronized (sessions) {
+            sessionArray = getSessionsArray();
+        }
 
-        objectMapper.writeValue(new File(filename), sessionArray);
+        File tempFile = new File(filename + ".tmp");
+        objectMapper.writeValue(tempFile, sessionArray);
+        FileSync.replace(tempFile.toPath(), Path.of(filename));
         return true;
     }
 
@@ -74,6 +211,8 @@ public class SessionFileDAO implements SessionDAO {
      */
     private boolean load() throws IOException {
         sessions = new TreeMap<>();
+        sessionsByUser = new HashMap<>();
+        sessionsByExpiry = new TreeSet<>(Comparator.comparingLong(Session::getTimeStart).thenComparingInt(Session::getId));
 
         Session[] sessionArray = objectMapper.readValue(new File(filename), Session[].class);
         
@@ -81,22 +220,116 @@ public class SessionFileDAO implements SessionDAO {
             int sessionId = session.getId();
             sessions.put(sessionId, session);
         }
+        // index in id order so that a duplicated username resolves to the lowest id
+        for (Session session : sessions.values()){
+            sessionsByExpiry.add(session);
+            if (session.getUserName() != null){
+                sessionsByUser.putIfAbsent(session.getUserName(), session);
+            }
+        }
         return true;
     }
 
+    /**
+     * Stores a session, replacing any session with the same id, and keeps the indexes in step
+     * <br>
+     * If this takes the number of sessions past the cap, the least recently
+     * validated sessions are evicted to make room
+     * <br>
+     * Must be called while holding the sessions lock
+     * @param session the session to store
+     */
+    private void putSession(Session session) {
+        Session old = sessions.put(session.getId(), session);
+        if (old != null){
+            unindex(old);
+        }
+        sessionsByExpiry.add(session);
+        if (session.getUserName() != null){
+            sessionsByUser.put(session.getUserName(), session);
+        }
+        while (maxSessions > 0 && sessions.size() > maxSessions){
+            removeSession(sessionsByExpiry.first().getId());
+        }
+    }
+
+    /**
+     * Removes a session and its index entries
+     * <br>
+     * Must be called while holding the sessions lock
+     * @param id the id of the session to remove
+     * @return the removed session, or null if there was none
+     */
+    private Session removeSession(int id) {
+        Session removed = sessions.remove(id);
+        if (removed != null){
+            unindex(removed);
+        }
+        return removed;
+    }
+
+    /**
+     * Drops a session from the indexes
+     * <br>
+     * Must be called while holding the sessions lock
+     * @param session the session to drop
+     */
+    private void unindex(Session session) {
+        sessionsByExpiry.remove(session);
+        if (session.getUserName() != null){
+            sessionsByUser.remove(session.getUserName(), session);
+        }
+    }
+
+    /**
+     * Removes every expired session, starting from the least recently validated
+     * and stopping at the first one that is still live
+     * <br>
+     * The lock is released between batches so that logins are not held up by a
+     * large sweep, and the whole sweep is written to the file once
+     * @return the number of sessions removed
+     * @throws IOException when the removal cannot be written to the file
+     */
+    public int removeExpiredSessions() throws IOException {
+        long cutoff = java.lang.System.currentTimeMillis() - expiryTime;
+        int removed = 0;
+        int batch;
+        do {
+            batch = 0;
+            synchronized (sessions) {
+                while (batch < reapBatch && !sessionsByExpiry.isEmpty() && sessionsByExpiry.first().getTimeStart() < cutoff){
+                    removeSession(sessionsByExpiry.first().getId());
+                    batch++;
+                }
+            }
+            removed += batch;
+        } while (batch == reapBatch);
+        if (removed > 0){
+            flusher.commit();
+        }
+        return removed;
+    }
+
     @Override
     public Session createSession(int id, String Username) throws IOException { 
+        if (Username == null){
+            return null;
+        }
+        Session newSession;
         synchronized (sessions) {
-            if (Username != null){
-                long newDate = java.lang.System.currentTimeMillis();
-                Session newSession = new Session(id, Username, newDate);
-                sessions.put(id, newSession);
-                save();
-                return newSession;
-            } else {
-                return null;
-            }
+            long newDate = java.lang.System.currentTimeMillis();
+            newSession = new Session(id, Username, newDate);
+            putSession(newSession);
         }
+        flusher.commit();
+        return newSession;
+    }
+
+    @Override
+    public Session refreshSession(int id, String Username) throws IOException {
+        // A session's timer is the moment it was last validated, so restarting
+        // it slides the expiration forward
+        return createSession(id, Username);
     }
 
     @Override
@@ -108,16 +341,12 @@ public class SessionFileDAO implements SessionDAO {
 
     @Override
     public Session getSessionByUser(String userName) throws IOException {
-        synchronized (sessions) {
-            for (Session session : sessions.values()) {
-                if (session != null){
-                    if (session.getUserName() != null && session.getUserName().equals(userName)) {
-                        return session;
-                    }
-                }   
-            }
+        if (userName == null){
             return null;
         }
+        synchronized (sessions) {
+            return sessionsByUser.get(userName);
+        }
     }
 
     @Override
@@ -127,19 +356,20 @@ public class SessionFileDAO implements SessionDAO {
             if (!sessions.containsKey(sessId)) {
                 return null; 
             }
-            sessions.put(sessId, session);
-            save();
-            return session;
+            putSession(session);
         }
+        flusher.commit();
+        return session;
     }
 
     @Override
     public Session deleteSession(int id) throws IOException {
+        Session deleted;
         synchronized (sessions) {
-            Session deleted = sessions.remove(id);
-            save();
-            return deleted;
+            deleted = removeSession(id);
         }
+        flusher.commit();
+        return deleted;
     }
 
     @Override
@@ -0,0 +1,116 @@
+package com.ufund.api.ufundapi.persistence;
+
+import java.util.ArrayList;
+import java.util.function.Consumer;
+
+/**
+ * A hashed timing wheel that hands items to a callback once their deadline passes
+ * <br>
+ * Time is cut into ticks and every tick maps onto one of a fixed ring of slots,
+ * so scheduling is a push onto one slot and each tick only looks at the items in
+ * its own slot, never at everything that is waiting. Items due further out than
+ * one turn of the ring stay in their slot and are passed over until their turn.
+ * <br>
+ * Items are never taken back out: an item that no longer needs to expire is
+ * expected to ignore its callback. Any number of threads may schedule, and one
+ * thread at a time advances the wheel. Both take the same short lock, so an item
+ * can never land in a slot that an advance has already emptied and wait a whole
+ * turn of the ring; the callbacks run after the lock is released
+ *
+ * @param <T> The type of the scheduled items
+ */
+final class TimingWheel<T> {
+    private final long tickMillis;
+    private final Entry<T>[] slots;         // A stack of entries per slot, guarded by lock
+    private final Consumer<T> onExpire;
+    private final Object lock = new Object();
+    private long nextTick;                  // The first tick not yet advanced past, guarded by lock
+
+    /**
+     * An item waiting in a slot, linked to the next one in the same slot
+     */
+    private static final class Entry<T> {
+        final T item;
+        final long deadlineTick;
+        Entry<T> next;
+
+        Entry(T item, long deadlineTick) {
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+
+    /**
+     * Creates a timing wheel
+     *
+     * @param tickMillis The length of a tick, and so how late an item may be handed over
+     * @param slots The number of slots in the ring
+     * @param now The current time in milliseconds
+     * @param onExpire Called with every item once its deadline passes, on the advancing thread
+     */
+    @SuppressWarnings("unchecked")
+    TimingWheel(long tickMillis, int slots, long now, Consumer<T> onExpire) {
+        this.tickMillis = tickMillis;
+        this.slots = (Entry<T>[]) new Entry<?>[slots];
+        this.onExpire = onExpire;
+        this.nextTick = now / tickMillis;
+    }
+
+    /**
+     * Schedules an item
+     *
+     * @param item The item
+     * @param deadline The time in milliseconds after which the item expires
+     */
+    void schedule(T item, long deadline) {
+        // round up, so an item never expires before its deadline
+        long tick = (deadline + tickMillis - 1) / tickMillis;
+        synchronized (lock) {
+            // a tick already advanced past has been emptied, so an overdue item goes in the next one
+            tick = Math.max(tick, nextTick);
+            push(slot(tick), new Entry<>(item, tick));
+        }
+    }
+
+    /**
+     * Expires every item whose deadline has passed, tick by tick
+     *
+     * @param now The current time in milliseconds
+     */
+    void advance(long now) {
+        long lastTick = now / tickMillis;
+        ArrayList<T> expired = new ArrayList<>();
+        synchronized (lock) {
+            for (long tick = nextTick; tick <= lastTick; tick++) {
+                int slot = slot(tick);
+                Entry<T> entry = slots[slot];
+                slots[slot] = null;
+                while (entry != null) {
+                    Entry<T> next = entry.next;
+                    if (entry.deadlineTick <= tick) {
+                        expired.add(entry.item);
+                    } else {
+                        push(slot, entry); // due on a later turn of the ring
+                    }
+                    entry = next;
+                }
+                nextTick = tick + 1;
+            }
+        }
+        for (T item : expired) {
+            onExpire.accept(item);
+        }
+    }
+
+    private int slot(long tick) {
+        return (int) Math.floorMod(tick, (long) slots.length);
+    }
+
+    /**
+     * Must be called while holding the lock
+     */
+    private void push(int slot, Entry<T> entry) {
+        entry.next = slots[slot];
+        slots[slot] = entry;
+    }
+}
@@ -0,0 +1,121 @@
+package com.ufund.api.ufundapi.persistence;
+
+/**
+ * A letter in a trie, optionally holding a value for the key that ends there
+ * <br>
+ * Only the thread holding the cupboard lock changes a trie. Children are replaced
+ * as a whole, sorted array rather than changed in place, so a reader on another
+ * thread always sees a complete set of them without locking
+ * 
+ * @param <T> The type of value held at the end of a key
+ */
+final class TrieNode<T> {
+    private static final TrieNode<?>[] NO_CHILDREN = new TrieNode<?>[0];
+
+    final char letter;
+    volatile TrieNode<T>[] children = newChildren(0);
+    volatile T value;   // The value for the key ending at this letter, null if none does
+
+    /**
+     * Creates a node
+     * 
+     * @param letter The letter leading to this node from its parent
+     */
+    TrieNode(char letter) {
+        this.letter = letter;
+    }
+
+    /**
+     * Makes an array for the children of a node
+     * <br>
+     * An array of a generic type cannot be created, so one for nodes of any type
+     * is cast. That is safe as long as only nodes of type T go in it, which holds
+     * for every array this class makes
+     * 
+     * @param <T> The type of value held by the children
+     * @param length The number of children
+     * @return The array, the shared empty one for no children
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> TrieNode<T>[] newChildren(int length) {
+        return (TrieNode<T>[]) (length == 0 ? NO_CHILDREN : new TrieNode<?>[length]);
+    }
+
+    /**
+     * Finds where a letter is, or would go, among the children
+     * 
+     * @param current The children
+     * @param letter The letter
+     * @return The index of the child, or -(insertion point) - 1 if there is none
+     */
+    private static int indexOf(TrieNode<?>[] current, char letter) {
+        int low = 0;
+        int high = current.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            char found = current[middle].letter;
+            if (found < letter) {
+                low = middle + 1;
+            } else if (found > letter) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Gets the child for a letter
+     * 
+     * @param letter The letter
+     * @return The child, null if there is none
+     */
+    TrieNode<T> get(char letter) {
+        TrieNode<T>[] current = children;
+        int at = indexOf(current, letter);
+        return at >= 0 ? current[at] : null;
+    }
+
+    /**
+     * Gets the child for a letter, adding it if there is none
+     * <br>
+     * Must be called while holding the cupboard lock
+     * 
+     * @param letter The letter
+     * @return The child
+     */
+    TrieNode<T> getOrAdd(char letter) {
+        TrieNode<T>[] current = children;
+        int at = indexOf(current, letter);
+        if (at >= 0) {
+            return current[at];
+        }
+        at = -at - 1;
+        TrieNode<T>[] grown = newChildren(current.length + 1);
+        System.arraycopy(current, 0, grown, 0, at);
+        grown[at] = new TrieNode<>(letter);
+        System.arraycopy(current, at, grown, at + 1, current.length - at);
+        children = grown;
+        return grown[at];
+    }
+
+    /**
+     * Removes the child for a letter, if there is one
+     * <br>
+     * Must be called while holding the cupboard lock
+     * 
+     * @param letter The letter
+     */
+    void remove(char letter) {
+        TrieNode<T>[] current = children;
+        int at = indexOf(current, letter);
+        if (at < 0) {
+            return;
+        }
+        TrieNode<T>[] shrunk = newChildren(current.length - 1);
+        System.arraycopy(current, 0, shrunk, 0, at);
+        System.arraycopy(current, at + 1, shrunk, at, current.length - at - 1);
+        children = shrunk;
+    }
+}
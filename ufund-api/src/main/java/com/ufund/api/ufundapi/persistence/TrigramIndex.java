@@ -0,0 +1,115 @@
+package com.ufund.api.ufundapi.persistence;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.ufund.api.ufundapi.model.Need;
+
+/**
+ * Inverted index from every three character sequence of a {@linkplain Need need}
+ * name to the ids of the needs whose name contains it
+ * <br>
+ * A name can only contain a query if it contains every trigram of the query, so
+ * intersecting the postings of those trigrams narrows a substring search down to
+ * a few candidates instead of every need in the cupboard
+ */
+class TrigramIndex implements NeedIndex {
+    static final int GRAM = 3;
+
+    private final Map<String, Set<Integer>> postings = new ConcurrentHashMap<>();
+
+    /**
+     * Normalizes text the same way for names and queries
+     * 
+     * @param text The text to normalize
+     * @return The text in lower case
+     */
+    static String normalize(String text) {
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Gets the distinct trigrams of some normalized text
+     * 
+     * @param text The normalized text
+     * @return Its trigrams, empty if it is shorter than a trigram
+     */
+    private static Set<String> trigrams(String text) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + GRAM <= text.length(); i++) {
+            grams.add(text.substring(i, i + GRAM));
+        }
+        return grams;
+    }
+
+    @Override
+    public void add(Need need) {
+        if (need.getName() == null) {
+            return;
+        }
+        for (String gram : trigrams(normalize(need.getName()))) {
+            postings.computeIfAbsent(gram, key -> ConcurrentHashMap.newKeySet()).add(need.getId());
+        }
+    }
+
+    @Override
+    public void remove(Need need) {
+        if (need.getName() == null) {
+            return;
+        }
+        for (String gram : trigrams(normalize(need.getName()))) {
+            postings.computeIfPresent(gram, (key, ids) -> {
+                ids.remove(need.getId());
+                return ids.isEmpty() ? null : ids;
+            });
+        }
+    }
+
+    /**
+     * Checks whether a query is long enough to be answered by the index
+     * 
+     * @param normalizedQuery The normalized query
+     * @return true if the query has at least one trigram
+     */
+    static boolean canSearch(String normalizedQuery) {
+        return normalizedQuery.length() >= GRAM;
+    }
+
+    /**
+     * Gets the ids of every need whose name may contain the query
+     * <br>
+     * Every need whose name does contain the query is included, but a candidate
+     * still has to be checked against the name itself
+     * 
+     * @param normalizedQuery The normalized query, at least {@value #GRAM} characters long
+     * @return The candidate ids, in no particular order
+     */
+    List<Integer> candidates(String normalizedQuery) {
+        List<Set<Integer>> lists = new ArrayList<>();
+        for (String gram : trigrams(normalizedQuery)) {
+            Set<Integer> ids = postings.get(gram);
+            if (ids == null) {
+                return new ArrayList<>();
+            }
+            lists.add(ids);
+        }
+        // walk the shortest postings and probe the others
+        lists.sort((a, b) -> Integer.compare(a.size(), b.size()));
+        List<Integer> result = new ArrayList<>();
+        for (Integer id : lists.get(0)) {
+            boolean everywhere = true;
+            for (int i = 1; i < lists.size() && everywhere; i++) {
+                everywhere = lists.get(i).contains(id);
+            }
+            if (everywhere) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,49 @@
+package com.ufund.api.ufundapi.persistence;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.ufund.api.ufundapi.model.Need;
+
+/**
+ * Index from the type of a {@linkplain Need need}, ignoring case, to the ids of
+ * the needs of that type
+ * <br>
+ * Lets a query for one type visit only the needs of that type rather than the
+ * whole cupboard
+ */
+class TypeIndex implements NeedIndex {
+    private final Map<String, Set<Integer>> postings = new ConcurrentHashMap<>();
+
+    @Override
+    public void add(Need need) {
+        if (need.getType() == null) {
+            return;
+        }
+        postings.computeIfAbsent(TrigramIndex.normalize(need.getType()), key -> ConcurrentHashMap.newKeySet()).add(need.getId());
+    }
+
+    @Override
+    public void remove(Need need) {
+        if (need.getType() == null) {
+            return;
+        }
+        postings.computeIfPresent(TrigramIndex.normalize(need.getType()), (key, ids) -> {
+            ids.remove(need.getId());
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    /**
+     * Gets the ids of the needs of a type
+     * 
+     * @param type The type, ignoring case
+     * @return A live view of the ids, empty if no need has the type
+     */
+    Set<Integer> ids(String type) {
+        Set<Integer> ids = postings.get(TrigramIndex.normalize(type));
+        return ids == null ? Collections.emptySet() : Collections.unmodifiableSet(ids);
+    }
+}
@@ -2,12 +2,17 @@ package com.ufund.api.ufundapi.persistence;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.stream.Stream;
+
 import com.ufund.api.ufundapi.model.BasketNeed;
 import com.ufund.api.ufundapi.model.Need;
 import com.ufund.api.ufundapi.model.User;
 
 /**
  * Defines the interface for User object persistance
+ * <br>
+ * Every user handed out is a copy, so it can be read and sent while the stored
+ * user and its basket keep changing
  */
 public interface UserDAO {
     /**
@@ -39,6 +44,25 @@ public interface UserDAO {
      */
     User[] getAllUsers() throws IOException;
 
+    /**
+     * Streams every user in id order without first copying them all into an array
+     * <br>
+     * The stream is lazy, so each user is read as it is reached and is in a
+     * consistent state, but users changed meanwhile may be seen before or after the change
+     * @return A stream of the users
+     * @throws IOException if there is an issue with file access
+     */
+    Stream<User> streamUsers() throws IOException;
+
+    /**
+     * Retrieves a page of users in id order
+     * @param after The id the page starts after, {@link Integer#MIN_VALUE} for the first page
+     * @param limit The most users on the page
+     * @return The users with the lowest ids greater than after, may be empty
+     * @throws IOException if there is an issue with file access
+     */
+    User[] getUsersPage(int after, int limit) throws IOException;
+
     /**
      * Updates and saves a user.
      * @param user The user to update
@@ -72,6 +96,8 @@ public interface UserDAO {
      * 
      * null if there is no user
      * 
+     * Each line names its need by id only, see {@link BasketNeed#join(Need)}
+     * 
      * @throws IOException if an issue with underlying storage
      */
     ArrayList<BasketNeed> getBasket(int id) throws IOException;
@@ -132,4 +158,50 @@ public interface UserDAO {
      */
     boolean needExists(int userId, Need need) throws IOException;
 
+    /**
+     * Empties the basket of a user and returns what was in it, in one step, so two
+     * checkouts of the same basket cannot both get its contents
+     * 
+     * @param id The Basket's user ID
+     * 
+     * @return The needs that were in the basket, null if the user doesn't exist
+     * 
+     * @throws IOException if underlying storage cannot be accessed
+     */
+    ArrayList<BasketNeed> takeBasket(int id) throws IOException;
+
+    /**
+     * Puts needs taken by {@link #takeBasket(int)} back at the front of a user's basket,
+     * skipping any need the user has added to the basket again in the meantime
+     * 
+     * @param id The Basket's user ID
+     * 
+     * @param basket The needs to put back
+     * 
+     * @return the user with the restored basket, null if the user doesn't exist
+     * 
+     * @throws IOException if underlying storage cannot be accessed
+     */
+    User restoreBasket(int id, ArrayList<BasketNeed> basket) throws IOException;
+
+    /**
+     * Counts the users with a need in their basket
+     * 
+     * @param needId The id of the need
+     * 
+     * @return The number of users whose basket holds the need
+     */
+    int countBasketsWith(int needId);
+
+    /**
+     * Takes a need out of every basket holding it, as when it leaves the cupboard
+     * 
+     * @param needId The id of the need
+     * 
+     * @return The number of baskets the need was taken out of
+     * 
+     * @throws IOException if underlying storage cannot be accessed
+     */
+    int removeFromBaskets(int needId) throws IOException;
+
 }
\ No newline at end of file
@@ -2,44 +2,155 @@ package com.ufund.api.ufundapi.persistence;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Locale;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ufund.api.ufundapi.persistence.WriteBehindFlusher.Durability;
 import com.ufund.api.ufundapi.model.BasketNeed;
 import com.ufund.api.ufundapi.model.Need;
 import com.ufund.api.ufundapi.model.User;
+import com.ufund.api.ufundapi.util.FileSync;
 import com.ufund.api.ufundapi.util.Passwordhasher;
 
 @Component
 public class UserFileDAO implements UserDAO {
+    static final int DEFAULT_STRIPES = 64;  // Locks the users are spread across by default
 
-     Map<Integer,User> users;   // Provides a local cache of the User objects
-                                // so that we don't need to read from the file
-                                // each time
+     ConcurrentNavigableMap<Integer,User> users;   // Provides a local cache of the User objects
+                                                   // so that we don't need to read from the file
+                                                   // each time
     private ObjectMapper objectMapper;  // Provides conversion between User
                                         // objects and JSON text format written
                                         // to the file
     private static int nextId;  // The next Id to assign to a new User
     private String filename;    // Filename to read from and write to
+    private WriteBehindFlusher flusher; // Decides when changes to the users are written to the file, null until started
+    private Durability durability;      // The durability the flusher is started with
+    private long flushInterval;         // How often the flusher writes in async mode
+    private int flushBatch;             // Pending changes that make the flusher write early in async mode
+    private Map<String,Integer> usernames;  // Index from username to user id, written under the index lock
+    private boolean caseInsensitive;        // Whether usernames are looked up ignoring case
+    private final Object indexLock = new Object();  // Serializes creating, replacing and deleting users
+    private Object[] stripes;   // Locks guarding the state of each user, picked by user id
+    private Map<Integer,BitSet> basketIndex;    // Index from need id to the ids of the users with it in their basket
+
+    /**
+     * Creates a User file data object that writes the file on every change
+     * <br>
+     * It must be {@linkplain #start() started} before the users are changed
+     * 
+     * @param filename the user.json is the file to read and write from
+     * @param objectMapper Provides JSON Object to/from Java Object serialization and deserialization
+     * 
+     */
+    public UserFileDAO(String filename,ObjectMapper objectMapper) throws IOException {
+        this(filename, objectMapper, Durability.SYNC.name(), 1000, 100, false, DEFAULT_STRIPES);
+    }
 
     /**
      * Creates a User file data object
+     * <br>
+     * It must be {@linkplain #start() started} before the users are changed,
+     * which Spring does once it has built it
      * 
      * @param filename the user.json is the file to read and write from
      * @param objectMapper Provides JSON Object to/from Java Object serialization and deserialization
+     * @param durability sync, group or async, see {@link Durability}
+     * @param flushInterval how often, in milliseconds, pending changes are written in async mode
+     * @param flushBatch how many pending changes trigger an early write in async mode
+     * @param caseInsensitive true to look usernames up ignoring case
+     * @param lockStripes how many locks the users are spread across, 1 for a single lock
      * 
      */
-    public UserFileDAO(@Value("${users.file}") String filename,ObjectMapper objectMapper) throws IOException {
+    @Autowired
+    public UserFileDAO(@Value("${users.file}") String filename,ObjectMapper objectMapper,
+                       @Value("${users.durability:sync}") String durability,
+                       @Value("${users.flush.interval:1000}") long flushInterval,
+                       @Value("${users.flush.batch:100}") int flushBatch,
+                       @Value("${users.username.caseInsensitive:false}") boolean caseInsensitive,
+                       @Value("${users.lock.stripes:64}") int lockStripes) throws IOException {
         this.filename = filename;
         this.objectMapper = objectMapper;
+        this.caseInsensitive = caseInsensitive;
+        this.stripes = new Object[Math.max(1, lockStripes)];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Object();
+        }
+        this.durability = Durability.parse(durability);
+        this.flushInterval = flushInterval;
+        this.flushBatch = flushBatch;
         load();  // load the Users from the file
     }
 
+    /**
+     * Starts writing changes to the users to the file, in the background too when async
+     * <br>
+     * Kept out of the constructor so that the flusher never reaches a half built
+     * data object. Calling it again does nothing
+     */
+    @PostConstruct
+    public void start() {
+        if (flusher == null) {
+            flusher = new WriteBehindFlusher("users", durability, flushInterval, flushBatch, this::save);
+            flusher.start();
+        }
+    }
+
+    /**
+     * Writes any changes that are still pending and stops the background flusher
+     * 
+     * @throws IOException when file cannot be accessed or written to
+     */
+    @PreDestroy
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.close();
+        }
+    }
+
+    /**
+     * Gets the lock that guards a {@linkplain User user}
+     * <br>
+     * Users with different ids usually have different locks, so their baskets
+     * can be changed at the same time
+     * 
+     * @param id The id of the user
+     * @return The lock for that user
+     */
+    private Object lockFor(int id) {
+        return stripes[Math.floorMod(id, stripes.length)];
+    }
+
+    /**
+     * Copies a {@linkplain User user} and its basket so that it can be written
+     * while the original keeps changing
+     * <br>
+     * Must be called while holding the lock for the user
+     * 
+     * @param user The user to copy
+     * @return The copy
+     */
+    private static User copyOf(User user) {
+        // the new user keeps its own copy of every basket line
+        return new User(user.getId(), user.getUserName(), user.getPassword(), user.getRestricted(), user.getBasket(), user.getSecurity());
+    }
+
     /**
      * Generates the next id for a new {@linkplain User user}
      * 
@@ -74,7 +185,10 @@ public class UserFileDAO implements UserDAO {
 
         for (User user : users.values()) {
             if (containsText == null || user.getUserName().contains(containsText)) {
-                userArrayList.add(user);
+                User copy = consistentCopy(user.getId());
+                if (copy != null) {
+                    userArrayList.add(copy);
+                }
             }
         }
 
@@ -85,18 +199,27 @@ public class UserFileDAO implements UserDAO {
 
      /**
      * Saves the {@linkplain User users} from the map into the file as an array of JSON objects
+     * <br>
+     * Only called by the {@link WriteBehindFlusher flusher}, mutations call
+     * {@link WriteBehindFlusher#commit() commit} once they have released their lock.
+     * Each user is copied under its own lock, so every user is written in a
+     * consistent state without stopping changes to the others. The users are
+     * written to a temporary file that replaces the old one only once it is
+     * complete, so a crash part way through never leaves a truncated file
      * 
      * @return true if the {@link User users} were written successfully
      * 
      * @throws IOException when file cannot be accessed or written to
      */
     private boolean save() throws IOException {
-        User[] userArray = getUsersArray();
+        User[] userArray = streamUsers().toArray(User[]::new);
 
         // Serializes the Java Objects to JSON objects into the file
         // writeValue will thrown an IOException if there is an issue
         // with the file or reading from the file
-        objectMapper.writeValue(new File(filename),userArray);
+        File tempFile = new File(filename + ".tmp");
+        objectMapper.writeValue(tempFile,userArray);
+        FileSync.replace(tempFile.toPath(), Path.of(filename));
         return true;
     }
 
@@ -107,7 +230,9 @@ public class UserFileDAO implements UserDAO {
      * @throws IOException when file cannot be accessed or read from
      */
     private boolean load() throws IOException{
-        users = new TreeMap<>();
+        users = new ConcurrentSkipListMap<>();
+        usernames = new ConcurrentHashMap<>();
+        basketIndex = new ConcurrentHashMap<>();
         nextId = 0;
 
          // Deserializes the JSON objects from the file into an array of users
@@ -122,76 +247,209 @@ public class UserFileDAO implements UserDAO {
                 nextId = user.getId();
             }
         }
+        // index in id order so that a duplicated name resolves to the lowest id
+        for(User user : users.values()){
+            usernames.putIfAbsent(usernameKey(user.getUserName()), user.getId());
+            indexBasket(user, true);
+        }
         nextId++;
         return true;
     }
 
+    /**
+     * Gets the key a username is indexed under
+     * 
+     * @param userName the username
+     * @return the username, lower cased if lookups ignore case
+     */
+    private String usernameKey(String userName) {
+        if (userName == null || !caseInsensitive) {
+            return userName;
+        }
+        return userName.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Removes a username from the index if it still points at the given user
+     * <br>
+     * Must be called while holding the index lock
+     * 
+     * @param user the user whose name is being released
+     */
+    private void unindex(User user) {
+        usernames.remove(usernameKey(user.getUserName()), user.getId());
+    }
+
+    /**
+     * Records in the basket index whether a need is in a user's basket
+     * <br>
+     * Must be called while holding the lock for the user. The users of each need
+     * are changed atomically, so users under different locks can change them at once
+     * 
+     * @param userId The id of the user
+     * @param needId The id of the need
+     * @param inBasket true if the need is now in the basket, false if it was taken out
+     */
+    private void indexBasketNeed(int userId, int needId, boolean inBasket) {
+        basketIndex.compute(needId, (key, userIds) -> {
+            if (inBasket) {
+                if (userIds == null) {
+                    userIds = new BitSet();
+                }
+                userIds.set(userId);
+            } else if (userIds != null) {
+                userIds.clear(userId);
+                if (userIds.isEmpty()) {
+                    return null;    // no entry is kept for needs in no basket
+                }
+            }
+            return userIds;
+        });
+    }
+
+    /**
+     * Records in the basket index every need in a user's basket
+     * <br>
+     * Must be called while holding the lock for the user
+     * 
+     * @param user The user
+     * @param inBasket true if the basket was added, false if it was taken away
+     */
+    private void indexBasket(User user, boolean inBasket) {
+        for (BasketNeed line : user.getBasket()) {
+            indexBasketNeed(user.getId(), line.getNeedId(), inBasket);
+        }
+    }
+
+    /**
+     * Gets the users with a need in their basket
+     * 
+     * @param needId The id of the need
+     * @return A copy of the ids of the users, empty if there are none
+     */
+    private BitSet basketUsers(int needId) {
+        BitSet[] copy = { new BitSet() };
+        // copied inside the atomic update, as the set may be changing
+        basketIndex.computeIfPresent(needId, (key, userIds) -> {
+            copy[0] = (BitSet) userIds.clone();
+            return userIds;
+        });
+        return copy[0];
+    }
+
 
     @Override
     public User createUser(User user) throws IOException {
-        synchronized (users) {
-            User newUser = new User(nextId(), user.getUserName(), Passwordhasher.hashPassword(user.getPassword()), user.getSecurity());
-            users.put(newUser.getId(), newUser);
-            save(); 
-            return newUser;
+        User newUser;
+        synchronized (indexLock) {
+            newUser = new User(nextId(), user.getUserName(), Passwordhasher.hashPassword(user.getPassword()), user.getSecurity());
+            users.put(newUser.getId(), copyOf(newUser)); // the caller keeps the one returned
+            usernames.put(usernameKey(newUser.getUserName()), newUser.getId());
         }
+        flusher.commit();
+        return newUser;
     }
 
     @Override
     public User getUser(int id) throws IOException {
-        synchronized (users) {
-            return users.get(id); 
-        }
+        return consistentCopy(id);
     }
 
     @Override
     public User getUserByName(String userName) throws IOException {
-        synchronized (users) {
-            for (User user : users.values()) {
-                if (user.getUserName().equals(userName)) {
-                    return user;
-                }
-            }
+        if (userName == null) {
             return null;
         }
+        Integer id = usernames.get(usernameKey(userName));
+        return id == null ? null : consistentCopy(id);
     }
 
     @Override
     public User[] getAllUsers() throws IOException {
-        synchronized (users) {
-            return getUsersArray();
+        return getUsersArray();
+    }
+
+    /**
+     * Copies a user under its lock so that it can be read while the original keeps changing
+     * <br>
+     * Every user handed out is such a copy, the users in the map are only ever
+     * touched under their lock
+     * 
+     * @param id The id of the user
+     * @return The copy, null if there is no such user or it was deleted meanwhile
+     */
+    private User consistentCopy(int id) {
+        synchronized (lockFor(id)) {
+            // read under the lock in case the user was replaced or deleted meanwhile
+            User current = users.get(id);
+            return current == null ? null : copyOf(current);
         }
     }
 
     @Override
-    public User updateUser(User user) throws IOException {
-        synchronized (users) {
-            if (!users.containsKey(user.getId())) {
-                return null; 
-            }
+    public Stream<User> streamUsers() {
+        return users.keySet().stream().map(this::consistentCopy).filter(Objects::nonNull);
+    }
 
-            if(user.getPassword().equals("")){
-                user.setPasswordNoHash(getUserByName(user.getUserName()).getPassword());
-            } else {
-                user.setPassword(user.getPassword());
+    @Override
+    public User[] getUsersPage(int after, int limit) throws IOException {
+        ArrayList<User> page = new ArrayList<>();
+        // the skip list finds the start in O(log n), then only the page is walked
+        for (int id : users.tailMap(after, false).keySet()) {
+            if (page.size() >= limit) {
+                break;
             }
+            User copy = consistentCopy(id);
+            if (copy != null) {
+                page.add(copy);
+            }
+        }
+        return page.toArray(new User[0]);
+    }
 
-            users.put(user.getId(), user);
-            save();
-            return user;
+    @Override
+    public User updateUser(User user) throws IOException {
+        synchronized (indexLock) {
+            synchronized (lockFor(user.getId())) {
+                User oldUser = users.get(user.getId());
+                if (oldUser == null) {
+                    return null; 
+                }
+
+                if(user.getPassword().equals("")){
+                    user.setPasswordNoHash(oldUser.getPassword());
+                } else {
+                    user.setPassword(user.getPassword());
+                }
+
+                unindex(oldUser);
+                indexBasket(oldUser, false);
+                users.put(user.getId(), copyOf(user));  // the caller keeps the one passed in
+                usernames.put(usernameKey(user.getUserName()), user.getId());
+                indexBasket(user, true);
+            }
         }
+        flusher.commit();
+        return user;
     }
 
     @Override
     public boolean deleteUser(int id) throws IOException {
-        synchronized (users) {
-            if (users.containsKey(id)) {
-                users.remove(id);
-                save();
-                return true;
+        synchronized (indexLock) {
+            User user;
+            synchronized (lockFor(id)) {
+                user = users.remove(id);
+                if (user != null) {
+                    indexBasket(user, false);
+                }
+            }
+            if (user == null) {
+                return false;
             }
-            return false;
+            unindex(user);
         }
+        flusher.commit();
+        return true;
     }
 
     public boolean userExists(User user) throws IOException {
@@ -211,9 +469,10 @@ public class UserFileDAO implements UserDAO {
      */
     @Override
     public ArrayList<BasketNeed> getBasket(int id) throws IOException{
-        synchronized(users) {
+        synchronized(lockFor(id)) {
             if (users.get(id) != null){
                 User user = users.get(id);
+                // a copy, so the caller can read it while the basket keeps changing
                 return user.getBasket();
             }
             return null;
@@ -225,15 +484,18 @@ public class UserFileDAO implements UserDAO {
      */
     @Override
     public User addNeed(int id, Need need) throws IOException {
-        synchronized(users) {
+        User user;
+        synchronized(lockFor(id)) {
             if (users.get(id) == null){
                 return null;
             }
-            User user = users.get(id);
+            user = users.get(id);
             user.addNeed(need);
-            save(); // may throw an IOException
-            return user;
+            indexBasketNeed(id, need.getId(), true);
+            user = copyOf(user);
         }
+        flusher.commit(); // may throw an IOException
+        return user;
     }
 
     /**
@@ -241,17 +503,18 @@ public class UserFileDAO implements UserDAO {
      */
     @Override
     public User removeNeed(int id, Need need) throws IOException {
-        synchronized(users) {
+        User user;
+        synchronized(lockFor(id)) {
             if (users.get(id) == null){
                 return null;
             }
-            User user = users.get(id);
+            user = users.get(id);
             user.removeNeed(need);
-
-            users.put(user.getId(),user);
-            save(); // may throw an IOException
-            return user;
+            indexBasketNeed(id, need.getId(), false);
+            user = copyOf(user);
         }
+        flusher.commit(); // may throw an IOException
+        return user;
     }
 
     /**
@@ -259,18 +522,59 @@ public class UserFileDAO implements UserDAO {
      */
     @Override
     public User editCount(int id, Need need, int count) throws IOException {
-        synchronized(users) {
+        User user;
+        synchronized(lockFor(id)) {
             if (users.get(id) == null){
                 return null;
             }
-            User user = users.get(id);
+            user = users.get(id);
             BasketNeed basketNeed = user.getBasketNeed(need);
             basketNeed.editCount(count);
+            user = copyOf(user);
+        }
+        flusher.commit(); // may throw an IOException
+        return user;
+    }
 
-            users.put(user.getId(),user);
-            save(); // may throw an IOException
-            return user;
+    /**
+    ** {@inheritDoc}
+     */
+    @Override
+    public ArrayList<BasketNeed> takeBasket(int id) throws IOException {
+        ArrayList<BasketNeed> basket;
+        synchronized(lockFor(id)) {
+            User user = users.get(id);
+            if (user == null) {
+                return null;
+            }
+            basket = user.takeBasket();
+            for (BasketNeed line : basket) {
+                indexBasketNeed(id, line.getNeedId(), false);
+            }
         }
+        if (!basket.isEmpty()) {
+            flusher.commit(); // may throw an IOException
+        }
+        return basket;
+    }
+
+    /**
+    ** {@inheritDoc}
+     */
+    @Override
+    public User restoreBasket(int id, ArrayList<BasketNeed> basket) throws IOException {
+        User user;
+        synchronized(lockFor(id)) {
+            user = users.get(id);
+            if (user == null) {
+                return null;
+            }
+            user.restoreBasket(basket);
+            indexBasket(user, true);
+            user = copyOf(user);
+        }
+        flusher.commit(); // may throw an IOException
+        return user;
     }
 
     /**
@@ -278,15 +582,42 @@ public class UserFileDAO implements UserDAO {
     */
     @Override
     public boolean needExists(int userId, Need need) throws IOException {
-        User user = users.get(userId);
-        if (user == null) return false;
+        synchronized(lockFor(userId)) {
+            User user = users.get(userId);
+            if (user == null) return false;
 
-        ArrayList<BasketNeed> basket = user.getBasket();
-        for (BasketNeed b : basket) {
-            if (b.getNeed() != null && b.getNeed().getId() == need.getId()) {
-                return true;
+            return user.getBasketNeed(need) != null;
+        }
+    }
+
+    /**
+    ** {@inheritDoc}
+    */
+    @Override
+    public int countBasketsWith(int needId) {
+        return basketUsers(needId).cardinality();
+    }
+
+    /**
+    ** {@inheritDoc}
+    */
+    @Override
+    public int removeFromBaskets(int needId) throws IOException {
+        // only the users the index names are visited, not every user
+        BitSet userIds = basketUsers(needId);
+        int removed = 0;
+        for (int userId = userIds.nextSetBit(0); userId >= 0; userId = userIds.nextSetBit(userId + 1)) {
+            synchronized (lockFor(userId)) {
+                User user = users.get(userId);
+                if (user != null && user.removeNeed(needId)) {
+                    indexBasketNeed(userId, needId, false);
+                    removed++;
+                }
             }
         }
-        return false;
+        if (removed > 0) {
+            flusher.commit(); // may throw an IOException
+        }
+        return removed;
     }
 }
@@ -0,0 +1,210 @@
+package com.ufund.api.ufundapi.persistence;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coalesces the writes of a file-backed store so that many mutations share one flush
+ * <br>
+ * A store marks itself dirty by calling {@link #commit()} after each mutation, outside
+ * of its own lock. Depending on the {@linkplain Durability durability} the flush
+ * then happens in the calling thread, is shared with every other request waiting
+ * at the same time, or is left to a background thread, which runs once the
+ * flusher is {@linkplain #start() started}
+ */
+public class WriteBehindFlusher {
+    private static final Logger LOG = Logger.getLogger(WriteBehindFlusher.class.getName());
+
+    /**
+     * How long a mutation may stay in memory before it reaches the file
+     */
+    public enum Durability {
+        /** Every request writes and forces the file before it returns */
+        SYNC,
+        /** Every request waits for a forced write, but concurrent requests share one write */
+        GROUP,
+        /** Requests return immediately, the file is written on an interval or once enough mutations are pending */
+        ASYNC,
+        /** The store lives in memory only and the file is never written */
+        NONE;
+
+        /**
+         * Parses a durability from a configuration value, ignoring case
+         * @param value The configured value
+         * @return The matching durability
+         */
+        public static Durability parse(String value) {
+            return Durability.valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    /**
+     * Writes the current state of a store to its file
+     * <br>
+     * The flusher never forces anything itself, the action is expected to write
+     * through {@link com.ufund.api.ufundapi.util.FileSync FileSync}
+     */
+    @FunctionalInterface
+    public interface Flush {
+        /**
+         * Writes the store
+         * @throws IOException when the file cannot be written to
+         */
+        void flush() throws IOException;
+    }
+
+    private final String name;        // The name of the store, used for the background thread
+    private final Durability durability;
+    private final long intervalMillis; // How often the background thread flushes
+    private final int batchSize;      // Pending mutations that trigger an early asynchronous flush
+    private final Flush action;       // Writes the store to its file
+    private final Object flushLock = new Object();  // Held for the duration of a flush
+    private long requested;           // Mutations committed so far, guarded by this
+    private volatile long flushed;    // Mutations covered by a finished flush, written under flushLock
+    private volatile ScheduledExecutorService scheduler; // Background flusher, null until started and unless asynchronous
+
+    /**
+     * Creates a flusher
+     *
+     * @param name The name of the store, used for the background thread
+     * @param durability How long a mutation may stay in memory
+     * @param intervalMillis How often pending mutations are written in {@link Durability#ASYNC ASYNC} mode
+     * @param batchSize How many pending mutations trigger an early write in {@link Durability#ASYNC ASYNC} mode
+     * @param action Writes the store to its file
+     */
+    public WriteBehindFlusher(String name, Durability durability, long intervalMillis, int batchSize, Flush action) {
+        this.name = name;
+        this.durability = durability;
+        this.intervalMillis = intervalMillis;
+        this.batchSize = Math.max(1, batchSize);
+        this.action = action;
+    }
+
+    /**
+     * Starts the background thread in {@link Durability#ASYNC ASYNC} mode, until
+     * then asynchronous mutations wait for {@link #flush()} or {@link #close()}
+     * <br>
+     * Kept out of the constructor so the thread never sees a flusher that is not
+     * fully built. Calling it again does nothing
+     */
+    public synchronized void start() {
+        if (durability != Durability.ASYNC || scheduler != null) {
+            return;
+        }
+        ScheduledExecutorService background = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name + "-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        background.scheduleWithFixedDelay(this::flushQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        scheduler = background;
+    }
+
+    /**
+     * Gets the durability of this flusher
+     * @return The durability
+     */
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Records that the store has changed and, depending on the durability, writes it
+     * <br>
+     * Must not be called while holding the lock that the flush action takes
+     *
+     * @throws IOException when a synchronous write fails
+     */
+    public void commit() throws IOException {
+        long ticket;
+        synchronized (this) {
+            ticket = ++requested;
+        }
+        switch (durability) {
+            case SYNC:
+                synchronized (flushLock) {
+                    action.flush();
+                    flushed = Math.max(flushed, ticket);
+                }
+                break;
+            case GROUP:
+                synchronized (flushLock) {
+                    // A flush that started after this commit already covers it
+                    if (flushed < ticket) {
+                        flushPending();
+                    }
+                }
+                break;
+            case ASYNC:
+                ScheduledExecutorService background = scheduler;
+                if (background != null && ticket - flushed >= batchSize) {
+                    background.execute(this::flushQuietly);
+                }
+                break;
+            case NONE:
+                break;
+        }
+    }
+
+    /**
+     * Writes any pending mutations right away
+     *
+     * @throws IOException when the file cannot be written to
+     */
+    public void flush() throws IOException {
+        if (durability == Durability.NONE) {
+            return;
+        }
+        synchronized (flushLock) {
+            flushPending();
+        }
+    }
+
+    /**
+     * Stops the background thread and writes any pending mutations
+     *
+     * @throws IOException when the file cannot be written to
+     */
+    public void close() throws IOException {
+        ScheduledExecutorService background = scheduler;
+        if (background != null) {
+            background.shutdown();
+        }
+        flush();
+    }
+
+    /**
+     * Runs the flush action if any mutation is not yet covered by a flush
+     * <br>
+     * Must be called while holding the flush lock
+     *
+     * @throws IOException when the file cannot be written to
+     */
+    private void flushPending() throws IOException {
+        long target;
+        synchronized (this) {
+            target = requested;
+        }
+        if (flushed >= target) {
+            return;
+        }
+        action.flush();
+        flushed = target;
+    }
+
+    /**
+     * Flushes from the background thread, logging rather than throwing failures
+     * so that the next attempt can retry them
+     */
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.SEVERE, "Background flush failed", e);
+        }
+    }
+}
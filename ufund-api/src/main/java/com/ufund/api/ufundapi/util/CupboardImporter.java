@@ -0,0 +1,596 @@
+package com.ufund.api.ufundapi.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.ufund.api.ufundapi.model.Need;
+
+/**
+ * Imports {@linkplain Need needs} from a large CSV or JSON lines file into a
+ * cupboard file, for seeding or migrating a cupboard without the REST API
+ * <br>
+ * The input is read one chunk of records at a time. Chunks are parsed and
+ * validated in parallel, each with its own block of ids, and written to the
+ * cupboard in input order as they finish, so memory is bounded by the chunks in
+ * flight rather than the size of the input. Rows that fail validation are skipped
+ * and reported, leaving their ids unused.
+ * <br>
+ * The cupboard is written to a temporary file and moved into place, and the
+ * server must not be running while it is replaced. Run it with
+ * {@code mvn compile exec:java@import -Dexec.args="needs.csv data/cupboard.json --append"}
+ */
+public class CupboardImporter {
+    /** Records parsed by one task */
+    static final int DEFAULT_CHUNK_SIZE = 10_000;
+    /** Errors kept for the summary, the rest are only counted */
+    static final int MAX_ERRORS = 100;
+
+    /**
+     * The formats an input can be in
+     */
+    public enum Format {
+        /** Comma separated values with a header row naming the columns */
+        CSV,
+        /** One JSON need per line */
+        JSONL;
+
+        /**
+         * Picks the format from the extension of a file
+         * @param file The input file
+         * @return CSV for .csv files, JSONL otherwise
+         */
+        public static Format of(Path file) {
+            return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv") ? CSV : JSONL;
+        }
+    }
+
+    /**
+     * What an import did
+     */
+    public static class Summary {
+        private long imported;
+        private long rejected;
+        private int firstId;
+        private int lastId;
+        private final List<String> errors = new ArrayList<>();
+
+        /**
+         * Gets the number of needs added to the cupboard
+         * @return The number of imported needs
+         */
+        public long getImported() {
+            return imported;
+        }
+
+        /**
+         * Gets the number of records that failed validation
+         * @return The number of rejected records
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * Gets the lowest id given to an imported need
+         * @return The first id, 0 if nothing was imported
+         */
+        public int getFirstId() {
+            return firstId;
+        }
+
+        /**
+         * Gets the highest id given to an imported need
+         * @return The last id, 0 if nothing was imported
+         */
+        public int getLastId() {
+            return lastId;
+        }
+
+        /**
+         * Gets the reasons the first records were rejected, with their line numbers
+         * @return Up to {@value CupboardImporter#MAX_ERRORS} errors
+         */
+        public List<String> getErrors() {
+            return errors;
+        }
+    }
+
+    /**
+     * The records of one chunk, and later the needs parsed from them
+     */
+    private static class Chunk {
+        final List<String> records = new ArrayList<>();
+        final List<Integer> lines = new ArrayList<>();  // Line each record starts on
+        final List<Need> needs = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+        int firstId;                                    // Start of the block of ids for this chunk
+    }
+
+    private final ObjectMapper objectMapper;
+    private final int threads;
+    private final int chunkSize;
+
+    /**
+     * Creates an importer
+     *
+     * @param objectMapper Reads JSON lines and writes the cupboard
+     * @param threads The number of chunks parsed at once
+     * @param chunkSize The number of records per chunk
+     */
+    public CupboardImporter(ObjectMapper objectMapper, int threads, int chunkSize) {
+        this.objectMapper = objectMapper;
+        this.threads = Math.max(1, threads);
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * Imports needs from the command line
+     *
+     * @param args The input file, the cupboard file, then optionally --append to
+     *             keep the needs already in the cupboard and --threads followed by a count
+     * @throws IOException when a file cannot be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CupboardImporter <needs.csv|needs.jsonl> <cupboard.json> [--append] [--threads N]");
+            System.exit(1);
+        }
+        boolean append = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--append")) {
+                append = true;
+            } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            }
+        }
+        Path input = Path.of(args[0]);
+        CupboardImporter importer = new CupboardImporter(new ObjectMapper(), threads, DEFAULT_CHUNK_SIZE);
+        Summary summary = importer.importFile(input, Format.of(input), Path.of(args[1]), append);
+        System.out.printf("Imported %,d needs (ids %d to %d), rejected %,d%n",
+                          summary.getImported(), summary.getFirstId(), summary.getLastId(), summary.getRejected());
+        for (String error : summary.getErrors()) {
+            System.out.println(error);
+        }
+    }
+
+    /**
+     * Imports needs from a file into a cupboard file
+     * <br>
+     * When appending, the needs already in the cupboard are copied across and the
+     * new needs get ids after every id in the cupboard and its write-ahead log, so
+     * the log still applies on the next load. Otherwise the cupboard and its log
+     * are replaced
+     *
+     * @param input The file to import
+     * @param format The format of the file
+     * @param cupboard The cupboard file to write
+     * @param append true to keep the needs already in the cupboard
+     * @return What was imported
+     * @throws IOException when a file cannot be read or written, or the input has no usable header
+     */
+    public Summary importFile(Path input, Format format, Path cupboard, boolean append) throws IOException {
+        Summary summary = new Summary();
+        Path log = Path.of(cupboard + ".log");
+        Path temp = Path.of(cupboard + ".import");
+        // flushing after every need would write the file a need at a time
+        ObjectWriter writer = objectMapper.writerFor(Need.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(temp.toFile(), JsonEncoding.UTF8)) {
+            generator.writeStartArray();
+            int nextId = 1;
+            if (append) {
+                nextId = Math.max(copyNeeds(cupboard, writer, generator), maxLoggedId(log)) + 1;
+            }
+
+            int[] line = {0};
+            Map<String, Integer> columns = format == Format.CSV ? header(readRecord(reader, line)) : null;
+            Deque<Future<Chunk>> inFlight = new ArrayDeque<>();
+            Chunk chunk = new Chunk();
+            String record;
+            do {
+                int start = line[0] + 1;
+                record = format == Format.CSV ? readRecord(reader, line) : readLine(reader, line);
+                if (record != null && !record.isBlank()) {
+                    chunk.records.add(record);
+                    chunk.lines.add(start);
+                }
+                if (chunk.records.size() == chunkSize || (record == null && !chunk.records.isEmpty())) {
+                    // the block of ids is handed out in input order, before parsing
+                    chunk.firstId = nextId;
+                    nextId += chunk.records.size();
+                    Chunk parsing = chunk;
+                    inFlight.add(executor.submit(() -> parse(parsing, columns)));
+                    chunk = new Chunk();
+                    // keep a few chunks ahead of the writer but no more
+                    if (inFlight.size() > 2 * threads) {
+                        write(inFlight.poll(), writer, generator, summary);
+                    }
+                }
+            } while (record != null);
+            while (!inFlight.isEmpty()) {
+                write(inFlight.poll(), writer, generator, summary);
+            }
+            generator.writeEndArray();
+        } catch (IOException | RuntimeException | Error e) {
+            discard(temp, e);
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+
+        try {
+            FileSync.replace(temp, cupboard);
+        } catch (IOException e) {
+            discard(temp, e);
+            throw e;
+        }
+        if (!append) {
+            // the old log describes needs that were replaced, but the old cupboard
+            // needed it until the new one was safely in place
+            Files.deleteIfExists(log);
+            FileSync.forceDirectory(log.toAbsolutePath().getParent());
+        }
+        return summary;
+    }
+
+    /**
+     * Deletes a partly written cupboard after an import failed
+     *
+     * @param temp The partly written cupboard
+     * @param failure Why the import failed, collecting any failure to delete
+     */
+    private static void discard(Path temp, Throwable failure) {
+        try {
+            Files.deleteIfExists(temp);
+        } catch (IOException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Waits for a chunk to be parsed and writes its needs to the cupboard
+     *
+     * @param future The chunk being parsed
+     * @param writer Writes one need
+     * @param generator The cupboard being written
+     * @param summary Counts what was imported
+     * @throws IOException when the cupboard cannot be written or parsing failed unexpectedly
+     */
+    private static void write(Future<Chunk> future, ObjectWriter writer, JsonGenerator generator, Summary summary) throws IOException {
+        Chunk chunk;
+        try {
+            chunk = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Parsing a chunk failed", e.getCause());
+        }
+        for (Need need : chunk.needs) {
+            writer.writeValue(generator, need);
+            if (summary.imported++ == 0) {
+                summary.firstId = need.getId();
+            }
+            summary.lastId = need.getId();
+        }
+        summary.rejected += chunk.errors.size();
+        for (String error : chunk.errors) {
+            if (summary.errors.size() < MAX_ERRORS) {
+                summary.errors.add(error);
+            }
+        }
+    }
+
+    /**
+     * Parses and validates the records of a chunk, giving each record the next id of the chunk's block
+     *
+     * @param chunk The chunk to parse
+     * @param columns The position of each CSV column, null for JSON lines
+     * @return The same chunk, holding its needs and errors
+     */
+    private Chunk parse(Chunk chunk, Map<String, Integer> columns) {
+        for (int i = 0; i < chunk.records.size(); i++) {
+            int id = chunk.firstId + i;
+            try {
+                Need need = columns == null ? fromJson(chunk.records.get(i), id) : fromCsv(chunk.records.get(i), columns, id);
+                String problem = validate(need);
+                if (problem == null) {
+                    chunk.needs.add(need);
+                } else {
+                    chunk.errors.add("line " + chunk.lines.get(i) + ": " + problem);
+                }
+            } catch (IllegalArgumentException | JsonProcessingException e) {
+                chunk.errors.add("line " + chunk.lines.get(i) + ": " + e.getMessage().lines().findFirst().orElse(""));
+            }
+        }
+        chunk.records.clear(); // the raw text is no longer needed while the chunk waits to be written
+        return chunk;
+    }
+
+    /**
+     * Checks that a need can go in the cupboard
+     * <br>
+     * Bulk changes through the REST API make the same check
+     *
+     * @param need The need to check
+     * @return Why it cannot, null if it can
+     */
+    public static String validate(Need need) {
+        if (need.getName() == null || need.getName().isBlank()) {
+            return "missing name";
+        }
+        if (need.getCost() < 0) {
+            return "negative cost";
+        }
+        if (need.getQuantity() < 0) {
+            return "negative quantity";
+        }
+        return null;
+    }
+
+    /**
+     * Reads a need from one line of JSON, ignoring any id it has
+     *
+     * @param line The line
+     * @param id The id to give the need
+     * @return The need
+     * @throws JsonProcessingException if the line is not a JSON need
+     */
+    private Need fromJson(String line, int id) throws JsonProcessingException {
+        JsonNode node = objectMapper.readTree(line);
+        if (!node.isObject()) {
+            throw new IllegalArgumentException("not a JSON object");
+        }
+        return new Need(id, text(node, "name"), whole(node, "cost"), whole(node, "quantity"), text(node, "type"), text(node, "description"));
+    }
+
+    /**
+     * Gets a text field of a JSON need
+     */
+    private static String text(JsonNode node, String field) {
+        JsonNode value = node.get(field);
+        return value == null || value.isNull() ? null : value.asText();
+    }
+
+    /**
+     * Gets a required whole number field of a JSON need
+     */
+    private static int whole(JsonNode node, String field) {
+        JsonNode value = node.get(field);
+        if (value == null || !value.canConvertToInt() || !value.isIntegralNumber()) {
+            throw new IllegalArgumentException("missing or invalid " + field);
+        }
+        return value.intValue();
+    }
+
+    /**
+     * Reads a need from one CSV record
+     *
+     * @param record The record
+     * @param columns The position of each column
+     * @param id The id to give the need
+     * @return The need
+     */
+    private static Need fromCsv(String record, Map<String, Integer> columns, int id) {
+        List<String> fields = fields(record);
+        return new Need(id, field(fields, columns, "name"), number(fields, columns, "cost"), number(fields, columns, "quantity"),
+                        field(fields, columns, "type"), field(fields, columns, "description"));
+    }
+
+    /**
+     * Gets a column of a CSV record
+     */
+    private static String field(List<String> fields, Map<String, Integer> columns, String column) {
+        Integer index = columns.get(column);
+        return index == null || index >= fields.size() ? null : fields.get(index);
+    }
+
+    /**
+     * Gets a required whole number column of a CSV record
+     */
+    private static int number(List<String> fields, Map<String, Integer> columns, String column) {
+        String value = field(fields, columns, column);
+        try {
+            return Integer.parseInt(value == null ? "" : value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("missing or invalid " + column);
+        }
+    }
+
+    /**
+     * Maps the column names of a CSV header to their positions
+     *
+     * @param record The header record
+     * @return The position of each column, by lower case name
+     * @throws IOException if there is no header or it lacks a required column
+     */
+    private static Map<String, Integer> header(String record) throws IOException {
+        if (record == null) {
+            throw new IOException("The CSV input has no header row");
+        }
+        Map<String, Integer> columns = new HashMap<>();
+        List<String> names = fields(record);
+        for (int i = 0; i < names.size(); i++) {
+            columns.putIfAbsent(names.get(i).trim().toLowerCase(Locale.ROOT), i);
+        }
+        for (String required : new String[] {"name", "cost", "quantity"}) {
+            if (!columns.containsKey(required)) {
+                throw new IOException("The CSV header has no " + required + " column");
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Splits a CSV record into its fields, where a quoted field may hold commas,
+     * line breaks and doubled quotes
+     *
+     * @param record The record
+     * @return The fields, unquoted
+     */
+    static List<String> fields(String record) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < record.length(); i++) {
+            char c = record.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < record.length() && record.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * Reads one CSV record, joining lines while a quoted field is still open
+     *
+     * @param reader The input
+     * @param line Counts the lines read so far
+     * @return The record, null at the end of the input
+     * @throws IOException when the input cannot be read
+     */
+    private static String readRecord(BufferedReader reader, int[] line) throws IOException {
+        String record = readLine(reader, line);
+        if (record == null) {
+            return null;
+        }
+        while (openQuotes(record)) {
+            String next = readLine(reader, line);
+            if (next == null) {
+                break;
+            }
+            record = record + "\n" + next;
+        }
+        return record;
+    }
+
+    /**
+     * Reads one line
+     *
+     * @param reader The input
+     * @param line Counts the lines read so far
+     * @return The line, null at the end of the input
+     * @throws IOException when the input cannot be read
+     */
+    private static String readLine(BufferedReader reader, int[] line) throws IOException {
+        String text = reader.readLine();
+        if (text != null) {
+            line[0]++;
+        }
+        return text;
+    }
+
+    /**
+     * Checks whether some CSV text ends inside a quoted field
+     *
+     * @param text The text
+     * @return true if it has an odd number of quotes
+     */
+    private static boolean openQuotes(String text) {
+        boolean open = false;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '"') {
+                open = !open;
+            }
+        }
+        return open;
+    }
+
+    /**
+     * Copies the needs of an existing cupboard to the one being written, one at a time
+     *
+     * @param cupboard The existing cupboard file
+     * @param writer Writes one need
+     * @param generator The cupboard being written
+     * @return The highest id in the cupboard, 0 if it is empty or missing
+     * @throws IOException when the cupboard cannot be read or written
+     */
+    private int copyNeeds(Path cupboard, ObjectWriter writer, JsonGenerator generator) throws IOException {
+        if (!Files.exists(cupboard)) {
+            return 0;
+        }
+        int maxId = 0;
+        try (JsonParser parser = objectMapper.getFactory().createParser(cupboard.toFile())) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException(cupboard + " is not a cupboard");
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                Need need = objectMapper.readValue(parser, Need.class);
+                writer.writeValue(generator, need);
+                maxId = Math.max(maxId, need.getId());
+            }
+        }
+        return maxId;
+    }
+
+    /**
+     * Finds the highest id mentioned in a cupboard's write-ahead log
+     *
+     * @param log The log file
+     * @return The highest id, 0 if the log is empty or missing
+     * @throws IOException when the log cannot be read
+     */
+    private int maxLoggedId(Path log) throws IOException {
+        if (!Files.exists(log)) {
+            return 0;
+        }
+        int maxId = 0;
+        try (BufferedReader reader = Files.newBufferedReader(log, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    JsonNode id = objectMapper.readTree(line).get("id");
+                    if (id != null) {
+                        maxId = Math.max(maxId, id.asInt());
+                    }
+                } catch (JsonProcessingException e) {
+                    // a torn final record, which loading ignores as well
+                }
+            }
+        }
+        return maxId;
+    }
+}
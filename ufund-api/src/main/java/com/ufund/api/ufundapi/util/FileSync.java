@@ -0,0 +1,65 @@
+package com.ufund.api.ufundapi.util;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes files so that they survive a crash or a power loss
+ * <br>
+ * A file written under a temporary name and moved over the old one is only safe
+ * once both its contents and the rename have reached the storage device, so the
+ * contents are forced before the move and the directory holding it after
+ */
+public final class FileSync {
+
+    private FileSync() {
+    }
+
+    /**
+     * Forces a file's contents to the storage device
+     *
+     * @param file The file
+     *
+     * @throws IOException when the file cannot be opened or forced
+     */
+    public static void force(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Forces the entries of a directory, and so any rename into it, to the storage device
+     *
+     * @param directory The directory
+     *
+     * @throws IOException when the directory cannot be forced
+     */
+    public static void forceDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            // Windows cannot open a directory, there is nothing more to force
+        }
+    }
+
+    /**
+     * Moves a fully written file over another in one step, forcing the file first
+     * and the rename after
+     *
+     * @param temp The written file
+     * @param target The file it replaces
+     *
+     * @throws IOException when the file cannot be forced or moved
+     */
+    public static void replace(Path temp, Path target) throws IOException {
+        force(temp);
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory(target.toAbsolutePath().getParent());
+    }
+}
@@ -0,0 +1,107 @@
+package com.ufund.api.ufundapi.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import com.ufund.api.ufundapi.model.BasketNeed;
+import com.ufund.api.ufundapi.model.CheckoutResult;
+import com.ufund.api.ufundapi.model.Need;
+import com.ufund.api.ufundapi.persistence.CupboardDAO;
+import com.ufund.api.ufundapi.persistence.SessionDAO;
+import com.ufund.api.ufundapi.persistence.UserDAO;
+
+/**
+ * Test the Checkout Controller class
+ */
+@Tag("Controller-tier")
+public class CheckoutControllerTest {
+    private CheckoutController checkoutController;
+    private CupboardDAO mockCupboardDAO;
+    private UserDAO mockUserDAO;
+    private SessionDAO mockSessionDAO;
+    private ArrayList<BasketNeed> basket;
+
+    /**
+     * Before each test, create a new CheckoutController with mock DAOs and the user signed in
+     */
+    @BeforeEach
+    public void setupCheckoutController() throws IOException {
+        mockCupboardDAO = mock(CupboardDAO.class);
+        mockUserDAO = mock(UserDAO.class);
+        mockSessionDAO = mock(SessionDAO.class);
+        checkoutController = new CheckoutController(mockCupboardDAO, mockUserDAO, mockSessionDAO);
+        when(mockSessionDAO.isAuthorized(null, 1, false)).thenReturn(true);
+        basket = new ArrayList<>();
+        basket.add(new BasketNeed(new Need(4, "Honey", 10, 5, "Food", "Raw"), 2));
+    }
+
+    /**
+     * Tests that a funded basket is OK and stays empty
+     */
+    @Test
+    public void testCheckout() throws IOException {
+        CheckoutResult result = CheckoutResult.completed(basket.toArray(new BasketNeed[0]));
+        when(mockUserDAO.takeBasket(1)).thenReturn(basket);
+        when(mockCupboardDAO.checkout(1, basket)).thenReturn(result);
+
+        ResponseEntity<CheckoutResult> response = checkoutController.checkout(1);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertTrue(response.getBody().isCompleted());
+    }
+
+    /**
+     * Tests that a basket the cupboard cannot fund is a conflict and is put back
+     */
+    @Test
+    public void testCheckoutShort() throws IOException {
+        when(mockUserDAO.takeBasket(1)).thenReturn(basket);
+        when(mockCupboardDAO.checkout(1, basket)).thenReturn(CheckoutResult.rejected(new int[] {4}));
+
+        ResponseEntity<CheckoutResult> response = checkoutController.checkout(1);
+
+        assertEquals(HttpStatus.CONFLICT, response.getStatusCode());
+        assertEquals(4, response.getBody().getUnavailable()[0]);
+        verify(mockUserDAO).restoreBasket(1, basket);
+    }
+
+    /**
+     * Tests that checking out needs a signed in user with a basket that has something in it
+     */
+    @Test
+    public void testCheckoutRefused() throws IOException {
+        when(mockUserDAO.takeBasket(1)).thenReturn(new ArrayList<>());
+        assertEquals(HttpStatus.BAD_REQUEST, checkoutController.checkout(1).getStatusCode());
+
+        when(mockSessionDAO.isAuthorized(null, 2, false)).thenReturn(true);
+        when(mockUserDAO.takeBasket(2)).thenReturn(null);
+        assertEquals(HttpStatus.NOT_FOUND, checkoutController.checkout(2).getStatusCode());
+
+        assertEquals(HttpStatus.UNAUTHORIZED, checkoutController.checkout(3).getStatusCode());
+    }
+
+    /**
+     * Tests that a checkout that cannot be recorded is an internal server error and the basket is put back
+     */
+    @Test
+    public void testCheckoutHandleException() throws IOException {
+        when(mockUserDAO.takeBasket(1)).thenReturn(basket);
+        doThrow(new IOException()).when(mockCupboardDAO).checkout(1, basket);
+
+        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, checkoutController.checkout(1).getStatusCode());
+        verify(mockUserDAO).restoreBasket(1, basket);
+    }
+}
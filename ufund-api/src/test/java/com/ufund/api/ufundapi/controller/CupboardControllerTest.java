@@ -1,12 +1,20 @@
 package com.ufund.api.ufundapi.controller;
 
 import com.ufund.api.ufundapi.persistence.CupboardDAO;
+import com.ufund.api.ufundapi.persistence.NeedOrder;
 import com.ufund.api.ufundapi.persistence.SessionDAO;
+import com.ufund.api.ufundapi.persistence.UserDAO;
+import com.ufund.api.ufundapi.model.BulkResult;
 import com.ufund.api.ufundapi.model.Need;
+import com.ufund.api.ufundapi.model.TypeAggregate;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
@@ -15,6 +23,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 import org.springframework.http.HttpStatus;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.http.ResponseEntity;
 
 /**
@@ -26,6 +35,7 @@ import org.springframework.http.ResponseEntity;
 public class CupboardControllerTest {
     private CupboardController cupboardController;
     private CupboardDAO mockCupboardDAO;
+    private UserDAO mockUserDAO;
     private SessionDAO mockSessionDAO;
 
     /**
@@ -35,8 +45,9 @@ public class CupboardControllerTest {
     @BeforeEach
     public void setupCupboardController() {
         mockCupboardDAO = mock(CupboardDAO.class);
+        mockUserDAO = mock(UserDAO.class);
         mockSessionDAO = mock(SessionDAO.class);
-        cupboardController = new CupboardController(mockCupboardDAO, mockSessionDAO);
+        cupboardController = new CupboardController(mockCupboardDAO, mockUserDAO, mockSessionDAO);
     }
     
     /**
@@ -168,7 +179,7 @@ public class CupboardControllerTest {
     }
 
     /**
-     * Tests that a need can be deleted
+     * Tests that a need can be deleted, and is taken out of the baskets holding it
      */
     @Test
     public void testDeleteNeed() throws IOException {
@@ -180,6 +191,23 @@ public class CupboardControllerTest {
         ResponseEntity<Boolean> response = cupboardController.deleteNeed(id);
 
         assertEquals(HttpStatus.OK, response.getStatusCode());
+        verify(mockUserDAO).removeFromBaskets(id);
+    }
+
+    /**
+     * Tests that a deleted need that can't be taken out of the baskets is an internal server error
+     */
+    @Test
+    public void testDeleteNeedBasketsException() throws IOException {
+        int id = 99;
+
+        when(mockSessionDAO.isAuthorized(null, null, true)).thenReturn(true);
+        when(mockCupboardDAO.deleteNeed(id)).thenReturn(true);
+        doThrow(new IOException()).when(mockUserDAO).removeFromBaskets(id);
+
+        ResponseEntity<Boolean> response = cupboardController.deleteNeed(id);
+
+        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, response.getStatusCode());
     }
 
     /**
@@ -271,10 +299,10 @@ public class CupboardControllerTest {
 
         when(mockCupboardDAO.getAllNeeds()).thenReturn(result);
 
-        ResponseEntity<Need[]> response = cupboardController.getAllNeeds();
+        ResponseEntity<byte[]> response = cupboardController.getAllNeeds(null, null, null, null, null, null, null, null, null);
 
         assertEquals(HttpStatus.OK, response.getStatusCode());
-        assertEquals(result, response.getBody());
+        assertArrayEquals(new ObjectMapper().writeValueAsBytes(result), response.getBody());
     }
 
     /**
@@ -286,10 +314,47 @@ public class CupboardControllerTest {
 
         when(mockCupboardDAO.getAllNeeds()).thenReturn(result);
 
-        ResponseEntity<Need[]> response = cupboardController.getAllNeeds();
+        ResponseEntity<byte[]> response = cupboardController.getAllNeeds(null, null, null, null, null, null, null, null, null);
 
         assertEquals(HttpStatus.OK, response.getStatusCode());
-        assertEquals(result, response.getBody());
+        assertArrayEquals(new ObjectMapper().writeValueAsBytes(result), response.getBody());
+    }
+
+    /**
+     * Tests that a client already holding the current cupboard gets no body
+     */
+    @Test
+    public void testGetAllNeedsNotModified() throws IOException {
+        Need[] result = {new Need(99, "Test Need 1", 100, 12, "Example Type 1", "This is a test need 1")};
+        when(mockCupboardDAO.getVersion()).thenReturn(4L);
+        when(mockCupboardDAO.getAllNeeds()).thenReturn(result);
+
+        String etag = cupboardController.getAllNeeds(null, null, null, null, null, null, null, null, null).getHeaders().getETag();
+        ResponseEntity<byte[]> response = cupboardController.getAllNeeds(etag, null, null, null, null, null, null, null, null);
+
+        assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+        assertEquals(etag, response.getHeaders().getETag());
+        assertNull(response.getBody());
+    }
+
+    /**
+     * Tests that a new version of the cupboard is served under a new ETag
+     */
+    @Test
+    public void testGetAllNeedsVersionChanged() throws IOException {
+        Need need1 = new Need(99, "Test Need 1", 100, 12, "Example Type 1", "This is a test need 1");
+        Need need2 = new Need(100, "Test Need 2", 200, 22, "Example Type 2", "This is a test need 2");
+        when(mockCupboardDAO.getVersion()).thenReturn(1L);
+        when(mockCupboardDAO.getAllNeeds()).thenReturn(new Need[] {need1});
+        String etag = cupboardController.getAllNeeds(null, null, null, null, null, null, null, null, null).getHeaders().getETag();
+
+        when(mockCupboardDAO.getVersion()).thenReturn(2L);
+        when(mockCupboardDAO.getAllNeeds()).thenReturn(new Need[] {need1, need2});
+        ResponseEntity<byte[]> response = cupboardController.getAllNeeds(etag, null, null, null, null, null, null, null, null);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertNotEquals(etag, response.getHeaders().getETag());
+        assertArrayEquals(new ObjectMapper().writeValueAsBytes(new Need[] {need1, need2}), response.getBody());
     }
 
     /**
@@ -324,6 +389,247 @@ public class CupboardControllerTest {
         assertEquals(need, response.getBody());
     }
 
-    
+    /**
+     * Tests that the number of baskets holding a need can be gotten
+     */
+    @Test
+    public void testGetDemand() {
+        int id = 99;
+
+        when(mockCupboardDAO.getNeed(id)).thenReturn(new Need(id, "Test Need", 100, 12, "Example Type", "This is a test need"));
+        when(mockUserDAO.countBasketsWith(id)).thenReturn(3);
+
+        ResponseEntity<Integer> response = cupboardController.getDemand(id);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(Integer.valueOf(3), response.getBody());
+    }
+
+    /**
+     * Tests that the demand for a need that doesn't exist can't be gotten
+     */
+    @Test
+    public void testGetDemandDoesntExist() {
+        when(mockCupboardDAO.getNeed(99)).thenReturn(null);
+
+        ResponseEntity<Integer> response = cupboardController.getDemand(99);
+
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+    }
+
+    /**
+     * Tests that ranked search asks for the requested page
+     */
+    @Test
+    public void testSearchNeeds() {
+        Need[] result = {new Need(99, "Bee suit", 100, 12, "Gear", "This is a test need")};
+        when(mockCupboardDAO.searchNeeds("bee", 40, 20)).thenReturn(result);
+
+        ResponseEntity<Need[]> response = cupboardController.searchNeeds("bee", 2, 20);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(result, response.getBody());
+    }
+
+    /**
+     * Tests that ranked search rejects a page size out of range
+     */
+    @Test
+    public void testSearchNeedsBadPage() {
+        assertEquals(HttpStatus.BAD_REQUEST, cupboardController.searchNeeds("bee", 0, 0).getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, cupboardController.searchNeeds("bee", -1, 20).getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, cupboardController.searchNeeds("bee", 0, CupboardController.MAX_PAGE_SIZE + 1).getStatusCode());
+    }
+
+    /**
+     * Tests that fuzzy search passes the distance on
+     */
+    @Test
+    public void testFuzzySearchNeeds() {
+        Need[] result = {new Need(99, "Honey", 100, 12, "Food", "This is a test need")};
+        when(mockCupboardDAO.fuzzySearchNeeds("honney", -1)).thenReturn(result);
+
+        ResponseEntity<Need[]> response = cupboardController.fuzzySearchNeeds("honney", -1);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(result, response.getBody());
+    }
+
+    /**
+     * Tests that fuzzy search rejects too large a distance
+     */
+    @Test
+    public void testFuzzySearchNeedsBadDistance() {
+        ResponseEntity<Need[]> response = cupboardController.fuzzySearchNeeds("honney", CupboardController.MAX_EDIT_DISTANCE + 1);
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+    }
+
+    /**
+     * Tests that autocomplete passes the prefix and limit on
+     */
+    @Test
+    public void testAutocompleteNeeds() {
+        Need[] result = {new Need(99, "Honey", 100, 12, "Food", "This is a test need")};
+        when(mockCupboardDAO.autocompleteNeeds("ho", 5)).thenReturn(result);
+
+        ResponseEntity<Need[]> response = cupboardController.autocompleteNeeds("ho", 5);
 
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(result, response.getBody());
+    }
+
+    /**
+     * Tests that autocomplete rejects a limit out of range
+     */
+    @Test
+    public void testAutocompleteNeedsBadLimit() {
+        assertEquals(HttpStatus.BAD_REQUEST, cupboardController.autocompleteNeeds("ho", 0).getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, cupboardController.autocompleteNeeds("ho", CupboardController.MAX_COMPLETIONS + 1).getStatusCode());
+    }
+
+    /**
+     * Tests that a page of the cupboard carries the cursor of the next page
+     */
+    @Test
+    public void testGetNeedsPage() throws IOException {
+        Need need1 = new Need(1, "Test Need 1", 100, 12, "Example Type 1", "This is a test need 1");
+        Need need2 = new Need(2, "Test Need 2", 200, 22, "Example Type 2", "This is a test need 2");
+        when(mockCupboardDAO.getNeedsPage(Integer.MIN_VALUE, 2)).thenReturn(new Need[] {need1, need2});
+        when(mockCupboardDAO.getNeedsPage(1, 2)).thenReturn(new Need[] {need2});
+
+        ResponseEntity<byte[]> response = cupboardController.getAllNeeds(null, 1, null, null, null, null, null, null, null);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertArrayEquals(new ObjectMapper().writeValueAsBytes(new Need[] {need1}), response.getBody());
+        assertEquals("1", response.getHeaders().getFirst(CupboardController.NEXT_CURSOR));
+
+        response = cupboardController.getAllNeeds(null, 1, 1, null, null, null, null, null, null);
+        assertArrayEquals(new ObjectMapper().writeValueAsBytes(new Need[] {need2}), response.getBody());
+        assertNull(response.getHeaders().getFirst(CupboardController.NEXT_CURSOR));
+    }
+
+    /**
+     * Tests that a page size out of range is rejected
+     */
+    @Test
+    public void testGetNeedsPageBadLimit() {
+        assertEquals(HttpStatus.BAD_REQUEST, cupboardController.getAllNeeds(null, 0, null, null, null, null, null, null, null).getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, cupboardController.getAllNeeds(null, CupboardController.MAX_PAGE_SIZE + 1, null, null, null, null, null, null, null).getStatusCode());
+    }
+
+    /**
+     * Tests that filters and a sort order are handed to the cupboard's query
+     */
+    @Test
+    public void testQueryNeeds() throws IOException {
+        Need need1 = new Need(1, "Test Need 1", 40, 12, "Food", "This is a test need 1");
+        Need need2 = new Need(2, "Test Need 2", 20, 22, "Food", "This is a test need 2");
+        when(mockCupboardDAO.queryNeeds("Food", Integer.MIN_VALUE, 50, 10, Integer.MAX_VALUE, NeedOrder.COST_DESC, Integer.MAX_VALUE))
+            .thenReturn(new Need[] {need1, need2});
+
+        ResponseEntity<byte[]> response = cupboardController.getAllNeeds(null, null, null, "Food", null, 50, 10, null, "-cost");
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertArrayEquals(new ObjectMapper().writeValueAsBytes(new Need[] {need1, need2}), response.getBody());
+    }
+
+    /**
+     * Tests that an unknown sort order or a cursor with filters is rejected
+     */
+    @Test
+    public void testQueryNeedsBadRequest() {
+        assertEquals(HttpStatus.BAD_REQUEST, cupboardController.getAllNeeds(null, null, null, null, null, null, null, null, "price").getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, cupboardController.getAllNeeds(null, 10, 3, "Food", null, null, null, null, null).getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, cupboardController.getAllNeeds(null, 0, null, "Food", null, null, null, null, null).getStatusCode());
+    }
+
+    /**
+     * Tests that the totals per type come straight from the cupboard
+     */
+    @Test
+    public void testGetAggregates() {
+        TypeAggregate[] aggregates = {new TypeAggregate("Food", 2, 55, 650)};
+        when(mockCupboardDAO.getAggregates()).thenReturn(aggregates);
+
+        ResponseEntity<TypeAggregate[]> response = cupboardController.getAggregates();
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(aggregates, response.getBody());
+    }
+
+    /**
+     * Tests that an applied bulk change is OK with the result of each item
+     */
+    @Test
+    public void testCreateNeeds() throws IOException {
+        when(mockSessionDAO.isAuthorized(null, null, true)).thenReturn(true);
+        Need need = new Need(1, "Test Need 1", 100, 12, "Example Type 1", "This is a test need 1");
+        Need[] needs = {need};
+        BulkResult[] results = {new BulkResult(0, 1, BulkResult.Outcome.CREATED, need)};
+        when(mockCupboardDAO.createNeeds(needs)).thenReturn(results);
+
+        ResponseEntity<BulkResult[]> response = cupboardController.createNeeds(needs);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(results, response.getBody());
+    }
+
+    /**
+     * Tests that a rejected bulk change is a bad request that still reports each item
+     */
+    @Test
+    public void testUpdateNeedsRejected() throws IOException {
+        when(mockSessionDAO.isAuthorized(null, null, true)).thenReturn(true);
+        Need[] needs = {new Need(1, "Test Need 1", 100, 12, "Example Type 1", "This is a test need 1")};
+        BulkResult[] results = {new BulkResult(0, 1, BulkResult.Outcome.NOT_FOUND, null)};
+        when(mockCupboardDAO.updateNeeds(needs)).thenReturn(results);
+
+        ResponseEntity<BulkResult[]> response = cupboardController.updateNeeds(needs);
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertEquals(results, response.getBody());
+    }
+
+    /**
+     * Tests that needs deleted in bulk are taken out of the baskets holding them
+     */
+    @Test
+    public void testDeleteNeeds() throws IOException {
+        when(mockSessionDAO.isAuthorized(null, null, true)).thenReturn(true);
+        int[] ids = {1, 2};
+        BulkResult[] results = {new BulkResult(0, 1, BulkResult.Outcome.DELETED, null),
+                                new BulkResult(1, 2, BulkResult.Outcome.DELETED, null)};
+        when(mockCupboardDAO.deleteNeeds(ids)).thenReturn(results);
+
+        ResponseEntity<BulkResult[]> response = cupboardController.deleteNeeds(ids);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        verify(mockUserDAO).removeFromBaskets(1);
+        verify(mockUserDAO).removeFromBaskets(2);
+    }
+
+    /**
+     * Tests that bulk deletes need an admin and are capped in size
+     */
+    @Test
+    public void testDeleteNeedsRefused() throws IOException {
+        when(mockSessionDAO.isAuthorized(null, null, true)).thenReturn(false);
+        assertEquals(HttpStatus.UNAUTHORIZED, cupboardController.deleteNeeds(new int[] {1}).getStatusCode());
+
+        when(mockSessionDAO.isAuthorized(null, null, true)).thenReturn(true);
+        ResponseEntity<BulkResult[]> response = cupboardController.deleteNeeds(new int[CupboardController.MAX_BULK_SIZE + 1]);
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+    }
+
+    /**
+     * Tests that a bulk change that cannot be written is an internal server error
+     */
+    @Test
+    public void testDeleteNeedsHandleException() throws IOException {
+        when(mockSessionDAO.isAuthorized(null, null, true)).thenReturn(true);
+        int[] ids = {1};
+        doThrow(new IOException()).when(mockCupboardDAO).deleteNeeds(ids);
+
+        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, cupboardController.deleteNeeds(ids).getStatusCode());
+    }
 }
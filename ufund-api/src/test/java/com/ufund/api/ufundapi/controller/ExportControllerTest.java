@@ -0,0 +1,165 @@
+package com.ufund.api.ufundapi.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ufund.api.ufundapi.model.BasketNeed;
+import com.ufund.api.ufundapi.model.Need;
+import com.ufund.api.ufundapi.model.User;
+import com.ufund.api.ufundapi.persistence.CupboardDAO;
+import com.ufund.api.ufundapi.persistence.SessionDAO;
+import com.ufund.api.ufundapi.persistence.UserDAO;
+
+/**
+ * Test the Export Controller class
+ */
+@Tag("Controller-tier")
+public class ExportControllerTest {
+    private ExportController exportController;
+    private CupboardDAO mockCupboardDAO;
+    private UserDAO mockUserDAO;
+    private SessionDAO mockSessionDAO;
+
+    /**
+     * Before each test, create a new ExportController with mock DAOs and an admin signed in
+     */
+    @BeforeEach
+    public void setupExportController() throws IOException {
+        mockCupboardDAO = mock(CupboardDAO.class);
+        mockUserDAO = mock(UserDAO.class);
+        mockSessionDAO = mock(SessionDAO.class);
+        exportController = new ExportController(mockCupboardDAO, mockUserDAO, mockSessionDAO, new ObjectMapper());
+        when(mockSessionDAO.isAuthorized(null, null, true)).thenReturn(true);
+    }
+
+    /**
+     * Writes a streamed response body
+     *
+     * @param response The response to render
+     * @return The bytes that were written
+     */
+    private static byte[] render(ResponseEntity<StreamingResponseBody> response) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.getBody().writeTo(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Creates a user with one need in their basket
+     */
+    private static User helper(int id, String userName, Need need, int count) {
+        ArrayList<BasketNeed> basket = new ArrayList<>();
+        basket.add(new BasketNeed(need, count));
+        return new User(id, userName, "secret", false, basket, new ArrayList<>());
+    }
+
+    /**
+     * Tests that needs are exported as CSV with a header and quoted fields
+     */
+    @Test
+    public void testExportNeedsCsv() throws IOException {
+        when(mockCupboardDAO.getAllNeeds()).thenReturn(new Need[] {
+            new Need(1, "Honey", 10, 5, "Food", "Raw, \"local\""),
+            new Need(2, "Wax", 5, 1, "Gear", null)
+        });
+
+        ResponseEntity<StreamingResponseBody> response = exportController.exportNeeds("csv", false);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("id,name,cost,quantity,type,description\r\n"
+                     + "1,Honey,10,5,Food,\"Raw, \"\"local\"\"\"\r\n"
+                     + "2,Wax,5,1,Gear,\r\n",
+                     new String(render(response), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Tests that users are exported as JSON lines without their credentials
+     */
+    @Test
+    public void testExportUsersJsonLines() throws IOException {
+        Need honey = new Need(1, "Honey", 10, 5, "Food", "Raw");
+        when(mockUserDAO.streamUsers()).thenReturn(Stream.of(helper(1, "bee", honey, 3), helper(2, "wasp", honey, 2)));
+
+        ResponseEntity<StreamingResponseBody> response = exportController.exportUsers("jsonl", false);
+
+        String body = new String(render(response), StandardCharsets.UTF_8);
+        assertEquals("{\"id\":1,\"userName\":\"bee\",\"restricted\":false,\"basketLines\":1,\"basketItems\":3}\n"
+                     + "{\"id\":2,\"userName\":\"wasp\",\"restricted\":false,\"basketLines\":1,\"basketItems\":2}\n", body);
+        assertFalse(body.contains("secret"));
+    }
+
+    /**
+     * Tests that baskets are exported one line per need per user, with the needs
+     * as the cupboard has them now, and can be gzipped
+     */
+    @Test
+    public void testExportBasketsGzip() throws IOException {
+        Need honey = new Need(1, "Honey", 8, 5, "Food", "Raw");
+        when(mockUserDAO.streamUsers()).thenReturn(Stream.of(helper(1, "bee", honey, 3), helper(2, "wasp", honey, 2),
+                                                             helper(3, "ant", new Need(9, "Gone", 1, 0, "Food", ""), 1)));
+        when(mockCupboardDAO.getNeed(1)).thenReturn(new Need(1, "Honey", 10, 5, "Food", "Raw"));
+
+        ResponseEntity<StreamingResponseBody> response = exportController.exportBaskets("CSV", true);
+
+        assertEquals(ExportController.GZIP, response.getHeaders().getContentType());
+        byte[] body;
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(render(response)))) {
+            body = in.readAllBytes();
+        }
+        assertEquals("userId,userName,needId,needName,cost,count\r\n"
+                     + "1,bee,1,Honey,10,3\r\n"
+                     + "2,wasp,1,Honey,10,2\r\n"
+                     + "3,ant,9,,,1\r\n",
+                     new String(body, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Tests that exports need an admin and a known format
+     */
+    @Test
+    public void testExportRefused() throws IOException {
+        assertEquals(HttpStatus.BAD_REQUEST, exportController.exportNeeds("xml", false).getStatusCode());
+
+        when(mockSessionDAO.isAuthorized(null, null, true)).thenReturn(false);
+        assertEquals(HttpStatus.UNAUTHORIZED, exportController.exportUsers("csv", false).getStatusCode());
+    }
+
+    /**
+     * Tests that an export whose users cannot be read is an internal server error
+     */
+    @Test
+    public void testExportHandleException() throws IOException {
+        doThrow(new IOException()).when(mockUserDAO).streamUsers();
+
+        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, exportController.exportUsers("jsonl", false).getStatusCode());
+    }
+
+    /**
+     * Tests that fields are quoted only when they need to be
+     */
+    @Test
+    public void testCsvField() {
+        assertEquals("plain", ExportController.csvField("plain"));
+        assertEquals("\"two\nlines\"", ExportController.csvField("two\nlines"));
+        assertEquals("", ExportController.csvField(null));
+    }
+}
@@ -242,8 +242,7 @@ public class SessionControllerTest {
         Session session = new Session(id, username, 12345);
 
         when(mockUserDAO.getUserByName(username)).thenReturn(user);
-        when(mockSessionDAO.createSession(id, username)).thenReturn(session);
-        when(mockSessionDAO.updateSession(session)).thenReturn(session);
+        when(mockSessionDAO.refreshSession(id, username)).thenReturn(session);
 
         ResponseEntity<Session> response = sessionController.validateSession(username);
 
@@ -275,11 +274,9 @@ public class SessionControllerTest {
         String password = "a";
         ArrayList<String> security = new ArrayList<String>();
         User user = new User(id, username,password,security);
-        Session session = new Session(id, username, 12345);
 
         when(mockUserDAO.getUserByName(username)).thenReturn(user);
-        when(mockSessionDAO.createSession(id, username)).thenReturn(session);
-        doThrow(new IOException()).when(mockSessionDAO).updateSession(session);
+        doThrow(new IOException()).when(mockSessionDAO).refreshSession(id, username);
 
         ResponseEntity<Session> response = sessionController.validateSession(username);
 
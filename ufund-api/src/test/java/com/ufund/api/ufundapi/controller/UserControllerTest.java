@@ -1,5 +1,6 @@
 package com.ufund.api.ufundapi.controller;
 
+import com.ufund.api.ufundapi.persistence.CupboardDAO;
 import com.ufund.api.ufundapi.persistence.UserDAO;
 import com.ufund.api.ufundapi.persistence.SessionDAO;
 import com.ufund.api.ufundapi.model.BasketNeed;
@@ -10,19 +11,27 @@ import com.ufund.api.ufundapi.model.User;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.AdditionalAnswers.returnsFirstArg;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.stream.Stream;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * Test the User Controller class
@@ -34,16 +43,31 @@ public class UserControllerTest {
     private UserController userController;
     private UserDAO mockUserDAO;
     private SessionDAO mockSessionDAO;
+    private CupboardDAO mockCupboardDAO;
 
     /**
      * Before each test, create a new userController object and inject
      * a mock User DAO
      */
+    /**
+     * Writes a streamed response body and reads the users back from it
+     * 
+     * @param response The response to render
+     * @return The users that were written
+     */
+    private User[] render(ResponseEntity<StreamingResponseBody> response) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.getBody().writeTo(out);
+        return new ObjectMapper().readValue(out.toByteArray(), User[].class);
+    }
+
     @BeforeEach
     public void setupUserController() {
         mockUserDAO = mock(UserDAO.class);
         mockSessionDAO = mock(SessionDAO.class);
-        userController = new UserController(mockUserDAO, mockSessionDAO);
+        mockCupboardDAO = mock(CupboardDAO.class);
+        when(mockCupboardDAO.holdNeed(anyInt(), anyInt(), anyInt())).thenReturn(true);
+        userController = new UserController(mockUserDAO, mockSessionDAO, mockCupboardDAO);
     }
     
     /**
@@ -112,6 +136,26 @@ public class UserControllerTest {
         assertEquals(user, response.getBody());
     }
 
+    /**
+     * Tests that a user is sent with the needs in its basket filled in from the cupboard
+     */
+    @Test
+    public void testGetUserJoinsBasket() throws IOException {
+        ArrayList<String> security = new ArrayList<String>();
+        User user = new User(1, "JohnDoe","abc",security);
+        Need need = new Need(4, "Honey", 10, 0, "Food", "Raw");
+        user.addNeed(need);
+
+        when(mockSessionDAO.isAuthorized(null, user.getUserName(), true)).thenReturn(true);
+        when(mockUserDAO.getUser(user.getId())).thenReturn(user);
+        when(mockCupboardDAO.getNeed(need.getId())).thenReturn(need);
+
+        ResponseEntity<User> response = userController.getUser(user.getId());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(need, response.getBody().getBasket().get(0).getNeed());
+    }
+
     /**
      * Tests if a user can't be get when unauthorized
      */
@@ -177,12 +221,40 @@ public class UserControllerTest {
 
         when(mockSessionDAO.isAuthorized(null, null, true)).thenReturn(true);
 
-        when(mockUserDAO.getAllUsers()).thenReturn(users);
+        when(mockUserDAO.streamUsers()).thenReturn(Stream.of(users));
 
-        ResponseEntity<User[]> response = userController.getAllUsers();
+        ResponseEntity<StreamingResponseBody> response = userController.getAllUsers(null, null);
 
         assertEquals(HttpStatus.OK, response.getStatusCode());
-        assertEquals(users, response.getBody());
+        User[] written = render(response);
+        assertEquals(users.length, written.length);
+        for (int i = 0; i < users.length; i++) {
+            assertEquals(users[i].getId(), written[i].getId());
+            assertEquals(users[i].getUserName(), written[i].getUserName());
+        }
+    }
+
+    /**
+     * Tests that every streamed user has its basket joined against the cupboard
+     */
+    @Test
+    public void testGetAllUsersJoinsBasket() throws IOException {
+        ArrayList<String> security = new ArrayList<String>();
+        User user = new User(1, "JohnDoe","password",security);
+        Need need = new Need(4, "Honey", 10, 0, "Food", "Raw");
+        user.addNeed(need);
+
+        when(mockSessionDAO.isAuthorized(null, null, true)).thenReturn(true);
+        when(mockUserDAO.streamUsers()).thenReturn(Stream.of(user));
+        when(mockCupboardDAO.getNeed(need.getId())).thenReturn(need);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        userController.getAllUsers(null, null).getBody().writeTo(out);
+
+        // read as a tree, since a user read back keeps only the ids in its basket
+        JsonNode joined = new ObjectMapper().readTree(out.toByteArray()).get(0).get("basket").get(0).get("need");
+        assertEquals(need.getId(), joined.get("id").asInt());
+        assertEquals("Honey", joined.get("name").asText());
     }
 
     /**
@@ -192,9 +264,9 @@ public class UserControllerTest {
     public void testGetAllUsersIOException() throws IOException {
         when(mockSessionDAO.isAuthorized(null, null, true)).thenReturn(true);
 
-        doThrow(new IOException()).when(mockUserDAO).getAllUsers();
+        doThrow(new IOException()).when(mockUserDAO).streamUsers();
 
-        ResponseEntity<User[]> response = userController.getAllUsers();
+        ResponseEntity<StreamingResponseBody> response = userController.getAllUsers(null, null);
 
         assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, response.getStatusCode());
     }
@@ -207,12 +279,47 @@ public class UserControllerTest {
 
         when(mockSessionDAO.isAuthorized(null, null, false)).thenReturn(false);
 
-        ResponseEntity<User[]> response = userController.getAllUsers();
+        ResponseEntity<StreamingResponseBody> response = userController.getAllUsers(null, null);
 
         assertEquals(HttpStatus.UNAUTHORIZED, response.getStatusCode());
         assertEquals(null, response.getBody());
     }
 
+    /**
+     * Tests that a page of users carries the cursor of the next page
+     */
+    @Test
+    public void testGetUsersPage() throws IOException {
+        ArrayList<String> security = new ArrayList<String>();
+        User user1 = new User(1, "JohnDoe","password",security);
+        User user2 = new User(2, "JohnDough","hoid",security);
+        User user3 = new User(3, "JaneDoe","pw",security);
+
+        when(mockSessionDAO.isAuthorized(null, null, true)).thenReturn(true);
+        when(mockUserDAO.getUsersPage(Integer.MIN_VALUE, 3)).thenReturn(new User[] {user1, user2, user3});
+        when(mockUserDAO.getUsersPage(2, 3)).thenReturn(new User[] {user3});
+
+        ResponseEntity<StreamingResponseBody> response = userController.getAllUsers(2, null);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(2, render(response).length);
+        assertEquals("2", response.getHeaders().getFirst(UserController.NEXT_CURSOR));
+
+        response = userController.getAllUsers(2, 2);
+        assertEquals(1, render(response).length);
+        assertEquals(null, response.getHeaders().getFirst(UserController.NEXT_CURSOR));
+    }
+
+    /**
+     * Tests that a page size out of range is rejected
+     */
+    @Test
+    public void testGetUsersPageBadLimit() throws IOException {
+        when(mockSessionDAO.isAuthorized(null, null, true)).thenReturn(true);
+
+        assertEquals(HttpStatus.BAD_REQUEST, userController.getAllUsers(0, null).getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, userController.getAllUsers(UserController.MAX_PAGE_SIZE + 1, null).getStatusCode());
+    }
+
     /**
      * Tests if all users can be get when empty
      */
@@ -222,12 +329,12 @@ public class UserControllerTest {
 
         when(mockSessionDAO.isAuthorized(null, null, true)).thenReturn(true);
 
-        when(mockUserDAO.getAllUsers()).thenReturn(users);
+        when(mockUserDAO.streamUsers()).thenReturn(Stream.of(users));
 
-        ResponseEntity<User[]> response = userController.getAllUsers();
+        ResponseEntity<StreamingResponseBody> response = userController.getAllUsers(null, null);
 
         assertEquals(HttpStatus.OK, response.getStatusCode());
-        assertEquals(users, response.getBody());
+        assertEquals(0, render(response).length);
     }
 
     /**
@@ -481,11 +588,38 @@ public class UserControllerTest {
 
         when(mockUserDAO.getUser(user.getId())).thenReturn(user);
         when(mockUserDAO.getBasket(user.getId())).thenReturn(user.getBasket());
+        when(mockCupboardDAO.getNeed(need.getId())).thenReturn(need);
+
+        ResponseEntity<ArrayList<BasketNeed>> response = userController.getBasket(user.getId());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(1, response.getBody().size());
+        assertEquals(need, response.getBody().get(0).getNeed());
+        assertEquals(1, response.getBody().get(0).getCount());
+    }
+
+    /**
+     * Tests that a user's basket shows its needs as the cupboard has them now,
+     * leaving out needs that have been deleted
+     */
+    @Test
+    public void testGetBasketJoinsCupboard() throws IOException {
+        User user = new User(1, "JohnDoe", "hijn", new ArrayList<String>());
+        user.addNeed(new Need(4, "Honey", 10, 0, "Food", "Raw"));
+        user.addNeed(new Need(5, "Wax", 5, 0, "Gear", ""));
+        Need repriced = new Need(4, "Honey", 12, 3, "Food", "Raw");
+
+        when(mockSessionDAO.isAuthorized(null, user.getId(), false)).thenReturn(true);
+        when(mockUserDAO.getBasket(user.getId())).thenReturn(user.getBasket());
+        when(mockCupboardDAO.getNeed(4)).thenReturn(repriced);
+        when(mockCupboardDAO.getNeed(5)).thenReturn(null);
 
         ResponseEntity<ArrayList<BasketNeed>> response = userController.getBasket(user.getId());
 
         assertEquals(HttpStatus.OK, response.getStatusCode());
-        assertEquals(user.getBasket(), response.getBody());
+        assertEquals(1, response.getBody().size());
+        assertEquals(repriced, response.getBody().get(0).getNeed());
+        assertEquals(4, response.getBody().get(0).getNeedId());
     }
 
     /**
@@ -623,6 +757,29 @@ public class UserControllerTest {
         assertEquals(null, response.getBody());
     }
 
+    /**
+     * Tests that a need that cannot be held is not added to the basket
+     */
+    @Test
+    public void testAddNeedNotHeld() throws IOException {
+        ArrayList<String> security = new ArrayList<String>();
+        User user = new User(1, "JohnDoe","huijn",security);
+        Need need = new Need(4, "Honey", 10, 10, "Food", "Raw");
+
+        when(mockSessionDAO.isAuthorized(null, user.getId(), false)).thenReturn(true);
+        when(mockUserDAO.getUser(user.getId())).thenReturn(user);
+        when(mockCupboardDAO.holdNeed(user.getId(), need.getId(), 1)).thenReturn(false);
+        when(mockUserDAO.addNeed(user.getId(), need)).thenReturn(user);
+
+        ResponseEntity<User> response = userController.addNeed(user.getId(), need);
+
+        assertEquals(HttpStatus.CONFLICT, response.getStatusCode());
+
+        when(mockUserDAO.needExists(user.getId(), need)).thenReturn(true);
+        when(mockCupboardDAO.holdNeed(user.getId(), need.getId(), 3)).thenReturn(false);
+        assertEquals(HttpStatus.CONFLICT, userController.editCount(user.getId(), 3, need).getStatusCode());
+    }
+
     /**
      * Tests if a adding a need to a user's basket that was not found
      */
@@ -667,6 +824,27 @@ public class UserControllerTest {
         ResponseEntity<User> response = userController.addNeed(user.getId(), need2);
 
         assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, response.getStatusCode());
+        verify(mockCupboardDAO).releaseHold(user.getId(), need2.getId());
+    }
+
+    /**
+     * Tests that a need held for a user who is gone by the time it is added is let go
+     */
+    @Test
+    public void testAddNeedUserGone() throws IOException {
+        ArrayList<String> security = new ArrayList<String>();
+        User user = new User(1, "JohnDoe","jkn",security);
+        Need need = new Need(1, null, 0, 0, null, null);
+
+        when(mockSessionDAO.isAuthorized(null, user.getId(), false)).thenReturn(true);
+        when(mockUserDAO.getUser(user.getId())).thenReturn(user);
+        when(mockUserDAO.addNeed(user.getId(), need)).thenReturn(null);
+
+        ResponseEntity<User> response = userController.addNeed(user.getId(), need);
+
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+        assertEquals(null, response.getBody());
+        verify(mockCupboardDAO).releaseHold(user.getId(), need.getId());
     }
 
     /**
@@ -694,6 +872,28 @@ public class UserControllerTest {
         assertEquals(user, response.getBody());
     }
 
+    /**
+     * Tests that a count held for a user who is gone by the time it is changed is let go
+     */
+    @Test
+    public void testEditCountUserGone() throws IOException {
+        ArrayList<String> security = new ArrayList<String>();
+        User user = new User(1, "JohnDoe","bhn",security);
+        Need need = new Need(0, null, 0, 0, null, null);
+        user.addNeed(need);
+
+        when(mockSessionDAO.isAuthorized(null, user.getId(), false)).thenReturn(true);
+        when(mockUserDAO.getUser(user.getId())).thenReturn(user);
+        when(mockUserDAO.needExists(user.getId(), need)).thenReturn(true);
+        when(mockUserDAO.editCount(user.getId(), need, 3)).thenReturn(null);
+
+        ResponseEntity<User> response = userController.editCount(user.getId(), 3, need);
+
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+        assertEquals(null, response.getBody());
+        verify(mockCupboardDAO).releaseHold(user.getId(), need.getId());
+    }
+
     /**
      * Tests that a user's basket cant have needs' counts edited if the need doesnt exist
      */
@@ -769,7 +969,8 @@ public class UserControllerTest {
     }
 
     /**
-     * Tests that a user's basket cant have needs' counts edited if an IO exception is thrown
+     * Tests that a user's basket cant have needs' counts edited if an IO exception is thrown,
+     * and that the hold goes back to the count the basket had
      */
     @Test
     public void testEditCountIOException() throws IOException {
@@ -785,11 +986,12 @@ public class UserControllerTest {
         when(mockUserDAO.getUser(user.getId())).thenReturn(user);
         when(mockUserDAO.getBasket(user.getId())).thenReturn(user.getBasket());
         when(mockUserDAO.needExists(user.getId(), need)).thenReturn(true);
-        doThrow(new IOException()).when(mockUserDAO).editCount(user.getId(), need, 1);
+        doThrow(new IOException()).when(mockUserDAO).editCount(user.getId(), need, 3);
 
-        ResponseEntity<User> response = userController.editCount(user.getId(), 1, need);
+        ResponseEntity<User> response = userController.editCount(user.getId(), 3, need);
 
         assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, response.getStatusCode());
+        verify(mockCupboardDAO).holdNeed(user.getId(), need.getId(), 1);
     }
     
     /**
@@ -1,10 +1,15 @@
 package com.ufund.api.ufundapi.model;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
 
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 @Tag("Model-tier")
 public class BasketNeedTest {
     /**
@@ -21,6 +26,39 @@ public class BasketNeedTest {
         assertEquals(count, basketNeed.getCount());
     }
 
+    /**
+     * Tests that a basket need stores only the id of its need and can be joined
+     * with the need again
+     */
+    @Test
+    public void testReferenceAndJoin(){
+        Need need = new Need(4, "Honey", 10, 0, "Food", "Raw");
+        BasketNeed reference = new BasketNeed(need, 2).reference();
+
+        assertEquals(4, reference.getNeedId());
+        assertNull(reference.getNeed());
+        assertEquals(2, reference.getCount());
+
+        BasketNeed joined = reference.join(need);
+        assertEquals(need, joined.getNeed());
+        assertEquals(2, joined.getCount());
+    }
+
+    /**
+     * Tests that a basket need is written as its need id and count, and that
+     * lines written with the whole need still read
+     */
+    @Test
+    public void testJson() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+
+        assertEquals("{\"needId\":4,\"count\":2}", mapper.writeValueAsString(new BasketNeed(4, 2)));
+        BasketNeed old = mapper.readValue("{\"need\":{\"id\":7,\"name\":\"Wax\",\"cost\":5,\"quantity\":0,\"type\":\"Gear\",\"description\":\"\"},\"count\":3}",
+                                          BasketNeed.class);
+        assertEquals(7, old.getNeedId());
+        assertEquals(3, old.getCount());
+    }
+
     /**
      * Tests if a need's parameters can be successfully set
      */
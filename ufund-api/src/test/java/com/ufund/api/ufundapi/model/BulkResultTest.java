@@ -0,0 +1,36 @@
+package com.ufund.api.ufundapi.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("Model-tier")
+public class BulkResultTest {
+    /**
+     * Tests if the result of an item can be successfully created
+     */
+    @Test
+    public void testCreateBulkResult(){
+        Need need = new Need(7, "Test need", 100, 10, "Example type", "A need created for testing purposes");
+        BulkResult result = new BulkResult(2, 7, BulkResult.Outcome.CREATED, need);
+
+        assertEquals(2, result.getIndex());
+        assertEquals(7, result.getId());
+        assertEquals(BulkResult.Outcome.CREATED, result.getOutcome());
+        assertEquals(need, result.getNeed());
+    }
+
+    /**
+     * Tests that only created, updated and deleted items count as applied
+     */
+    @Test
+    public void testIsApplied(){
+        assertTrue(new BulkResult(0, 1, BulkResult.Outcome.UPDATED, null).isApplied());
+        assertTrue(new BulkResult(0, 1, BulkResult.Outcome.DELETED, null).isApplied());
+        assertFalse(new BulkResult(0, 1, BulkResult.Outcome.NOT_APPLIED, null).isApplied());
+        assertFalse(new BulkResult(0, 1, BulkResult.Outcome.NOT_FOUND, null).isApplied());
+    }
+}
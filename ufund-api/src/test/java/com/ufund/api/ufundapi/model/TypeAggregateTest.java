@@ -0,0 +1,32 @@
+package com.ufund.api.ufundapi.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("Model-tier")
+public class TypeAggregateTest {
+    /**
+     * Tests if the totals for a type can be successfully created
+     */
+    @Test
+    public void testCreateTypeAggregate(){
+        TypeAggregate aggregate = new TypeAggregate("Food", 3, 40, 1200);
+
+        assertEquals("Food", aggregate.getType());
+        assertEquals(3, aggregate.getNeeds());
+        assertEquals(40, aggregate.getTotalQuantity());
+        assertEquals(1200, aggregate.getTotalValue());
+    }
+
+    /**
+     * Tests the string form of the totals
+     */
+    @Test
+    public void testToString(){
+        TypeAggregate aggregate = new TypeAggregate("Food", 3, 40, 1200);
+
+        assertEquals("TypeAggregate [type=Food, needs=3, totalQuantity=40, totalValue=1200]", aggregate.toString());
+    }
+}
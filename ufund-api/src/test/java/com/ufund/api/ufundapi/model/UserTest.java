@@ -3,11 +3,15 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 @Tag("Model-tier")
 public class UserTest {
     @Test
@@ -186,4 +190,68 @@ public class UserTest {
         assertFalse(result);
     }
 
+    /**
+     * Tests that a basket written with whole needs still reads, in the order the
+     * needs were added, with repeated needs added together, and is written back
+     * as need ids and counts
+     */
+    @Test
+    public void testBasketJson() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        String json = "{\"id\":1,\"userName\":\"bee\",\"password\":\"pw\",\"security\":[],\"restricted\":false,\"basket\":["
+                    + "{\"need\":{\"id\":7,\"name\":\"Wax\",\"cost\":5,\"quantity\":0,\"type\":\"Gear\",\"description\":\"\"},\"count\":2},"
+                    + "{\"need\":{\"id\":3,\"name\":\"Honey\",\"cost\":10,\"quantity\":0,\"type\":\"Food\",\"description\":\"\"},\"count\":1},"
+                    + "{\"need\":{\"id\":7,\"name\":\"Wax\",\"cost\":5,\"quantity\":0,\"type\":\"Gear\",\"description\":\"\"},\"count\":1}]}";
+
+        User user = mapper.readValue(json, User.class);
+
+        assertEquals(2, user.getBasketSize());
+        assertEquals(7, user.getBasket().get(0).getNeedId());
+        assertEquals(3, user.getBasketNeed(new Need(7, null, 0, 0, null, null)).getCount());
+        User copy = mapper.readValue(mapper.writeValueAsString(user), User.class);
+        assertEquals(3, copy.getBasket().get(1).getNeedId());
+        assertFalse(mapper.writeValueAsString(user).contains("basketSize"));
+        // only the ids of the needs are written back
+        assertFalse(mapper.writeValueAsString(user).contains("Honey"));
+    }
+
+    /**
+     * Tests that a taken basket can be put back in front of needs added since
+     */
+    @Test
+    public void testTakeAndRestoreBasket() {
+        User user = new User(1, "bee", "pw", new ArrayList<String>());
+        Need honey = new Need(3, "Honey", 10, 0, "Food", "");
+        Need wax = new Need(7, "Wax", 5, 0, "Gear", "");
+        user.addNeed(honey);
+        user.addNeed(honey);   // already there, so nothing changes
+        user.addNeed(wax);
+
+        List<BasketNeed> taken = user.takeBasket();
+        assertEquals(2, taken.size());
+        assertEquals(0, user.getBasketSize());
+
+        user.addNeed(wax);
+        user.restoreBasket(taken);
+        assertEquals(3, user.getBasket().get(0).getNeedId());
+        assertEquals(7, user.getBasket().get(1).getNeedId());
+        assertTrue(user.getBasketNeed(honey) != null);
+    }
+
+    /**
+     * Tests that joining a basket fills in the needs still there and leaves out the rest
+     */
+    @Test
+    public void testJoinBasket() {
+        User user = new User(1, "bee", "pw", new ArrayList<String>());
+        Need honey = new Need(3, "Honey", 10, 0, "Food", "");
+        Need wax = new Need(7, "Wax", 5, 0, "Gear", "");
+        user.addNeed(honey);
+        user.addNeed(wax);
+
+        user.joinBasket(id -> id == 3 ? honey : null);
+
+        assertEquals(1, user.getBasketSize());
+        assertEquals(honey, user.getBasket().get(0).getNeed());
+    }
 }
@@ -0,0 +1,63 @@
+package com.ufund.api.ufundapi.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import com.ufund.api.ufundapi.model.Need;
+
+/**
+ * Test the Autocomplete Index class
+ */
+@Tag("Persistence-Tier")
+public class AutocompleteIndexTest {
+
+    /**
+     * Tests that completions come in alphabetical order, ignoring case, up to the limit
+     */
+    @Test
+    public void testComplete() {
+        AutocompleteIndex index = new AutocompleteIndex();
+        index.add(new Need(1, "Honeycomb", 1, 1, "Food", ""));
+        index.add(new Need(2, "Hive tool", 1, 1, "Gear", ""));
+        index.add(new Need(3, "honey", 1, 1, "Food", ""));
+        index.add(new Need(4, "Honey", 1, 1, "Food", ""));
+
+        assertEquals(List.of(3, 4, 1), index.complete("HON", 10));
+        assertEquals(List.of(2, 3), index.complete("h", 2));
+        assertTrue(index.complete("bee", 10).isEmpty());
+    }
+
+    /**
+     * Tests that removed names stop completing while others sharing the prefix remain
+     */
+    @Test
+    public void testRemove() {
+        AutocompleteIndex index = new AutocompleteIndex();
+        Need honey = new Need(1, "Honey", 1, 1, "Food", "");
+        Need honeycomb = new Need(2, "Honeycomb", 1, 1, "Food", "");
+        index.add(honey);
+        index.add(honeycomb);
+
+        index.remove(honeycomb);
+        assertEquals(List.of(1), index.complete("honey", 10));
+        index.remove(honey);
+        assertTrue(index.complete("", 10).isEmpty());
+    }
+
+    /**
+     * Tests that very long names are indexed by their start
+     */
+    @Test
+    public void testLongNames() {
+        AutocompleteIndex index = new AutocompleteIndex();
+        String name = "x".repeat(AutocompleteIndex.MAX_KEY_LENGTH + 10);
+        index.add(new Need(1, name, 1, 1, "Food", ""));
+
+        assertEquals(List.of(1), index.complete(name, 10));
+    }
+}
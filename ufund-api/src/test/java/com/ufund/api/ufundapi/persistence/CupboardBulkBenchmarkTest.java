@@ -0,0 +1,100 @@
+package com.ufund.api.ufundapi.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ufund.api.ufundapi.model.BulkResult;
+import com.ufund.api.ufundapi.model.Need;
+
+/**
+ * Measures importing a season's supply list into an empty Cupboard File DAO one
+ * need at a time and as a single bulk create, and checks that every need lands
+ * in the files either way
+ */
+@Tag("Benchmark")
+public class CupboardBulkBenchmarkTest {
+    private static final Logger LOG = Logger.getLogger(CupboardBulkBenchmarkTest.class.getName());
+    private static final int NEEDS = 10_000;
+    private static final int REWRITTEN_NEEDS = 1_000; // rewriting the whole file per need is quadratic, so fewer
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Imports the same needs each way, forcing the log to the device as a durable import would
+     */
+    @Test
+    public void benchmarkImport() throws IOException {
+        Need[] needs = supplyList(NEEDS);
+
+        double single = importSingly("single", needs, CupboardFileDAO.DEFAULT_COMPACT_THRESHOLD);
+        LOG.info(String.format("Cupboard import %,d needs one at a time (log)      %,10.1f ms", NEEDS, single));
+        double rewrite = importSingly("rewrite", supplyList(REWRITTEN_NEEDS), 0);
+        LOG.info(String.format("Cupboard import %,d needs one at a time (rewrite)   %,10.1f ms", REWRITTEN_NEEDS, rewrite));
+
+        Path file = emptyCupboard("bulk");
+        CupboardFileDAO cupboard = new CupboardFileDAO(file.toString(), new ObjectMapper(), CupboardFileDAO.DEFAULT_COMPACT_THRESHOLD, true);
+        long begin = System.nanoTime();
+        BulkResult[] results = cupboard.createNeeds(needs);
+        double bulk = (System.nanoTime() - begin) / 1_000_000.0;
+        LOG.info(String.format("Cupboard import %,d needs as one bulk create       %,10.1f ms", NEEDS, bulk));
+
+        assertEquals(NEEDS, results.length);
+        assertEquals(NEEDS, new CupboardFileDAO(file.toString(), new ObjectMapper()).getAllNeeds().length);
+    }
+
+    /**
+     * Imports needs with one create per need
+     *
+     * @param name Names the cupboard file
+     * @param needs The needs to import
+     * @param compactThreshold The log size that triggers compaction, 0 to rewrite the file every time
+     * @return The milliseconds the import took
+     */
+    private double importSingly(String name, Need[] needs, int compactThreshold) throws IOException {
+        Path file = emptyCupboard(name);
+        CupboardFileDAO cupboard = new CupboardFileDAO(file.toString(), new ObjectMapper(), compactThreshold, true);
+        long begin = System.nanoTime();
+        for (Need need : needs) {
+            cupboard.createNeed(need);
+        }
+        double elapsed = (System.nanoTime() - begin) / 1_000_000.0;
+        assertEquals(needs.length, new CupboardFileDAO(file.toString(), new ObjectMapper()).getAllNeeds().length);
+        return elapsed;
+    }
+
+    /**
+     * Writes an empty cupboard file
+     *
+     * @param name Names the file
+     * @return The path of the file
+     */
+    private Path emptyCupboard(String name) throws IOException {
+        Path file = tempDir.resolve("cupboard-" + name + ".json");
+        Files.writeString(file, "[]");
+        return file;
+    }
+
+    /**
+     * Generates needs as they would arrive from an import, without ids
+     *
+     * @param count The number of needs
+     * @return The needs
+     */
+    private static Need[] supplyList(int count) {
+        Need[] needs = new Need[count];
+        for (int i = 0; i < count; i++) {
+            needs[i] = new Need(0, "Supply " + i, 5 + i % 50, 1 + i % 20, i % 3 == 0 ? "Food" : "Gear", "Imported for the season");
+        }
+        return needs;
+    }
+}
@@ -0,0 +1,108 @@
+package com.ufund.api.ufundapi.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ufund.api.ufundapi.model.BasketNeed;
+import com.ufund.api.ufundapi.model.CheckoutResult;
+import com.ufund.api.ufundapi.model.Need;
+
+/**
+ * Measures many helpers checking out baskets against a cupboard that wants less
+ * than all of them give, and checks that no need is ever funded past its cost
+ * <br>
+ * Half of the helpers hold their needs as they fill their baskets, as adding to
+ * a basket does, and the other half check out without holding anything
+ */
+@Tag("Benchmark")
+public class CupboardCheckoutBenchmarkTest {
+    private static final Logger LOG = Logger.getLogger(CupboardCheckoutBenchmarkTest.class.getName());
+    private static final int NEEDS = 50;
+    private static final int COST = 1_000;           // of every need, far less than the checkouts give
+    private static final int THREADS = 16;
+    private static final int CHECKOUTS_PER_THREAD = 2_000;
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Runs every checkout at once, forcing the log to the device as a durable checkout would
+     */
+    @Test
+    public void benchmarkCheckout() throws Exception {
+        Path file = tempDir.resolve("cupboard.json");
+        Files.writeString(file, "[]");
+        CupboardFileDAO cupboard = new CupboardFileDAO(file.toString(), new ObjectMapper(), CupboardFileDAO.DEFAULT_COMPACT_THRESHOLD, true);
+        Need[] needs = new Need[NEEDS];
+        for (int i = 0; i < NEEDS; i++) {
+            needs[i] = cupboard.createNeed(new Need(0, "Need " + i, COST, 0, "Food", "Stock"));
+        }
+        int firstId = needs[0].getId();
+
+        AtomicLongArray funded = new AtomicLongArray(NEEDS);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<Integer>> completed = new ArrayList<>();
+        long begin = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            int seed = t;
+            completed.add(pool.submit(() -> {
+                Random random = new Random(seed);
+                int done = 0;
+                for (int c = 0; c < CHECKOUTS_PER_THREAD; c++) {
+                    List<BasketNeed> basket = new ArrayList<>();
+                    for (int line = 1 + random.nextInt(3); line > 0; line--) {
+                        BasketNeed basketNeed = new BasketNeed(needs[random.nextInt(NEEDS)], 1 + random.nextInt(2));
+                        if (seed % 2 == 0) {
+                            cupboard.holdNeed(seed, basketNeed.getNeedId(), basketNeed.getCount());
+                        }
+                        basket.add(basketNeed);
+                    }
+                    CheckoutResult result = cupboard.checkout(seed, basket);
+                    if (result.isCompleted()) {
+                        for (BasketNeed line : result.getFunded()) {
+                            funded.addAndGet(line.getNeedId() - firstId, line.getCount());
+                        }
+                        done++;
+                    }
+                }
+                return done;
+            }));
+        }
+        int done = 0;
+        for (Future<Integer> future : completed) {
+            done += future.get();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        pool.shutdown();
+        cupboard.close();
+
+        int attempts = THREADS * CHECKOUTS_PER_THREAD;
+        LOG.info(String.format("Cupboard checkout %,d attempts on %d threads, %,d funded  %,10.0f checkouts/s",
+                               attempts, THREADS, done, attempts / seconds));
+
+        CupboardFileDAO reloaded = new CupboardFileDAO(file.toString(), new ObjectMapper());
+        for (int i = 0; i < NEEDS; i++) {
+            int received = cupboard.getNeed(needs[i].getId()).getQuantity();
+            assertTrue(received <= COST, "overfunded " + needs[i].getName());
+            assertEquals(funded.get(i), received);
+            assertEquals(received, reloaded.getNeed(needs[i].getId()).getQuantity());
+        }
+    }
+}
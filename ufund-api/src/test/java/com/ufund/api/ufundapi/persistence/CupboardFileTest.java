@@ -5,12 +5,18 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
+import java.util.List;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ufund.api.ufundapi.model.BasketNeed;
+import com.ufund.api.ufundapi.model.BulkResult;
+import com.ufund.api.ufundapi.model.CheckoutResult;
 import com.ufund.api.ufundapi.model.Need;
+import com.ufund.api.ufundapi.model.TypeAggregate;
 
 @Tag("Persistence-Tier")
 public class CupboardFileTest {
@@ -20,10 +26,11 @@ public class CupboardFileTest {
 
     private CupboardFileDAO cupboard;
     private ObjectMapper fakeMapper;
+    private Path testFile;
 
     @BeforeEach
     public void setup() throws IOException {
-        Path testFile = tempDir.resolve("cupboard_test.json");
+        testFile = tempDir.resolve("cupboard_test.json");
         Files.writeString(testFile, "[]"); 
 
         fakeMapper = new ObjectMapper();
@@ -191,4 +198,528 @@ public class CupboardFileTest {
         Need need1 = new Need(999, "Test Need 1", 100, 1, "Test type", "I am a test need");
         assertFalse(cupboard.needExists(need1));
     }
-}
\ No newline at end of file
+
+    /*
+     * Test that mutations written only to the log are replayed when the cupboard is loaded again
+     */
+    @Test
+    public void test_log_replayed_on_load() throws IOException {
+        Need created = cupboard.createNeed(new Need(0, "Logged need", 100, 1, "Test type", "I am a test need"));
+        Need deleted = cupboard.createNeed(new Need(0, "Deleted need", 100, 1, "Test type", "I am a test need"));
+        cupboard.updateNeed(created.getId(), new Need(0, "Updated need", 200, 2, "Test type", "I am a test need"));
+        cupboard.deleteNeed(deleted.getId());
+
+        assertEquals("[]", Files.readString(testFile));
+
+        CupboardFileDAO reloaded = new CupboardFileDAO(testFile.toString(), fakeMapper);
+        assertEquals(1, reloaded.getAllNeeds().length);
+        assertEquals("Updated need", reloaded.getNeed(created.getId()).getName());
+        assertEquals(null, reloaded.getNeed(deleted.getId()));
+    }
+
+    /*
+     * Test that the log is folded into the snapshot once it reaches the compaction threshold
+     */
+    @Test
+    public void test_log_compacted_at_threshold() throws IOException {
+        cupboard = new CupboardFileDAO(testFile.toString(), fakeMapper, 2, false);
+        cupboard.createNeed(new Need(0, "Test need 1", 100, 1, "Test type", "I am a test need"));
+        cupboard.createNeed(new Need(0, "Test need 2", 100, 1, "Test type", "I am a test need"));
+
+        Need[] snapshot = fakeMapper.readValue(testFile.toFile(), Need[].class);
+        assertEquals(2, snapshot.length);
+        assertEquals(0, Files.size(tempDir.resolve("cupboard_test.json.log")));
+    }
+
+    /*
+     * Test that a threshold of 0 writes the whole snapshot on every mutation
+     */
+    @Test
+    public void test_log_disabled() throws IOException {
+        cupboard = new CupboardFileDAO(testFile.toString(), fakeMapper, 0, false);
+        cupboard.createNeed(new Need(0, "Test need 1", 100, 1, "Test type", "I am a test need"));
+
+        Need[] snapshot = fakeMapper.readValue(testFile.toFile(), Need[].class);
+        assertEquals(1, snapshot.length);
+        assertFalse(Files.exists(tempDir.resolve("cupboard_test.json.log")));
+    }
+
+    /*
+     * Test that a log left by a run with the log enabled is not replayed over
+     * needs written later with the log disabled
+     */
+    @Test
+    public void test_log_disabled_empties_old_log() throws IOException {
+        Need created = cupboard.createNeed(new Need(0, "Logged need", 100, 1, "Test type", "I am a test need"));
+
+        cupboard = new CupboardFileDAO(testFile.toString(), fakeMapper, 0, false);
+        assertEquals(0, Files.size(tempDir.resolve("cupboard_test.json.log")));
+        cupboard.updateNeed(created.getId(), new Need(0, "Newer need", 100, 1, "Test type", "I am a test need"));
+
+        CupboardFileDAO reloaded = new CupboardFileDAO(testFile.toString(), fakeMapper);
+        assertEquals("Newer need", reloaded.getNeed(created.getId()).getName());
+    }
+
+    /*
+     * Test that a half written record at the end of the log is ignored when loading
+     */
+    @Test
+    public void test_log_torn_record_ignored() throws IOException {
+        cupboard.createNeed(new Need(0, "Test need 1", 100, 1, "Test type", "I am a test need"));
+        Files.writeString(tempDir.resolve("cupboard_test.json.log"), "{\"op\":\"put\",\"id\":", StandardOpenOption.APPEND);
+
+        CupboardFileDAO reloaded = new CupboardFileDAO(testFile.toString(), fakeMapper);
+        assertEquals(1, reloaded.getAllNeeds().length);
+    }
+
+    /*
+     * Tests that an array handed to a reader is not changed by later mutations
+     */
+    @Test
+    public void test_snapshot_unchanged_by_later_mutation() throws IOException {
+        Need created = cupboard.createNeed(new Need(1, "Test need 1", 100, 1, "Test type", "I am a test need"));
+        Need[] before = cupboard.getAllNeeds();
+
+        cupboard.deleteNeed(created.getId());
+        cupboard.createNeed(new Need(2, "Test need 2", 100, 1, "Test type", "I am a test need"));
+
+        assertEquals(1, before.length);
+        assertEquals("Test need 1", before[0].getName());
+        assertEquals("Test need 2", cupboard.getAllNeeds()[0].getName());
+    }
+
+    /*
+     * Tests that the version goes up with every mutation and not with reads
+     */
+    @Test
+    public void test_version_counts_mutations() throws IOException {
+        long start = cupboard.getVersion();
+        Need created = cupboard.createNeed(new Need(1, "Test need 1", 100, 1, "Test type", "I am a test need"));
+        cupboard.updateNeed(created.getId(), new Need(created.getId(), "Renamed", 100, 1, "Test type", "I am a test need"));
+        cupboard.getAllNeeds();
+        cupboard.deleteNeed(created.getId());
+        cupboard.deleteNeed(created.getId());
+
+        assertEquals(start + 3, cupboard.getVersion());
+    }
+
+    /*
+     * Tests that searching by name ignores case and follows renames and deletes
+     */
+    @Test
+    public void test_search_follows_mutations() throws IOException {
+        Need honey = cupboard.createNeed(new Need(1, "Raw Honey", 100, 1, "Food", "I am a test need"));
+        Need suit = cupboard.createNeed(new Need(2, "Bee Suit", 100, 1, "Gear", "I am a test need"));
+
+        assertEquals(1, cupboard.getNeedsArray("HONEY").length);
+        assertEquals(0, cupboard.getNeedsArray("honeycomb").length);
+
+        cupboard.updateNeed(honey.getId(), new Need(honey.getId(), "Honeycomb Frame", 100, 1, "Food", "I am a test need"));
+        assertEquals(1, cupboard.getNeedsArray("honeycomb").length);
+        assertEquals(0, cupboard.getNeedsArray("raw").length);
+
+        cupboard.deleteNeed(suit.getId());
+        assertEquals(0, cupboard.getNeedsArray("suit").length);
+    }
+
+    /*
+     * Tests that queries shorter than a trigram and matches are returned in id order
+     */
+    @Test
+    public void test_search_short_query_and_order() throws IOException {
+        cupboard.createNeed(new Need(1, "Bee Suit", 100, 1, "Gear", "I am a test need"));
+        cupboard.createNeed(new Need(2, "Bee Brush", 100, 1, "Gear", "I am a test need"));
+        cupboard.createNeed(new Need(3, "Hive Tool", 100, 1, "Gear", "I am a test need"));
+
+        assertEquals(3, cupboard.getNeedsArray("e").length);
+        Need[] bees = cupboard.getNeedsArray("bee ");
+        assertEquals(2, bees.length);
+        assertTrue(bees[0].getId() < bees[1].getId());
+    }
+
+    /*
+     * Tests that ranked search looks past the name and pages through the results
+     */
+    @Test
+    public void test_search_needs_ranked_and_paged() throws IOException {
+        Need suit = cupboard.createNeed(new Need(1, "Protective gear", 100, 1, "Gear", "A full bee suit"));
+        Need brush = cupboard.createNeed(new Need(2, "Bee brush", 100, 1, "Gear", "Soft bristles"));
+        cupboard.createNeed(new Need(3, "Honey jar", 100, 1, "Food", "Glass"));
+
+        Need[] first = cupboard.searchNeeds("bee suit", 0, 1);
+        assertEquals(1, first.length);
+        assertEquals(suit.getId(), first[0].getId());
+        Need[] second = cupboard.searchNeeds("bee suit", 1, 1);
+        assertEquals(brush.getId(), second[0].getId());
+        assertEquals(0, cupboard.searchNeeds("bee suit", 2, 1).length);
+
+        cupboard.deleteNeed(suit.getId());
+        assertEquals(1, cupboard.searchNeeds("bee suit", 0, 10).length);
+    }
+
+    /*
+     * Tests that fuzzy search finds misspelled names and follows deletes
+     */
+    @Test
+    public void test_fuzzy_search_needs() throws IOException {
+        Need honey = cupboard.createNeed(new Need(1, "Raw Honey", 100, 1, "Food", "I am a test need"));
+        cupboard.createNeed(new Need(2, "Hive Frame", 100, 1, "Gear", "I am a test need"));
+
+        assertEquals(honey.getId(), cupboard.fuzzySearchNeeds("honney", -1)[0].getId());
+        assertEquals(0, cupboard.fuzzySearchNeeds("honney", 0).length);
+
+        cupboard.deleteNeed(honey.getId());
+        assertEquals(0, cupboard.fuzzySearchNeeds("honney", -1).length);
+    }
+
+    /*
+     * Tests that autocomplete follows creates and renames
+     */
+    @Test
+    public void test_autocomplete_needs() throws IOException {
+        Need honey = cupboard.createNeed(new Need(1, "Raw Honey", 100, 1, "Food", "I am a test need"));
+        cupboard.createNeed(new Need(2, "Raw Wax", 100, 1, "Gear", "I am a test need"));
+
+        Need[] completions = cupboard.autocompleteNeeds("raw", 10);
+        assertEquals(2, completions.length);
+        assertEquals("Raw Honey", completions[0].getName());
+
+        cupboard.updateNeed(honey.getId(), new Need(honey.getId(), "Honey", 100, 1, "Food", "I am a test need"));
+        assertEquals(1, cupboard.autocompleteNeeds("raw", 10).length);
+        assertEquals(1, cupboard.autocompleteNeeds("HO", 10).length);
+    }
+
+    /*
+     * Tests that a long prefix is matched in full before the limit is applied
+     */
+    @Test
+    public void test_autocomplete_long_prefix() throws IOException {
+        String start = "x".repeat(AutocompleteIndex.MAX_KEY_LENGTH);
+        cupboard.createNeed(new Need(1, start + "a", 100, 1, "Food", "I am a test need"));
+        cupboard.createNeed(new Need(2, start + "b", 100, 1, "Food", "I am a test need"));
+
+        Need[] completions = cupboard.autocompleteNeeds(start + "b", 1);
+        assertEquals(1, completions.length);
+        assertEquals(2, completions[0].getId());
+    }
+
+    /*
+     * Tests that pages walk the cupboard in id order without gaps or repeats
+     */
+    @Test
+    public void test_get_needs_page() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            cupboard.createNeed(new Need(0, "Test need " + i, 100, 1, "Test type", "I am a test need"));
+        }
+        Need[] first = cupboard.getNeedsPage(Integer.MIN_VALUE, 2);
+        Need[] second = cupboard.getNeedsPage(first[1].getId(), 2);
+        Need[] third = cupboard.getNeedsPage(second[1].getId(), 2);
+
+        assertEquals(2, first.length);
+        assertEquals(2, second.length);
+        assertEquals(1, third.length);
+        assertTrue(first[1].getId() < second[0].getId());
+        assertEquals(0, cupboard.getNeedsPage(third[0].getId(), 2).length);
+    }
+
+    /*
+     * Tests that queries filter by type, cost and quantity, sort and follow updates
+     */
+    @Test
+    public void test_query_needs() throws IOException {
+        Need honey = cupboard.createNeed(new Need(1, "Honey", 30, 5, "Food", "I am a test need"));
+        Need pollen = cupboard.createNeed(new Need(2, "Pollen", 10, 50, "food", "I am a test need"));
+        Need frame = cupboard.createNeed(new Need(3, "Frame", 20, 8, "Gear", "I am a test need"));
+
+        Need[] food = cupboard.queryNeeds("FOOD", Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, NeedOrder.ID, 10);
+        assertEquals(2, food.length);
+        assertEquals(honey.getId(), food[0].getId());
+
+        Need[] cheap = cupboard.queryNeeds(null, 10, 20, Integer.MIN_VALUE, Integer.MAX_VALUE, NeedOrder.COST_DESC, 10);
+        assertEquals(2, cheap.length);
+        assertEquals(frame.getId(), cheap[0].getId());
+        assertEquals(pollen.getId(), cheap[1].getId());
+
+        Need[] few = cupboard.queryNeeds("food", Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, 10, NeedOrder.NAME, 10);
+        assertEquals(1, few.length);
+        assertEquals(honey.getId(), few[0].getId());
+
+        Need[] cheapest = cupboard.queryNeeds(null, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, NeedOrder.COST, 1);
+        assertEquals(1, cheapest.length);
+        assertEquals(pollen.getId(), cheapest[0].getId());
+
+        Need[] most = cupboard.queryNeeds("food", Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, NeedOrder.QUANTITY_DESC, 10);
+        assertEquals(pollen.getId(), most[0].getId());
+
+        cupboard.updateNeed(frame.getId(), new Need(frame.getId(), "Frame", 200, 8, "Food", "I am a test need"));
+        assertEquals(3, cupboard.queryNeeds("food", Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, NeedOrder.ID, 10).length);
+        assertEquals(1, cupboard.queryNeeds(null, 10, 20, Integer.MIN_VALUE, Integer.MAX_VALUE, NeedOrder.ID, 10).length);
+
+        cupboard.deleteNeed(pollen.getId());
+        assertEquals(0, cupboard.queryNeeds(null, 10, 20, Integer.MIN_VALUE, Integer.MAX_VALUE, NeedOrder.ID, 10).length);
+        assertEquals(0, cupboard.queryNeeds("Toys", Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, NeedOrder.ID, 10).length);
+    }
+
+    /*
+     * Tests that the totals per type follow creates, updates and deletes exactly
+     */
+    @Test
+    public void test_aggregates() throws IOException {
+        Need honey = cupboard.createNeed(new Need(1, "Honey", 30, 5, "Food", "I am a test need"));
+        cupboard.createNeed(new Need(2, "Pollen", 10, 50, "Food", "I am a test need"));
+        Need frame = cupboard.createNeed(new Need(3, "Frame", 20, 8, "Gear", "I am a test need"));
+
+        TypeAggregate[] aggregates = cupboard.getAggregates();
+        assertEquals(2, aggregates.length);
+        assertEquals("Food", aggregates[0].getType());
+        assertEquals(2, aggregates[0].getNeeds());
+        assertEquals(55, aggregates[0].getTotalQuantity());
+        assertEquals(650, aggregates[0].getTotalValue());
+        assertEquals(160, aggregates[1].getTotalValue());
+
+        cupboard.updateNeed(honey.getId(), new Need(honey.getId(), "Honey", 40, 1, "Food", "I am a test need"));
+        cupboard.deleteNeed(frame.getId());
+        aggregates = cupboard.getAggregates();
+        assertEquals(1, aggregates.length);
+        assertEquals(51, aggregates[0].getTotalQuantity());
+        assertEquals(540, aggregates[0].getTotalValue());
+
+        // the totals are rebuilt from the file on load
+        CupboardFileDAO reloaded = new CupboardFileDAO(testFile.toString(), new ObjectMapper());
+        assertEquals(540, reloaded.getAggregates()[0].getTotalValue());
+    }
+
+    /**
+     * Tests that types differing only in case are totalled together, as queries by type treat them
+     */
+    @Test
+    public void test_aggregates_ignore_case() throws IOException {
+        cupboard.createNeed(new Need(1, "Honey", 30, 5, "Food", "I am a test need"));
+        Need pollen = cupboard.createNeed(new Need(2, "Pollen", 10, 50, "FOOD", "I am a test need"));
+
+        TypeAggregate[] aggregates = cupboard.getAggregates();
+        assertEquals(1, aggregates.length);
+        assertEquals("Food", aggregates[0].getType());
+        assertEquals(2, aggregates[0].getNeeds());
+        assertEquals(55, aggregates[0].getTotalQuantity());
+
+        cupboard.deleteNeed(pollen.getId());
+        assertEquals(5, cupboard.getAggregates()[0].getTotalQuantity());
+    }
+
+    /*
+     * Tests that a bulk create adds every need with one version and survives a reload
+     */
+    @Test
+    public void test_create_needs() throws IOException {
+        long version = cupboard.getVersion();
+        BulkResult[] results = cupboard.createNeeds(new Need[] {
+            new Need(0, "Test need 1", 100, 1, "Test type", "I am a test need"),
+            new Need(0, "Test need 2", 200, 2, "Test type", "I am a test need")
+        });
+
+        assertEquals(2, results.length);
+        assertEquals(BulkResult.Outcome.CREATED, results[1].getOutcome());
+        assertEquals("Test need 2", cupboard.getNeed(results[1].getId()).getName());
+        assertEquals(version + 1, cupboard.getVersion());
+
+        CupboardFileDAO reloaded = new CupboardFileDAO(testFile.toString(), fakeMapper);
+        assertEquals(2, reloaded.getAllNeeds().length);
+    }
+
+    /*
+     * Tests that one bad item rejects the whole bulk change and leaves the cupboard alone
+     */
+    @Test
+    public void test_bulk_rejected() throws IOException {
+        Need need1 = cupboard.createNeed(new Need(0, "Test need 1", 100, 1, "Test type", "I am a test need"));
+        long version = cupboard.getVersion();
+
+        BulkResult[] results = cupboard.updateNeeds(new Need[] {
+            new Need(need1.getId(), "Renamed", 100, 1, "Test type", "I am a test need"),
+            new Need(999, "Missing", 100, 1, "Test type", "I am a test need"),
+            null
+        });
+        assertEquals(BulkResult.Outcome.NOT_APPLIED, results[0].getOutcome());
+        assertEquals(BulkResult.Outcome.NOT_FOUND, results[1].getOutcome());
+        assertEquals(BulkResult.Outcome.INVALID, results[2].getOutcome());
+
+        results = cupboard.deleteNeeds(new int[] {need1.getId(), need1.getId()});
+        assertEquals(BulkResult.Outcome.CONFLICT, results[1].getOutcome());
+
+        assertEquals("Test need 1", cupboard.getNeed(need1.getId()).getName());
+        assertEquals(version, cupboard.getVersion());
+    }
+
+    /*
+     * Tests that a bulk change holding a need the single endpoints would refuse is rejected whole
+     */
+    @Test
+    public void test_bulk_validated() throws IOException {
+        Need need1 = cupboard.createNeed(new Need(0, "Test need 1", 100, 1, "Test type", "I am a test need"));
+        long version = cupboard.getVersion();
+
+        BulkResult[] created = cupboard.createNeeds(new Need[] {
+            new Need(0, "Test need 2", 100, 1, "Test type", "I am a test need"),
+            new Need(0, " ", 100, 1, "Test type", "I am a test need")
+        });
+        assertEquals(BulkResult.Outcome.NOT_APPLIED, created[0].getOutcome());
+        assertEquals(BulkResult.Outcome.INVALID, created[1].getOutcome());
+
+        BulkResult[] updated = cupboard.updateNeeds(new Need[] {
+            new Need(need1.getId(), "Test need 1", -5, 1, "Test type", "I am a test need")
+        });
+        assertEquals(BulkResult.Outcome.INVALID, updated[0].getOutcome());
+
+        assertEquals(1, cupboard.getAllNeeds().length);
+        assertEquals(100, cupboard.getNeed(need1.getId()).getCost());
+        assertEquals(version, cupboard.getVersion());
+    }
+
+    /*
+     * Tests that bulk updates and deletes are applied and replayed from the log
+     */
+    @Test
+    public void test_update_and_delete_needs() throws IOException {
+        Need need1 = cupboard.createNeed(new Need(0, "Test need 1", 100, 1, "Test type", "I am a test need"));
+        Need need2 = cupboard.createNeed(new Need(0, "Test need 2", 100, 1, "Test type", "I am a test need"));
+        Need need3 = cupboard.createNeed(new Need(0, "Test need 3", 100, 1, "Test type", "I am a test need"));
+
+        BulkResult[] updated = cupboard.updateNeeds(new Need[] {
+            new Need(need1.getId(), "Updated 1", 100, 1, "Test type", "I am a test need"),
+            new Need(need2.getId(), "Updated 2", 100, 1, "Test type", "I am a test need")
+        });
+        BulkResult[] deleted = cupboard.deleteNeeds(new int[] {need2.getId(), need3.getId()});
+
+        assertEquals(BulkResult.Outcome.UPDATED, updated[0].getOutcome());
+        assertEquals(BulkResult.Outcome.DELETED, deleted[1].getOutcome());
+        CupboardFileDAO reloaded = new CupboardFileDAO(testFile.toString(), fakeMapper);
+        assertEquals(1, reloaded.getAllNeeds().length);
+        assertEquals("Updated 1", reloaded.getNeed(need1.getId()).getName());
+    }
+
+    /*
+     * Tests that a bulk change reaching the compaction threshold is folded straight into the snapshot
+     */
+    @Test
+    public void test_bulk_compacts() throws IOException {
+        cupboard = new CupboardFileDAO(testFile.toString(), fakeMapper, 3, false);
+        cupboard.createNeeds(new Need[] {
+            new Need(0, "Test need 1", 100, 1, "Test type", "I am a test need"),
+            new Need(0, "Test need 2", 100, 1, "Test type", "I am a test need"),
+            new Need(0, "Test need 3", 100, 1, "Test type", "I am a test need")
+        });
+
+        assertEquals(3, fakeMapper.readValue(testFile.toFile(), Need[].class).length);
+        assertFalse(Files.exists(tempDir.resolve("cupboard_test.json.log")));
+    }
+
+    /*
+     * Tests that a checkout adds every need in the basket to the quantity received
+     * and that the new quantities survive a reload from the log
+     */
+    @Test
+    public void test_checkout() throws IOException {
+        Need need1 = cupboard.createNeed(new Need(0, "Test need 1", 5, 0, "Test type", "I am a test need"));
+        Need need2 = cupboard.createNeed(new Need(0, "Test need 2", 5, 2, "Test type", "I am a test need"));
+
+        CheckoutResult result = cupboard.checkout(7, List.of(new BasketNeed(need1, 2), new BasketNeed(need2, 3), new BasketNeed(need1, 1)));
+
+        assertTrue(result.isCompleted());
+        assertEquals(2, result.getFunded().length);
+        assertEquals(3, result.getFunded()[0].getCount());
+        assertEquals(3, result.getFunded()[0].getNeed().getQuantity());
+        assertEquals(5, cupboard.getNeed(need2.getId()).getQuantity());
+        CupboardFileDAO reloaded = new CupboardFileDAO(testFile.toString(), fakeMapper);
+        assertEquals(3, reloaded.getNeed(need1.getId()).getQuantity());
+        assertEquals(5, reloaded.getNeed(need2.getId()).getQuantity());
+    }
+
+    /*
+     * Tests that a checkout that would take one need past its cost funds nothing at all
+     */
+    @Test
+    public void test_checkout_rejected() throws IOException {
+        Need need1 = cupboard.createNeed(new Need(0, "Test need 1", 5, 0, "Test type", "I am a test need"));
+        Need need2 = cupboard.createNeed(new Need(0, "Test need 2", 5, 4, "Test type", "I am a test need"));
+        Need gone = new Need(999, "Gone", 5, 0, "Test type", "I am a test need");
+
+        CheckoutResult result = cupboard.checkout(7, List.of(new BasketNeed(need1, 2), new BasketNeed(need2, 2), new BasketNeed(gone, 1)));
+
+        assertFalse(result.isCompleted());
+        assertEquals(2, result.getUnavailable().length);
+        assertEquals(need2.getId(), result.getUnavailable()[0]);
+        assertEquals(999, result.getUnavailable()[1]);
+        assertEquals(0, cupboard.getNeed(need1.getId()).getQuantity());
+        assertEquals(0, new CupboardFileDAO(testFile.toString(), fakeMapper).getNeed(need1.getId()).getQuantity());
+
+        // an update decides what the next checkout can fund
+        cupboard.updateNeed(need2.getId(), new Need(need2.getId(), "Test need 2", 6, 4, "Test type", "I am a test need"));
+        assertTrue(cupboard.checkout(7, List.of(new BasketNeed(need2, 2))).isCompleted());
+    }
+
+    /*
+     * Tests that a held need cannot be funded by anyone else, that checking out
+     * funds the hold and that a hold that runs out is handed back
+     */
+    @Test
+    public void test_holds() throws IOException {
+        Need need = cupboard.createNeed(new Need(0, "Test need 1", 5, 2, "Test type", "I am a test need"));
+
+        assertTrue(cupboard.holdNeed(1, need.getId(), 2));
+        assertFalse(cupboard.holdNeed(2, need.getId(), 2));
+        assertFalse(cupboard.checkout(2, List.of(new BasketNeed(need, 2))).isCompleted());
+        assertTrue(cupboard.holdNeed(1, need.getId(), 3));  // grows into what is left
+        assertEquals(3, cupboard.heldQuantity(need.getId()));
+
+        CheckoutResult result = cupboard.checkout(1, List.of(new BasketNeed(need, 2)));
+
+        assertTrue(result.isCompleted());
+        assertEquals(4, cupboard.getNeed(need.getId()).getQuantity());
+        assertEquals(0, cupboard.heldQuantity(need.getId()));   // the extra one was handed back
+        assertTrue(cupboard.holdNeed(2, need.getId(), 1));
+
+        cupboard.expireHolds(System.currentTimeMillis() + CupboardFileDAO.DEFAULT_HOLD_SECONDS * 1000L + 2000);
+        assertEquals(0, cupboard.heldQuantity(need.getId()));
+        assertTrue(cupboard.checkout(3, List.of(new BasketNeed(need, 1))).isCompleted());
+        cupboard.close();
+    }
+
+    /*
+     * Tests that holds outlasting a lowered cost never fund the need past it
+     */
+    @Test
+    public void test_holds_past_lowered_cost() throws IOException {
+        Need need = cupboard.createNeed(new Need(0, "Test need 1", 10, 0, "Test type", "I am a test need"));
+        assertTrue(cupboard.holdNeed(1, need.getId(), 5));
+        assertTrue(cupboard.holdNeed(2, need.getId(), 5));
+
+        cupboard.updateNeed(need.getId(), new Need(need.getId(), "Test need 1", 6, 0, "Test type", "I am a test need"));
+
+        assertTrue(cupboard.checkout(1, List.of(new BasketNeed(need, 5))).isCompleted());
+        assertFalse(cupboard.checkout(2, List.of(new BasketNeed(need, 5))).isCompleted());
+        assertEquals(5, cupboard.getNeed(need.getId()).getQuantity());
+        assertTrue(cupboard.checkout(2, List.of(new BasketNeed(need, 1))).isCompleted());
+        assertEquals(6, cupboard.getNeed(need.getId()).getQuantity());
+        cupboard.close();
+    }
+
+    /*
+     * Tests that a failed checkout keeps the holds it would have funded
+     */
+    @Test
+    public void test_holds_kept_on_rejected_checkout() throws IOException {
+        Need need1 = cupboard.createNeed(new Need(0, "Test need 1", 5, 0, "Test type", "I am a test need"));
+        Need need2 = cupboard.createNeed(new Need(0, "Test need 2", 1, 1, "Test type", "I am a test need"));
+        cupboard.holdNeed(1, need1.getId(), 2);
+
+        assertFalse(cupboard.checkout(1, List.of(new BasketNeed(need1, 2), new BasketNeed(need2, 1))).isCompleted());
+
+        assertEquals(2, cupboard.heldQuantity(need1.getId()));
+        assertEquals(0, cupboard.getNeed(need1.getId()).getQuantity());
+        assertFalse(cupboard.holdNeed(2, need1.getId(), 4));
+        cupboard.releaseHold(1, need1.getId());
+        assertTrue(cupboard.holdNeed(2, need1.getId(), 4));
+        cupboard.close();
+    }
+}
@@ -0,0 +1,151 @@
+package com.ufund.api.ufundapi.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ufund.api.ufundapi.model.Need;
+
+/**
+ * Measures search latency of the Cupboard File DAO on a large cupboard, and
+ * checks every search against a plain scan of the needs
+ */
+@Tag("Benchmark")
+public class CupboardSearchBenchmarkTest {
+    private static final Logger LOG = Logger.getLogger(CupboardSearchBenchmarkTest.class.getName());
+    private static final int NEEDS = 100_000;
+    private static final int QUERIES = 200;
+    private static final String[] WORDS = {"honey", "hive", "bee", "suit", "smoker", "frame", "wax", "pollen",
+        "queen", "feeder", "gloves", "brush", "jar", "comb", "nectar", "veil", "tool", "box", "drone", "seed"};
+
+    @TempDir
+    Path tempDir;
+
+    private CupboardFileDAO cupboard;
+    private String[] queries;
+
+    /**
+     * Writes a cupboard of generated needs and loads it, so that the index is
+     * built the same way as when the server starts
+     */
+    @BeforeEach
+    public void setup() throws IOException {
+        Random random = new Random(42);
+        Need[] needs = new Need[NEEDS];
+        for (int i = 0; i < NEEDS; i++) {
+            String name = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + i;
+            String description = WORDS[random.nextInt(WORDS.length)] + " for the " + WORDS[random.nextInt(WORDS.length)];
+            needs[i] = new Need(i + 1, name, 10, 1, "Gear", description);
+        }
+        Path file = tempDir.resolve("cupboard.json");
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.writeValue(file.toFile(), needs);
+        cupboard = new CupboardFileDAO(file.toString(), mapper);
+
+        queries = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = i % 2 == 0 ? WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)]
+                                    : Integer.toString(random.nextInt(NEEDS));
+        }
+    }
+
+    /**
+     * Runs the same queries through the index and through the scan it replaced
+     */
+    @Test
+    public void benchmarkNameSearch() {
+        // warm up both paths before timing them
+        for (String query : queries) {
+            cupboard.getNeedsArray(query);
+            scan(query);
+        }
+
+        long begin = System.nanoTime();
+        for (String query : queries) {
+            cupboard.getNeedsArray(query);
+        }
+        long indexed = System.nanoTime() - begin;
+
+        begin = System.nanoTime();
+        for (String query : queries) {
+            scan(query);
+        }
+        long scanned = System.nanoTime() - begin;
+
+        for (String query : queries) {
+            assertEquals(Arrays.asList(scan(query)), Arrays.asList(cupboard.getNeedsArray(query)));
+        }
+        LOG.info(String.format("Cupboard search at %,d needs: index %,8.1f us/query, scan %,8.1f us/query",
+                NEEDS, indexed / 1000.0 / QUERIES, scanned / 1000.0 / QUERIES));
+    }
+
+    /**
+     * Times ranked full-text searches one at a time and reports the median and 99th percentile
+     */
+    @Test
+    public void benchmarkRankedSearch() {
+        for (String query : queries) {
+            cupboard.searchNeeds(query, 0, 20);
+        }
+        long[] latencies = new long[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            long begin = System.nanoTime();
+            Need[] page = cupboard.searchNeeds(queries[i], 0, 20);
+            latencies[i] = System.nanoTime() - begin;
+            assertTrue(page.length <= 20);
+        }
+        Arrays.sort(latencies);
+        LOG.info(String.format("Ranked search at %,d needs: p50 %,8.1f us, p99 %,8.1f us",
+                NEEDS, latencies[QUERIES / 2] / 1000.0, latencies[QUERIES * 99 / 100] / 1000.0));
+    }
+
+    /**
+     * Times completing the first few letters of names, the way they arrive while typing
+     */
+    @Test
+    public void benchmarkAutocomplete() {
+        String[] prefixes = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            prefixes[i] = queries[i].substring(0, Math.min(queries[i].length(), 1 + i % 6));
+        }
+        for (String prefix : prefixes) {
+            cupboard.autocompleteNeeds(prefix, 10);
+        }
+        long begin = System.nanoTime();
+        for (String prefix : prefixes) {
+            Need[] completions = cupboard.autocompleteNeeds(prefix, 10);
+            assertTrue(completions.length <= 10);
+        }
+        long elapsed = System.nanoTime() - begin;
+        LOG.info(String.format("Autocomplete at %,d needs: %,8.1f us/prefix", NEEDS, elapsed / 1000.0 / QUERIES));
+    }
+
+    /**
+     * Searches the way the cupboard did before it had an index
+     *
+     * @param containsText The text to search for
+     * @return The matching needs in id order
+     */
+    private Need[] scan(String containsText) {
+        List<Need> matches = new ArrayList<>();
+        for (Need need : cupboard.getAllNeeds()) {
+            if (need.getName().toLowerCase().contains(containsText.toLowerCase())) {
+                matches.add(need);
+            }
+        }
+        return matches.toArray(new Need[0]);
+    }
+}
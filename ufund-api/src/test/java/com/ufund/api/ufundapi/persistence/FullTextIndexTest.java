@@ -0,0 +1,67 @@
+package com.ufund.api.ufundapi.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import com.ufund.api.ufundapi.model.Need;
+
+/**
+ * Test the Full Text Index class
+ */
+@Tag("Persistence-Tier")
+public class FullTextIndexTest {
+
+    /**
+     * Tests that text is split into lower case words
+     */
+    @Test
+    public void testTokenize() {
+        assertEquals(List.of("bee", "suit", "xl", "2"), FullTextIndex.tokenize("Bee-Suit (XL), 2"));
+        assertTrue(FullTextIndex.tokenize(null).isEmpty());
+    }
+
+    /**
+     * Tests that words found only in the description still match
+     */
+    @Test
+    public void testSearchDescription() {
+        FullTextIndex index = new FullTextIndex();
+        index.add(new Need(1, "Protective gear", 1, 1, "Gear", "A full bee suit with veil"));
+        index.add(new Need(2, "Honey jar", 1, 1, "Food", "Glass jar"));
+
+        assertEquals(List.of(1), index.search("bee suit", 10));
+    }
+
+    /**
+     * Tests that a match in the name outranks a match in the description, and
+     * that more matching words outrank fewer
+     */
+    @Test
+    public void testSearchRanking() {
+        FullTextIndex index = new FullTextIndex();
+        index.add(new Need(1, "Gloves", 1, 1, "Gear", "Good for handling a bee frame"));
+        index.add(new Need(2, "Bee brush", 1, 1, "Gear", "Soft bristles"));
+        index.add(new Need(3, "Bee suit", 1, 1, "Gear", "Keeps stings out"));
+
+        assertEquals(List.of(3, 2, 1), index.search("bee suit", 10));
+        assertEquals(List.of(3, 2), index.search("bee suit", 2));
+    }
+
+    /**
+     * Tests that a removed need no longer matches
+     */
+    @Test
+    public void testRemove() {
+        FullTextIndex index = new FullTextIndex();
+        Need suit = new Need(1, "Bee suit", 1, 1, "Gear", "");
+        index.add(suit);
+        index.remove(suit);
+
+        assertTrue(index.search("bee", 10).isEmpty());
+    }
+}
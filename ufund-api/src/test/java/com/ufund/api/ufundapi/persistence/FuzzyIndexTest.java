@@ -0,0 +1,61 @@
+package com.ufund.api.ufundapi.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import com.ufund.api.ufundapi.model.Need;
+
+/**
+ * Test the Fuzzy Index class
+ */
+@Tag("Persistence-Tier")
+public class FuzzyIndexTest {
+
+    /**
+     * Tests the edit distance, including giving up past the limit
+     */
+    @Test
+    public void testDistance() {
+        assertEquals(1, FuzzyIndex.distance("honney", "honey", 2));
+        assertEquals(1, FuzzyIndex.distance("hivve", "hive", 2));
+        assertEquals(3, FuzzyIndex.distance("bee", "beard", 5));
+        assertEquals(2, FuzzyIndex.distance("smoker", "honey", 1));
+    }
+
+    /**
+     * Tests that misspelled words find the needs they were meant for
+     */
+    @Test
+    public void testSearchTypos() {
+        FuzzyIndex index = new FuzzyIndex();
+        index.add(new Need(1, "Raw honey", 1, 1, "Food", ""));
+        index.add(new Need(2, "Hive tool", 1, 1, "Gear", ""));
+        index.add(new Need(3, "Money", 1, 1, "Funds", ""));
+
+        assertEquals(List.of(1, 3), index.search("honney", -1));
+        assertEquals(List.of(2), index.search("hivve tol", -1));
+        assertEquals(List.of(1), index.search("honey", 0));
+    }
+
+    /**
+     * Tests that removed needs stop matching, even after the trie is rebuilt
+     */
+    @Test
+    public void testRemoveAndRebuild() {
+        FuzzyIndex index = new FuzzyIndex();
+        for (int i = 0; i < 200; i++) {
+            Need need = new Need(i, "word" + i, 1, 1, "Gear", "");
+            index.add(need);
+            index.remove(need);
+        }
+        index.add(new Need(500, "Honey", 1, 1, "Food", ""));
+
+        assertTrue(index.search("word1", 1).isEmpty());
+        assertEquals(List.of(500), index.search("honey", 1));
+    }
+}
@@ -0,0 +1,116 @@
+package com.ufund.api.ufundapi.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import com.ufund.api.ufundapi.model.Need;
+
+/**
+ * Measures how fuzzy search latency grows with the size of the cupboard, and
+ * checks the index against comparing every word of every name
+ */
+@Tag("Benchmark")
+public class FuzzySearchBenchmarkTest {
+    private static final Logger LOG = Logger.getLogger(FuzzySearchBenchmarkTest.class.getName());
+    private static final int[] SIZES = {10_000, 50_000, 100_000};
+    private static final int QUERIES = 200;
+    private static final String LETTERS = "abcdefghijklmnopqrstuvwxyz";
+
+    /**
+     * Builds an index of needs named after random words at each size and times
+     * searches for misspelled words
+     */
+    @Test
+    public void benchmarkFuzzySearch() {
+        for (int size : SIZES) {
+            Random random = new Random(size);
+            FuzzyIndex index = new FuzzyIndex();
+            List<Need> needs = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                Need need = new Need(i, word(random) + " " + word(random), 10, 1, "Gear", "");
+                needs.add(need);
+                index.add(need);
+            }
+            String[] queries = new String[QUERIES];
+            for (int i = 0; i < QUERIES; i++) {
+                String name = needs.get(random.nextInt(size)).getName();
+                queries[i] = typo(name.substring(0, name.indexOf(' ')), random);
+            }
+
+            for (String query : queries) {
+                index.search(query, -1);
+            }
+            long begin = System.nanoTime();
+            for (String query : queries) {
+                index.search(query, -1);
+            }
+            long elapsed = System.nanoTime() - begin;
+
+            for (int i = 0; i < 10; i++) {
+                assertEquals(scan(needs, queries[i]), index.search(queries[i], -1));
+            }
+            LOG.info(String.format("Fuzzy search at %,7d needs: %,8.1f us/query", size, elapsed / 1000.0 / QUERIES));
+        }
+    }
+
+    /**
+     * Makes up a random word
+     *
+     * @param random The source of randomness
+     * @return A word of 5 to 9 letters
+     */
+    private static String word(Random random) {
+        StringBuilder word = new StringBuilder();
+        int length = 5 + random.nextInt(5);
+        for (int i = 0; i < length; i++) {
+            word.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+        }
+        return word.toString();
+    }
+
+    /**
+     * Doubles one letter of a word, the way "honney" and "hivve" are typed
+     *
+     * @param word The word to misspell
+     * @param random The source of randomness
+     * @return The misspelled word
+     */
+    private static String typo(String word, Random random) {
+        int at = random.nextInt(word.length());
+        return word.substring(0, at + 1) + word.charAt(at) + word.substring(at + 1);
+    }
+
+    /**
+     * Finds matches by comparing the query with every word of every name
+     *
+     * @param needs Every need
+     * @param query A single word query
+     * @return The ids of the matches, closest first, ties broken by lowest id
+     */
+    private static List<Integer> scan(List<Need> needs, String query) {
+        int limit = FuzzyIndex.defaultDistance(query);
+        List<int[]> matches = new ArrayList<>();
+        for (Need need : needs) {
+            int best = limit + 1;
+            for (String word : FullTextIndex.tokenize(need.getName())) {
+                best = Math.min(best, FuzzyIndex.distance(query, word, limit));
+            }
+            if (best <= limit) {
+                matches.add(new int[] {need.getId(), best});
+            }
+        }
+        matches.sort((a, b) -> a[1] != b[1] ? Integer.compare(a[1], b[1]) : Integer.compare(a[0], b[0]));
+        List<Integer> ids = new ArrayList<>();
+        for (int[] match : matches) {
+            ids.add(match[0]);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,90 @@
+package com.ufund.api.ufundapi.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test the Need Stock class
+ */
+@Tag("Persistence-Tier")
+public class NeedStockTest {
+
+    /**
+     * Tests that holding moves stock out of reach of other claims and that
+     * nothing is taken past what is available
+     */
+    @Test
+    public void testHoldAndClaim() {
+        NeedStock stock = new NeedStock();
+        stock.set(5);
+
+        assertTrue(stock.change(-3, 3));   // hold 3
+        assertFalse(stock.change(-3, 0));  // only 2 left for anyone else
+        assertTrue(stock.change(-2, 0));
+        assertEquals(0, stock.available());
+        assertEquals(3, stock.held());
+        assertEquals(3, stock.wanted());
+
+        assertTrue(stock.change(0, -3));   // the hold is funded
+        assertEquals(0, stock.wanted());
+    }
+
+    /**
+     * Tests that setting the amount wanted keeps what is held
+     */
+    @Test
+    public void testSetKeepsHolds() {
+        NeedStock stock = new NeedStock();
+        stock.set(5);
+        stock.change(-4, 4);
+
+        stock.set(2);
+
+        assertEquals(4, stock.held());
+        assertEquals(-2, stock.available());
+        assertFalse(stock.change(-1, 0));
+        assertTrue(stock.change(4, -4));   // the hold runs out
+        assertEquals(2, stock.available());
+    }
+
+    /**
+     * Tests that adjusting the amount wanted keeps what is held and what was taken
+     */
+    @Test
+    public void testAdjustKeepsClaims() {
+        NeedStock stock = new NeedStock();
+        stock.set(10);
+        stock.change(-2, 2);               // hold 2
+        stock.change(-3, 0);               // a checkout takes 3
+
+        stock.adjust(4);                   // the cost is raised by 4
+
+        assertEquals(2, stock.held());
+        assertEquals(9, stock.available());
+        assertEquals(11, stock.wanted());
+    }
+
+    /**
+     * Tests that holds outlasting a lowered cost are funded only while something
+     * is still wanted
+     */
+    @Test
+    public void testHoldsPastLoweredCost() {
+        NeedStock stock = new NeedStock();
+        stock.set(10);
+        stock.change(-5, 5);
+        stock.change(-5, 5);
+
+        stock.set(6);
+
+        assertTrue(stock.change(0, -5));   // the first hold is funded, 1 is still wanted
+        assertFalse(stock.change(0, -5));  // the second would go past the cost
+        assertEquals(1, stock.wanted());
+        assertTrue(stock.change(5, -5));   // it is handed back instead
+        assertEquals(1, stock.available());
+    }
+}
@@ -0,0 +1,64 @@
+package com.ufund.api.ufundapi.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import com.ufund.api.ufundapi.model.Need;
+
+/**
+ * Test the Need Trie class
+ */
+@Tag("Persistence-Tier")
+public class NeedTrieTest {
+
+    /**
+     * Tests that a changed trie leaves the trie it came from as it was
+     */
+    @Test
+    public void testWithAndWithout() {
+        Need honey = new Need(3, "Honey", 10, 0, "Food", "");
+        Need wax = new Need(7, "Wax", 5, 0, "Gear", "");
+        NeedTrie first = NeedTrie.EMPTY.with(honey);
+        NeedTrie second = first.with(wax).without(3);
+
+        assertSame(honey, first.get(3));
+        assertNull(first.get(7));
+        assertEquals(1, first.size());
+        assertNull(second.get(3));
+        assertSame(wax, second.get(7));
+        assertEquals(1, second.size());
+        assertSame(second, second.without(3));
+        assertEquals(0, second.without(7).size());
+    }
+
+    /**
+     * Tests that needs are listed in id order, negative ids first, and paged from an id
+     */
+    @Test
+    public void testOrder() {
+        NeedTrie trie = NeedTrie.EMPTY;
+        int[] ids = {40, -2, 7, Integer.MAX_VALUE, 0, 1 << 20, Integer.MIN_VALUE};
+        for (int id : ids) {
+            trie = trie.with(new Need(id, "Need " + id, 1, 0, "Food", ""));
+        }
+
+        Need[] all = trie.toArray();
+        int[] sorted = {Integer.MIN_VALUE, -2, 0, 7, 40, 1 << 20, Integer.MAX_VALUE};
+        assertEquals(sorted.length, all.length);
+        for (int i = 0; i < sorted.length; i++) {
+            assertEquals(sorted[i], all[i].getId());
+        }
+
+        Need[] page = trie.after(0, 2);
+        assertEquals(2, page.length);
+        assertEquals(7, page[0].getId());
+        assertEquals(40, page[1].getId());
+        assertEquals(6, trie.after(Integer.MIN_VALUE, 10).length);
+        assertEquals(0, trie.after(Integer.MAX_VALUE, 10).length);
+        assertEquals(0, trie.after(0, 0).length);
+    }
+}
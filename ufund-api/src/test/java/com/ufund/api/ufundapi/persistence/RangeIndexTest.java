@@ -0,0 +1,75 @@
+package com.ufund.api.ufundapi.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import com.ufund.api.ufundapi.model.Need;
+
+/**
+ * Test the Range Index class
+ */
+@Tag("Persistence-Tier")
+public class RangeIndexTest {
+
+    /**
+     * Lists the ids a range yields, in order
+     */
+    private static List<Integer> ids(RangeIndex index, int min, int max, boolean descending) {
+        List<Integer> ids = new ArrayList<>();
+        for (Integer id : index.ids(min, max, descending)) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    /**
+     * Tests that a range yields its needs ordered by value, lowest id first among equals
+     */
+    @Test
+    public void testRangeOrder() {
+        RangeIndex index = new RangeIndex(Need::getCost);
+        index.add(new Need(3, "Wax", 20, 1, "Gear", ""));
+        index.add(new Need(1, "Honey", 10, 1, "Food", ""));
+        index.add(new Need(2, "Comb", 20, 1, "Gear", ""));
+        index.add(new Need(4, "Hive", 50, 1, "Gear", ""));
+
+        assertEquals(List.of(1, 2, 3), ids(index, 0, 20, false));
+        assertEquals(List.of(4, 2, 3), ids(index, 15, 100, true));
+        assertEquals(List.of(), ids(index, 30, 40, false));
+        assertEquals(List.of(), ids(index, 40, 30, false));
+    }
+
+    /**
+     * Tests that counting stops once enough needs are found
+     */
+    @Test
+    public void testCount() {
+        RangeIndex index = new RangeIndex(Need::getQuantity);
+        for (int id = 0; id < 10; id++) {
+            index.add(new Need(id, "Need " + id, 1, id, "Food", ""));
+        }
+        assertEquals(5, index.count(0, 4, 100));
+        assertEquals(3, index.count(0, 9, 3));
+    }
+
+    /**
+     * Tests that a removed need leaves the range and empty values are dropped
+     */
+    @Test
+    public void testRemove() {
+        RangeIndex index = new RangeIndex(Need::getCost);
+        Need honey = new Need(1, "Honey", 10, 1, "Food", "");
+        index.add(honey);
+        index.add(new Need(2, "Wax", 10, 1, "Gear", ""));
+
+        index.remove(honey);
+        assertEquals(List.of(2), ids(index, 10, 10, false));
+        index.remove(new Need(2, "Wax", 10, 1, "Gear", ""));
+        assertEquals(0, index.count(Integer.MIN_VALUE, Integer.MAX_VALUE, 10));
+    }
+}
@@ -2,16 +2,23 @@ package com.ufund.api.ufundapi.persistence;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.ufund.api.ufundapi.model.Session;
 
@@ -26,7 +33,24 @@ public class SessionFileDAOTest {
     private ObjectMapper mockObjectMapper;
     private SessionFileDAO sessionFileDAO;
     Session[] testSessions;
-    String filename = "filename";
+    @TempDir
+    Path tempDir;
+    String filename;
+
+    /**
+     * Creates a mock Object Mapper whose writes leave a file behind, since the
+     * DAO moves what it writes over the file
+     * @return The mock
+     * @throws IOException
+     */
+    private ObjectMapper mockMapper() throws IOException{
+        ObjectMapper mapper = mock(ObjectMapper.class);
+        doAnswer(invocation -> {
+            Files.writeString(invocation.<File>getArgument(0).toPath(), "[]");
+            return null;
+        }).when(mapper).writeValue(any(File.class), any());
+        return mapper;
+    }
 
     /**
      * Before each test, we will create and inject a Mock Object Mapper to
@@ -35,7 +59,8 @@ public class SessionFileDAOTest {
      */
     @BeforeEach
     public void setupSessionFileDAO() throws IOException{
-        mockObjectMapper = mock(ObjectMapper.class);
+        filename = tempDir.resolve("sessions.json").toString();
+        mockObjectMapper = mockMapper();
         testSessions = new Session[3];
         testSessions[0] = new Session(1, "user1", java.lang.System.currentTimeMillis() + 9999999);
         testSessions[1] = new Session(2, "user2", java.lang.System.currentTimeMillis() + 9999999);
@@ -46,6 +71,7 @@ public class SessionFileDAOTest {
                 .thenReturn(testSessions);
 
         this.sessionFileDAO = new SessionFileDAO(filename, mockObjectMapper);
+        this.sessionFileDAO.start();
     }
 
     /**
@@ -107,7 +133,7 @@ public class SessionFileDAOTest {
      */
     @Test
     public void testGetSessionByUserNoSessions() throws IOException{
-        mockObjectMapper = mock(ObjectMapper.class);
+        mockObjectMapper = mockMapper();
         testSessions = new Session[0];
 
         when(mockObjectMapper
@@ -115,6 +141,7 @@ public class SessionFileDAOTest {
                 .thenReturn(testSessions);
 
         this.sessionFileDAO = new SessionFileDAO(filename, mockObjectMapper);
+        this.sessionFileDAO.start();
         
         String username = "user1";
         Session res = sessionFileDAO.getSessionByUser(username);
@@ -126,7 +153,7 @@ public class SessionFileDAOTest {
      */
     @Test
     public void testGetSessionByUserNullUsername() throws IOException{
-        mockObjectMapper = mock(ObjectMapper.class);
+        mockObjectMapper = mockMapper();
         testSessions = new Session[1];
         testSessions[0] = new Session(1, null, 10000);
 
@@ -135,6 +162,7 @@ public class SessionFileDAOTest {
                 .thenReturn(testSessions);
 
         this.sessionFileDAO = new SessionFileDAO(filename, mockObjectMapper);
+        this.sessionFileDAO.start();
         
         String username = "user1";
         Session res = sessionFileDAO.getSessionByUser(username);
@@ -293,7 +321,7 @@ public class SessionFileDAOTest {
      */
     @Test
     public void testIsAuthorizedAdminExpired() throws IOException{
-        mockObjectMapper = mock(ObjectMapper.class);
+        mockObjectMapper = mockMapper();
         testSessions = new Session[1];
         testSessions[0] = new Session(3, "admin", 0);
 
@@ -302,6 +330,7 @@ public class SessionFileDAOTest {
                 .thenReturn(testSessions);
 
         this.sessionFileDAO = new SessionFileDAO(filename, mockObjectMapper);
+        this.sessionFileDAO.start();
 
         int id = 3;
         String username = "admin";
@@ -317,7 +346,7 @@ public class SessionFileDAOTest {
      */
     @Test
     public void testIsAuthorizedAdminExpiredID() throws IOException{
-        mockObjectMapper = mock(ObjectMapper.class);
+        mockObjectMapper = mockMapper();
         testSessions = new Session[1];
         testSessions[0] = new Session(3, "admin", 0);
 
@@ -326,6 +355,7 @@ public class SessionFileDAOTest {
                 .thenReturn(testSessions);
 
         this.sessionFileDAO = new SessionFileDAO(filename, mockObjectMapper);
+        this.sessionFileDAO.start();
 
         int id = 3;
         String username = "admin";
@@ -341,7 +371,7 @@ public class SessionFileDAOTest {
      */
     @Test
     public void testIsAuthorizedNoAdmins() throws IOException{
-        mockObjectMapper = mock(ObjectMapper.class);
+        mockObjectMapper = mockMapper();
         testSessions = new Session[0];
 
         when(mockObjectMapper
@@ -349,6 +379,7 @@ public class SessionFileDAOTest {
                 .thenReturn(testSessions);
 
         this.sessionFileDAO = new SessionFileDAO(filename, mockObjectMapper);
+        this.sessionFileDAO.start();
 
         int id = 3;
         String username = "admin";
@@ -364,7 +395,7 @@ public class SessionFileDAOTest {
      */
     @Test
     public void testIsAuthorizedNoAdminsID() throws IOException{
-        mockObjectMapper = mock(ObjectMapper.class);
+        mockObjectMapper = mockMapper();
         testSessions = new Session[0];
 
         when(mockObjectMapper
@@ -372,6 +403,7 @@ public class SessionFileDAOTest {
                 .thenReturn(testSessions);
 
         this.sessionFileDAO = new SessionFileDAO(filename, mockObjectMapper);
+        this.sessionFileDAO.start();
 
         int id = 3;
         String username = "admin";
@@ -501,4 +533,180 @@ public class SessionFileDAOTest {
         boolean res = sessionFileDAO.isAuthorized(testSession, username, false);
         assertFalse(res);
     }
+
+    /**
+     * Tests that refreshing a session restarts its timer
+     */
+    @Test
+    public void testRefreshSession() throws IOException{
+        int id = 4;
+        String username = "user4";
+        sessionFileDAO.updateSession(new Session(id, username, 0));
+        sessionFileDAO.createSession(id, username);
+        sessionFileDAO.updateSession(new Session(id, username, 0));
+        assertTrue(sessionFileDAO.isExpired(sessionFileDAO.getSession(id)));
+
+        Session res = sessionFileDAO.refreshSession(id, username);
+        assertEquals(id, res.getId());
+        assertFalse(sessionFileDAO.isExpired(sessionFileDAO.getSession(id)));
+    }
+
+    /**
+     * Tests that a checkpoint failing part way through leaves the last one whole
+     */
+    @Test
+    public void testFailedCheckpointKeepsFile() throws IOException{
+        Files.writeString(Path.of(filename), "[]");
+        doAnswer(invocation -> {
+            Files.writeString(invocation.<File>getArgument(0).toPath(), "[{\"id\":");
+            throw new IOException("disk full");
+        }).when(mockObjectMapper).writeValue(any(File.class), any());
+
+        assertThrows(IOException.class, () -> sessionFileDAO.createSession(4, "user4"));
+        assertEquals("[]", Files.readString(Path.of(filename)));
+    }
+
+    /**
+     * Tests that a session cant be refreshed if the username passed is null
+     */
+    @Test
+    public void testRefreshSessionNullUser() throws IOException{
+        assertNull(sessionFileDAO.refreshSession(99, null));
+    }
+
+    /**
+     * Tests that sessions only reach the file at a checkpoint in async mode
+     */
+    @Test
+    public void testAsyncCheckpointsOnClose(@TempDir Path tempDir) throws IOException{
+        ObjectMapper mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        Path file = tempDir.resolve("sessions.json");
+        Files.writeString(file, "[]");
+        SessionFileDAO dao = new SessionFileDAO(file.toString(), mapper, "async", 60000, 0, 1000, 0);
+        dao.start();
+
+        dao.createSession(1, "user1");
+        dao.refreshSession(1, "user1");
+        assertEquals(0, mapper.readValue(file.toFile(), Session[].class).length);
+
+        dao.close();
+        assertEquals(1, mapper.readValue(file.toFile(), Session[].class).length);
+    }
+
+    /**
+     * Tests that sessions never reach the file when persistence is turned off
+     */
+    @Test
+    public void testNoneNeverWrites(@TempDir Path tempDir) throws IOException{
+        ObjectMapper mapper = new ObjectMapper();
+        Path file = tempDir.resolve("sessions.json");
+        Files.writeString(file, "[]");
+        SessionFileDAO dao = new SessionFileDAO(file.toString(), mapper, "none", 60000, 0, 1000, 0);
+        dao.start();
+
+        dao.createSession(1, "user1");
+        dao.close();
+        assertEquals("[]", Files.readString(file));
+        assertEquals("user1", dao.getSession(1).getUserName());
+    }
+
+    /**
+     * Tests that a session can be gotten by username after it was replaced
+     */
+    @Test
+    public void testGetSessionByUserAfterUpdate() throws IOException{
+        sessionFileDAO.updateSession(new Session(1, "renamed", java.lang.System.currentTimeMillis()));
+
+        assertNull(sessionFileDAO.getSessionByUser("user1"));
+        assertEquals(1, sessionFileDAO.getSessionByUser("renamed").getId());
+    }
+
+    /**
+     * Tests that a session cant be gotten by username after it was deleted
+     */
+    @Test
+    public void testGetSessionByUserAfterDelete() throws IOException{
+        sessionFileDAO.deleteSession(3);
+
+        assertNull(sessionFileDAO.getSessionByUser("admin"));
+        assertFalse(sessionFileDAO.isAuthorized(null, null, true));
+    }
+
+    /**
+     * Tests that only expired sessions are removed
+     */
+    @Test
+    public void testRemoveExpiredSessions() throws IOException{
+        sessionFileDAO.updateSession(new Session(1, "user1", 0));
+        sessionFileDAO.updateSession(new Session(2, "user2", 5));
+
+        assertEquals(2, sessionFileDAO.removeExpiredSessions());
+        assertNull(sessionFileDAO.getSession(1));
+        assertNull(sessionFileDAO.getSessionByUser("user2"));
+        assertEquals(3, sessionFileDAO.getSessionByUser("admin").getId());
+        assertEquals(0, sessionFileDAO.removeExpiredSessions());
+    }
+
+    /**
+     * Tests that a sweep removes every expired session even when it takes more than one batch
+     */
+    @Test
+    public void testRemoveExpiredSessionsInBatches(@TempDir Path tempDir) throws IOException{
+        Path file = tempDir.resolve("sessions.json");
+        Files.writeString(file, "[]");
+        SessionFileDAO dao = new SessionFileDAO(file.toString(), new ObjectMapper(), "none", 60000, 0, 2, 0);
+        dao.start();
+        for (int id = 1; id <= 5; id++){
+            dao.createSession(id, "user" + id);
+            dao.updateSession(new Session(id, "user" + id, id));
+        }
+        dao.createSession(6, "user6");
+
+        assertEquals(5, dao.removeExpiredSessions());
+        assertNull(dao.getSession(5));
+        assertEquals("user6", dao.getSession(6).getUserName());
+    }
+
+    /**
+     * Tests that the least recently validated session is evicted once the cap is reached
+     */
+    @Test
+    public void testMaxSessionsEvictsLeastRecent(@TempDir Path tempDir) throws IOException{
+        Path file = tempDir.resolve("sessions.json");
+        Files.writeString(file, "[]");
+        SessionFileDAO dao = new SessionFileDAO(file.toString(), new ObjectMapper(), "none", 60000, 0, 1000, 2);
+        dao.start();
+        dao.createSession(1, "user1");
+        dao.createSession(2, "user2");
+        long now = java.lang.System.currentTimeMillis();
+        dao.updateSession(new Session(1, "user1", now - 2000));
+        dao.updateSession(new Session(2, "user2", now - 1000));
+
+        // validating user1 again makes user2 the least recent
+        dao.refreshSession(1, "user1");
+        dao.createSession(3, "user3");
+
+        assertNull(dao.getSessionByUser("user2"));
+        assertEquals(1, dao.getSessionByUser("user1").getId());
+        assertEquals(3, dao.getSessionByUser("user3").getId());
+    }
+
+    /**
+     * Tests that the background reaper removes expired sessions on its own
+     */
+    @Test
+    public void testReaperRemovesExpiredSessions(@TempDir Path tempDir) throws Exception{
+        Path file = tempDir.resolve("sessions.json");
+        Files.writeString(file, "[]");
+        SessionFileDAO dao = new SessionFileDAO(file.toString(), new ObjectMapper(), "none", 60000, 10, 1000, 0);
+        dao.start();
+        dao.createSession(1, "user1");
+        dao.updateSession(new Session(1, "user1", 0));
+
+        for (int i = 0; i < 200 && dao.getSession(1) != null; i++){
+            Thread.sleep(10);
+        }
+        dao.close();
+        assertNull(dao.getSessionByUser("user1"));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,108 @@
+package com.ufund.api.ufundapi.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test the Timing Wheel class
+ */
+@Tag("Persistence-Tier")
+public class TimingWheelTest {
+
+    /**
+     * Tests that items expire in deadline order, never early, including items due
+     * more than one turn of the ring away
+     */
+    @Test
+    public void testExpiry() {
+        List<String> expired = new ArrayList<>();
+        TimingWheel<String> wheel = new TimingWheel<>(100, 4, 0, expired::add);
+        wheel.schedule("late", 950);   // two turns of the ring away
+        wheel.schedule("soon", 150);
+        wheel.schedule("past", -500);  // already due
+
+        wheel.advance(100);
+        assertEquals(List.of("past"), expired);
+        wheel.advance(199);
+        assertEquals(List.of("past"), expired);
+        wheel.advance(200);
+        assertEquals(List.of("past", "soon"), expired);
+        wheel.advance(900);
+        assertEquals(2, expired.size());
+        wheel.advance(1000);
+        assertEquals(List.of("past", "soon", "late"), expired);
+    }
+
+    /**
+     * Tests that one advance across many ticks expires everything due in them
+     */
+    @Test
+    public void testAdvanceCatchesUp() {
+        List<Integer> expired = new ArrayList<>();
+        TimingWheel<Integer> wheel = new TimingWheel<>(10, 8, 1000, expired::add);
+        for (int i = 0; i < 20; i++) {
+            wheel.schedule(i, 1000 + i * 10);
+        }
+
+        wheel.advance(1095);
+
+        assertEquals(10, expired.size());
+        wheel.advance(5000);
+        assertEquals(20, expired.size());
+    }
+
+    /**
+     * Tests that items scheduled while the wheel advances are never left in a
+     * slot it has already emptied, which would make them a whole turn late
+     */
+    @Test
+    public void testScheduleWhileAdvancing() throws InterruptedException {
+        AtomicLong clock = new AtomicLong();
+        ConcurrentHashMap<Long, Long> expiredAt = new ConcurrentHashMap<>();
+        TimingWheel<Long> wheel = new TimingWheel<>(1, 8, 0, item -> expiredAt.put(item, clock.get()));
+        ConcurrentHashMap<Long, Long> scheduledBy = new ConcurrentHashMap<>();
+        AtomicBoolean done = new AtomicBoolean();
+
+        Thread advancer = new Thread(() -> {
+            while (!done.get()) {
+                wheel.advance(clock.incrementAndGet());
+            }
+        });
+        advancer.start();
+        Thread[] schedulers = new Thread[4];
+        for (int t = 0; t < schedulers.length; t++) {
+            long first = t * 20000L;
+            schedulers[t] = new Thread(() -> {
+                for (long item = first; item < first + 20000; item++) {
+                    wheel.schedule(item, clock.get());
+                    scheduledBy.put(item, clock.get());
+                }
+            });
+            schedulers[t].start();
+        }
+        for (Thread scheduler : schedulers) {
+            scheduler.join();
+        }
+        long end = clock.get();
+        while (clock.get() < end + 2) {
+            Thread.onSpinWait();
+        }
+        done.set(true);
+        advancer.join();
+
+        assertEquals(80000, expiredAt.size());
+        for (Long item : expiredAt.keySet()) {
+            // due by the time schedule returned, so handed over by the next tick at the latest
+            assertTrue(expiredAt.get(item) <= scheduledBy.get(item) + 1, "item " + item + " expired a turn late");
+        }
+    }
+}
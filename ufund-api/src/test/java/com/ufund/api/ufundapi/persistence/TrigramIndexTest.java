@@ -0,0 +1,59 @@
+package com.ufund.api.ufundapi.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import com.ufund.api.ufundapi.model.Need;
+
+/**
+ * Test the Trigram Index class
+ */
+@Tag("Persistence-Tier")
+public class TrigramIndexTest {
+
+    /**
+     * Tests that only names holding every trigram of the query are candidates
+     */
+    @Test
+    public void testCandidates() {
+        TrigramIndex index = new TrigramIndex();
+        index.add(new Need(1, "Honey", 1, 1, "Food", ""));
+        index.add(new Need(2, "Honeycomb", 1, 1, "Food", ""));
+        index.add(new Need(3, "Money", 1, 1, "Funds", ""));
+
+        List<Integer> candidates = index.candidates("oney");
+        assertEquals(3, candidates.size());
+        candidates = index.candidates("honey");
+        assertEquals(2, candidates.size());
+        assertFalse(candidates.contains(3));
+        assertTrue(index.candidates("zzz").isEmpty());
+    }
+
+    /**
+     * Tests that a removed need is no longer a candidate
+     */
+    @Test
+    public void testRemove() {
+        TrigramIndex index = new TrigramIndex();
+        Need honey = new Need(1, "Honey", 1, 1, "Food", "");
+        index.add(honey);
+        index.remove(honey);
+
+        assertTrue(index.candidates("hon").isEmpty());
+    }
+
+    /**
+     * Tests that queries shorter than a trigram cannot use the index
+     */
+    @Test
+    public void testCanSearch() {
+        assertFalse(TrigramIndex.canSearch("ho"));
+        assertTrue(TrigramIndex.canSearch("hon"));
+    }
+}
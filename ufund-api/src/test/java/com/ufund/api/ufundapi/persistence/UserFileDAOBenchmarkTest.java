@@ -0,0 +1,124 @@
+package com.ufund.api.ufundapi.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ufund.api.ufundapi.model.Need;
+import com.ufund.api.ufundapi.model.User;
+import com.ufund.api.ufundapi.persistence.WriteBehindFlusher.Durability;
+
+/**
+ * Measures basket update throughput of the User File DAO under concurrent load
+ * for every durability and lock striping, and checks that no update is lost along the way
+ */
+@Tag("Benchmark")
+public class UserFileDAOBenchmarkTest {
+    private static final Logger LOG = Logger.getLogger(UserFileDAOBenchmarkTest.class.getName());
+    private static final int USERS = 200;
+    private static final int THREADS = 8;
+    private static final int OPS_PER_THREAD = 100;
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Runs the same concurrent basket workload against each durability and logs the throughput
+     */
+    @Test
+    public void benchmarkBasketUpdates() throws Exception {
+        for (Durability durability : new Durability[] {Durability.SYNC, Durability.GROUP, Durability.ASYNC}) {
+            double opsPerSecond = run(durability, UserFileDAO.DEFAULT_STRIPES);
+            LOG.info(String.format("UserFileDAO %-5s %,12.0f basket updates/s", durability, opsPerSecond));
+        }
+    }
+
+    /**
+     * Runs the same workload behind a single lock, as every operation used to
+     * share, and behind the default stripes, keeping the file out of the way
+     */
+    @Test
+    public void benchmarkLockStriping() throws Exception {
+        for (int stripes : new int[] {1, UserFileDAO.DEFAULT_STRIPES}) {
+            double opsPerSecond = run(Durability.ASYNC, stripes);
+            LOG.info(String.format("UserFileDAO %3d lock(s) %,12.0f basket updates/s", stripes, opsPerSecond));
+        }
+    }
+
+    /**
+     * Has every thread add and remove needs in the baskets of its own users, then
+     * checks that the file written on close matches memory
+     *
+     * @param durability The durability to run with
+     * @param stripes The number of locks the users are spread across
+     * @return The basket updates per second
+     */
+    private double run(Durability durability, int stripes) throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        Path file = tempDir.resolve("users-" + durability + "-" + stripes + ".json");
+        Files.writeString(file, "[]");
+        UserFileDAO dao = new UserFileDAO(file.toString(), mapper, durability.name(), 50, 500, false, stripes);
+        dao.start();
+
+        int[] ids = new int[USERS];
+        for (int i = 0; i < USERS; i++) {
+            ids[i] = dao.createUser(new User(0, "helper" + i, "pw", new ArrayList<String>())).getId();
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (int op = 0; op < OPS_PER_THREAD; op++) {
+                        int id = ids[(thread + op * THREADS) % USERS];
+                        Need need = new Need(op, "Need " + op, 10, 1, "Food", "bench");
+                        dao.addNeed(id, need);
+                        dao.getBasket(id);
+                        if (op % 2 == 1) {
+                            dao.removeNeed(id, need);
+                        }
+                    }
+                } catch (InterruptedException | IOException e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) thread.join();
+        long elapsed = System.nanoTime() - begin;
+        dao.close();
+
+        assertEquals(0, failures.size());
+        int expected = 0;
+        for (User user : dao.getAllUsers()) {
+            expected += user.getBasket().size();
+        }
+        int written = 0;
+        for (User user : mapper.readValue(file.toFile(), User[].class)) {
+            written += user.getBasket().size();
+        }
+        assertEquals(expected, written);
+
+        int updates = THREADS * OPS_PER_THREAD * 3 / 2;
+        return updates / (elapsed / 1_000_000_000.0);
+    }
+}
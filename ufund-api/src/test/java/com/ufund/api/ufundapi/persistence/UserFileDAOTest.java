@@ -2,20 +2,28 @@ package com.ufund.api.ufundapi.persistence;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.ufund.api.ufundapi.model.BasketNeed;
@@ -27,6 +35,9 @@ public class UserFileDAOTest {
     UserFileDAO userFileDAO;
     User[] testUsers;
     ObjectMapper mockObjectMapper;
+    @TempDir
+    Path tempDir;
+    String filename;
      /**
      * Before each test, we will create and inject a Mock Object Mapper to
      * isolate the tests from the underlying file
@@ -43,10 +54,17 @@ public class UserFileDAOTest {
 
         // When the object mapper is supposed to read from the file
         // the mock object mapper will return the hero array above
+        filename = tempDir.resolve("doesnt_matter.txt").toString();
         when(mockObjectMapper
-            .readValue(new File("doesnt_matter.txt"),User[].class))
+            .readValue(new File(filename),User[].class))
                 .thenReturn(testUsers);
-        userFileDAO = new UserFileDAO("doesnt_matter.txt",mockObjectMapper);
+        // The DAO moves what it writes over the file, so the write has to leave one behind
+        doAnswer(invocation -> {
+            Files.writeString(invocation.<File>getArgument(0).toPath(), "[]");
+            return null;
+        }).when(mockObjectMapper).writeValue(any(File.class), any());
+        userFileDAO = new UserFileDAO(filename,mockObjectMapper);
+        userFileDAO.start();
     }
 
     @Test
@@ -56,13 +74,62 @@ public class UserFileDAOTest {
 
         assertEquals(users.length, testUsers.length);
         for(int i = 0; i < testUsers.length;i++){
-            assertEquals(users[i], testUsers[i]);
+            assertSameUser(testUsers[i], users[i]);
         }
     }
+    /**
+     * Tests that pages of users follow on from the cursor in id order
+     */
+    @Test
+    public void testGetUsersPage() throws IOException{
+        User[] first = userFileDAO.getUsersPage(Integer.MIN_VALUE, 2);
+        User[] second = userFileDAO.getUsersPage(first[1].getId(), 2);
+
+        assertSameUser(testUsers[0], first[0]);
+        assertSameUser(testUsers[1], first[1]);
+        assertEquals(1, second.length);
+        assertSameUser(testUsers[2], second[0]);
+        assertEquals(0, userFileDAO.getUsersPage(3, 2).length);
+    }
+
+    @Test
+    public void testStreamUsers() throws IOException{
+        User[] streamed = userFileDAO.streamUsers().toArray(User[]::new);
+
+        assertEquals(testUsers.length, streamed.length);
+        for (int i = 0; i < testUsers.length; i++) {
+            assertEquals(testUsers[i].getId(), streamed[i].getId());
+            assertEquals(testUsers[i].getUserName(), streamed[i].getUserName());
+            assertNotSame(userFileDAO.getUser(testUsers[i].getId()), streamed[i]);
+        }
+    }
+
+    /**
+     * Checks that a user handed out by the DAO is a copy of the one it stores
+     */
+    private static void assertSameUser(User expected, User actual) {
+        assertNotSame(expected, actual);
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getUserName(), actual.getUserName());
+        assertEquals(expected.getPassword(), actual.getPassword());
+    }
+
     @Test
     public void testGetUser() throws IOException{
         User user = userFileDAO.getUser(1);
-        assertEquals(user, testUsers[0]);
+        assertSameUser(testUsers[0], user);
+    }
+
+    /**
+     * Tests that the user handed out is not changed by later changes to the basket
+     */
+    @Test
+    public void testGetUserIsCopy() throws IOException{
+        User user = userFileDAO.getUser(1);
+        userFileDAO.addNeed(1, new Need(5, "Honey", 10, 0, "Food", "Raw"));
+
+        assertEquals(0, user.getBasket().size());
+        assertEquals(1, userFileDAO.getUser(1).getBasket().size());
     }
 
     @Test
@@ -84,7 +151,37 @@ public class UserFileDAOTest {
     @Test
     public void testGetUserByName()throws IOException{
         User user = userFileDAO.getUserByName("John Dough");
-        assertEquals(user, testUsers[0]);
+        assertSameUser(testUsers[0], user);
+    }
+
+    @Test
+    public void testGetUserByNameDNE() throws IOException{
+        assertNull(userFileDAO.getUserByName("Nobody"));
+        assertNull(userFileDAO.getUserByName("john dough"));
+    }
+
+    @Test
+    public void testGetUserByNameCaseInsensitive() throws IOException{
+        userFileDAO = new UserFileDAO(filename, mockObjectMapper, "sync", 1000, 100, true, UserFileDAO.DEFAULT_STRIPES);
+        userFileDAO.start();
+        User user = userFileDAO.getUserByName("john DOUGH");
+        assertSameUser(testUsers[0], user);
+    }
+
+    @Test
+    public void testGetUserByNameAfterRename() throws IOException{
+        ArrayList<String> security = new ArrayList<String>();
+        userFileDAO.updateUser(new User(1, "John Renamed","",security));
+
+        assertNull(userFileDAO.getUserByName("John Dough"));
+        assertEquals(1, userFileDAO.getUserByName("John Renamed").getId());
+        assertEquals(testUsers[0].getPassword(), userFileDAO.getUserByName("John Renamed").getPassword());
+    }
+
+    @Test
+    public void testGetUserByNameAfterDelete() throws IOException{
+        userFileDAO.deleteUser(1);
+        assertNull(userFileDAO.getUserByName("John Dough"));
     }
 
     @Test 
@@ -98,7 +195,7 @@ public class UserFileDAOTest {
         "Unexpected exception thrown");
         assertNotNull(result);
         User actual = userFileDAO.getUser(1);
-        assertEquals(user, actual);
+        assertSameUser(user, actual);
     }
     @Test 
     public void testDeleteUser() throws IOException {
@@ -145,6 +242,86 @@ public class UserFileDAOTest {
         assertTrue(userFileDAO.getBasket(user.getId()).isEmpty());
     }
 
+    /**
+     * Tests that the number of baskets holding a need follows needs being added
+     * and removed, baskets being taken and restored, and users being replaced and deleted
+     */
+    @Test
+    public void testCountBasketsWith() throws IOException {
+        Need water = new Need(1,"Water", 10, 1,"Food", "liquid");
+        Need bread = new Need(2,"Bread", 5, 1,"Food", "baked");
+        userFileDAO.addNeed(1, water);
+        userFileDAO.addNeed(2, water);
+        userFileDAO.addNeed(2, water);  // already there, so counted once
+        userFileDAO.addNeed(3, bread);
+        assertEquals(2, userFileDAO.countBasketsWith(1));
+        assertEquals(1, userFileDAO.countBasketsWith(2));
+
+        userFileDAO.removeNeed(1, water);
+        assertEquals(1, userFileDAO.countBasketsWith(1));
+
+        ArrayList<BasketNeed> taken = userFileDAO.takeBasket(2);
+        assertEquals(0, userFileDAO.countBasketsWith(1));
+        userFileDAO.restoreBasket(2, taken);
+        assertEquals(1, userFileDAO.countBasketsWith(1));
+
+        ArrayList<BasketNeed> basket = new ArrayList<>();
+        basket.add(new BasketNeed(2, 1));
+        userFileDAO.updateUser(new User(2, "Jerry Dream", "", false, basket, new ArrayList<String>()));
+        assertEquals(0, userFileDAO.countBasketsWith(1));
+        assertEquals(2, userFileDAO.countBasketsWith(2));
+
+        userFileDAO.deleteUser(3);
+        assertEquals(1, userFileDAO.countBasketsWith(2));
+        assertEquals(0, userFileDAO.countBasketsWith(99));
+    }
+
+    /**
+     * Tests that a need is taken out of every basket holding it and no other
+     */
+    @Test
+    public void testRemoveFromBaskets() throws IOException {
+        Need water = new Need(1,"Water", 10, 1,"Food", "liquid");
+        Need bread = new Need(2,"Bread", 5, 1,"Food", "baked");
+        userFileDAO.addNeed(1, water);
+        userFileDAO.addNeed(1, bread);
+        userFileDAO.addNeed(3, water);
+
+        assertEquals(2, userFileDAO.removeFromBaskets(1));
+
+        assertFalse(userFileDAO.needExists(1, water));
+        assertTrue(userFileDAO.needExists(1, bread));
+        assertFalse(userFileDAO.needExists(3, water));
+        assertEquals(0, userFileDAO.countBasketsWith(1));
+        assertEquals(0, userFileDAO.removeFromBaskets(1));
+    }
+
+    /**
+     * Tests that taking a basket empties it and restoring it keeps needs added since
+     */
+    @Test
+    public void testTakeAndRestoreBasket() throws IOException {
+        User user = testUsers[0];
+        Need need1 = new Need(1,"Water", 10, 1,"Food", "liquid");
+        Need need2 = new Need(2,"Bread", 5, 1,"Food", "baked");
+        userFileDAO.addNeed(user.getId(), need1);
+        userFileDAO.addNeed(user.getId(), need2);
+
+        ArrayList<BasketNeed> taken = userFileDAO.takeBasket(user.getId());
+
+        assertEquals(2, taken.size());
+        assertTrue(userFileDAO.getBasket(user.getId()).isEmpty());
+        assertTrue(userFileDAO.takeBasket(user.getId()).isEmpty());
+
+        userFileDAO.addNeed(user.getId(), need2);
+        userFileDAO.restoreBasket(user.getId(), taken);
+        ArrayList<BasketNeed> basket = userFileDAO.getBasket(user.getId());
+        assertEquals(2, basket.size());
+        assertEquals(1, basket.get(0).getNeedId());
+        assertEquals(2, basket.get(1).getNeedId());
+        assertNull(userFileDAO.takeBasket(99));
+    }
+
     /**
      * Tests that you can edit the count of a need in a users basket
      */
@@ -209,6 +386,28 @@ public class UserFileDAOTest {
         assertNull(res);
     }
 
+    /**
+     * Tests that concurrent basket changes to different users are all kept
+     */
+    @Test
+    public void testConcurrentBasketUpdates() throws Exception {
+        List<Thread> threads = new ArrayList<>();
+        for (User user : testUsers) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 50; i++) {
+                    int needId = 100 + i; // a basket holds each need once
+                    assertDoesNotThrow(() -> userFileDAO.addNeed(user.getId(), new Need(needId, "Water", 10, 1, "Food", "liquid")));
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+
+        for (User user : testUsers) {
+            assertEquals(50, userFileDAO.getBasket(user.getId()).size());
+        }
+    }
+
     /**
      * Tests that you cant get users basket if the user doesnt exist
      */
@@ -255,9 +454,57 @@ public class UserFileDAOTest {
 
         boolean res = userFileDAO.userExists(user);
         assertTrue(res);
-    }  
-
-}
+    }
 
+    /**
+     * Tests that in async mode changes stay in memory until the DAO is closed
+     */
+    @Test
+    public void testAsyncWritesOnClose(@TempDir Path tempDir) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        Path file = tempDir.resolve("users.json");
+        Files.writeString(file, "[]");
+        UserFileDAO dao = new UserFileDAO(file.toString(), mapper, "async", 60000, 1000, false, UserFileDAO.DEFAULT_STRIPES);
+        dao.start();
+
+        dao.createUser(new User(0, "Async Andy", "pw", new ArrayList<String>()));
+        assertEquals(0, mapper.readValue(file.toFile(), User[].class).length);
+
+        dao.close();
+        assertEquals(1, mapper.readValue(file.toFile(), User[].class).length);
+    }
 
+    /**
+     * Tests that in group mode a change is in the file by the time the call returns
+     */
+    @Test
+    public void testGroupWritesBeforeReturning(@TempDir Path tempDir) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        Path file = tempDir.resolve("users.json");
+        Files.writeString(file, "[]");
+        UserFileDAO dao = new UserFileDAO(file.toString(), mapper, "group", 60000, 1000, false, UserFileDAO.DEFAULT_STRIPES);
+        dao.start();
+
+        User user = dao.createUser(new User(0, "Group Gina", "pw", new ArrayList<String>()));
+        dao.addNeed(user.getId(), new Need(1,"Water", 10, 1,"Food", "liquid"));
+
+        User[] written = mapper.readValue(file.toFile(), User[].class);
+        assertEquals(1, written.length);
+        assertEquals(1, written[0].getBasket().size());
+    }
 
+    /**
+     * Tests that a write failing part way through leaves the file as it was
+     */
+    @Test
+    public void testFailedWriteKeepsFile() throws IOException {
+        Files.writeString(Path.of(filename), "[\"old\"]");
+        doAnswer(invocation -> {
+            Files.writeString(invocation.<File>getArgument(0).toPath(), "[{\"id\":");
+            throw new IOException("disk full");
+        }).when(mockObjectMapper).writeValue(any(File.class), any());
+
+        assertThrows(IOException.class, () -> userFileDAO.createUser(new User(0, "Half Written", "pw", new ArrayList<String>())));
+        assertEquals("[\"old\"]", Files.readString(Path.of(filename)));
+    }
+}
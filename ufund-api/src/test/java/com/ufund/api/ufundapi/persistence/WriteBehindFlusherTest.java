@@ -0,0 +1,110 @@
+package com.ufund.api.ufundapi.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import com.ufund.api.ufundapi.persistence.WriteBehindFlusher.Durability;
+
+/**
+ * Test the Write Behind Flusher class
+ */
+@Tag("Persistence-Tier")
+public class WriteBehindFlusherTest {
+
+    /**
+     * Tests that sync mode writes on every commit
+     */
+    @Test
+    public void testSyncFlushesEveryCommit() throws IOException {
+        AtomicInteger flushes = new AtomicInteger();
+        WriteBehindFlusher flusher = new WriteBehindFlusher("test", Durability.SYNC, 1000, 10, flushes::incrementAndGet);
+
+        flusher.commit();
+        flusher.commit();
+
+        assertEquals(2, flushes.get());
+    }
+
+    /**
+     * Tests that group mode has written every commit by the time it returns
+     */
+    @Test
+    public void testGroupFlushesBeforeReturning() throws IOException {
+        AtomicInteger flushes = new AtomicInteger();
+        WriteBehindFlusher flusher = new WriteBehindFlusher("test", Durability.GROUP, 1000, 10, flushes::incrementAndGet);
+
+        flusher.commit();
+        assertEquals(1, flushes.get());
+
+        // nothing pending, so nothing more to write
+        flusher.flush();
+        assertEquals(1, flushes.get());
+    }
+
+    /**
+     * Tests that concurrent group commits share writes
+     */
+    @Test
+    public void testGroupCoalescesConcurrentCommits() throws Exception {
+        AtomicInteger flushes = new AtomicInteger();
+        WriteBehindFlusher flusher = new WriteBehindFlusher("test", Durability.GROUP, 1000, 10, () -> {
+            flushes.incrementAndGet();
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < 20; j++) {
+                    try {
+                        flusher.commit();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+
+        assertTrue(flushes.get() < 160);
+    }
+
+    /**
+     * Tests that async mode leaves the write to the interval, batch size or close
+     */
+    @Test
+    public void testAsyncDefersUntilClose() throws IOException {
+        AtomicInteger flushes = new AtomicInteger();
+        WriteBehindFlusher flusher = new WriteBehindFlusher("test", Durability.ASYNC, 60000, 1000, flushes::incrementAndGet);
+        flusher.start();
+
+        flusher.commit();
+        flusher.commit();
+        assertEquals(0, flushes.get());
+
+        flusher.close();
+        assertEquals(1, flushes.get());
+    }
+
+    /**
+     * Tests that durabilities are parsed regardless of case
+     */
+    @Test
+    public void testParseDurability() {
+        assertEquals(Durability.GROUP, Durability.parse(" group"));
+        assertEquals(Durability.ASYNC, Durability.parse("ASYNC"));
+    }
+}
@@ -0,0 +1,74 @@
+package com.ufund.api.ufundapi.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Measures importing a million needs from CSV on one thread and on every core,
+ * and checks that every row lands in the cupboard
+ */
+@Tag("Benchmark")
+public class CupboardImporterBenchmarkTest {
+    private static final Logger LOG = Logger.getLogger(CupboardImporterBenchmarkTest.class.getName());
+    private static final int NEEDS = 1_000_000;
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Imports the same generated CSV file with each thread count and logs the rows per second
+     */
+    @Test
+    public void benchmarkImport() throws IOException {
+        Path input = tempDir.resolve("needs.csv");
+        try (BufferedWriter writer = Files.newBufferedWriter(input, StandardCharsets.UTF_8)) {
+            writer.write("name,cost,quantity,type,description\n");
+            for (int i = 0; i < NEEDS; i++) {
+                writer.write("Supply " + i + "," + (5 + i % 50) + "," + (1 + i % 20) + "," + (i % 3 == 0 ? "Food" : "Gear")
+                             + ",\"Imported, for the season\"\n");
+            }
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads : new int[] {1, cores}) {
+            Path cupboard = tempDir.resolve("cupboard-" + threads + ".json");
+            CupboardImporter importer = new CupboardImporter(new ObjectMapper(), threads, CupboardImporter.DEFAULT_CHUNK_SIZE);
+            long begin = System.nanoTime();
+            CupboardImporter.Summary summary = importer.importFile(input, CupboardImporter.Format.CSV, cupboard, false);
+            double seconds = (System.nanoTime() - begin) / 1_000_000_000.0;
+            LOG.info(String.format("CupboardImporter %2d thread(s) %,12.0f needs/s", threads, NEEDS / seconds));
+
+            assertEquals(NEEDS, summary.getImported());
+            assertEquals(NEEDS, count(cupboard));
+        }
+    }
+
+    /**
+     * Counts the needs in a cupboard file without loading them all
+     */
+    private static long count(Path cupboard) throws IOException {
+        long count = 0;
+        try (JsonParser parser = new ObjectMapper().getFactory().createParser(cupboard.toFile())) {
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                count++;
+            }
+        }
+        return count;
+    }
+}
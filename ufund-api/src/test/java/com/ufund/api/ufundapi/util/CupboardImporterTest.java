@@ -0,0 +1,156 @@
+package com.ufund.api.ufundapi.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ufund.api.ufundapi.model.Need;
+import com.ufund.api.ufundapi.persistence.CupboardFileDAO;
+
+/**
+ * Test the Cupboard Importer class
+ */
+@Tag("Persistence-Tier")
+public class CupboardImporterTest {
+    @TempDir
+    Path tempDir;
+
+    private ObjectMapper mapper;
+    private CupboardImporter importer;
+    private Path cupboard;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        mapper = new ObjectMapper();
+        // tiny chunks so that even small inputs are split across several tasks
+        importer = new CupboardImporter(mapper, 3, 2);
+        cupboard = tempDir.resolve("cupboard.json");
+        Files.writeString(cupboard, "[]");
+    }
+
+    /**
+     * Tests that CSV records, including quoted commas, quotes and line breaks, are
+     * imported in order and bad rows are reported with their line
+     */
+    @Test
+    public void testImportCsv() throws IOException {
+        Path input = tempDir.resolve("needs.csv");
+        Files.writeString(input, String.join("\n",
+            "Name,Cost,Quantity,Type,Description",
+            "Honey,10,5,Food,Raw",
+            "\"Frame, deep\",20,2,Gear,\"Says \"\"deep\"\"\"",
+            "Smoker,abc,1,Gear,Broken cost",
+            "Wax,5,1,Gear,\"Two",
+            "lines\"",
+            ",5,1,Gear,No name",
+            "Veil,7,3,Gear,Last"));
+
+        CupboardImporter.Summary summary = importer.importFile(input, CupboardImporter.Format.CSV, cupboard, false);
+
+        assertEquals(4, summary.getImported());
+        assertEquals(2, summary.getRejected());
+        assertEquals(List.of("line 4: missing or invalid cost", "line 7: missing name"), summary.getErrors());
+        Need[] needs = mapper.readValue(cupboard.toFile(), Need[].class);
+        assertEquals("Honey", needs[0].getName());
+        assertEquals("Frame, deep", needs[1].getName());
+        assertEquals("Says \"deep\"", needs[1].getDescription());
+        assertEquals("Two\nlines", needs[2].getDescription());
+        assertEquals("Veil", needs[3].getName());
+        assertEquals(summary.getLastId(), needs[3].getId());
+    }
+
+    /**
+     * Tests that JSON lines are imported with fresh ids, ignoring the ids they carry
+     */
+    @Test
+    public void testImportJsonLines() throws IOException {
+        Path input = tempDir.resolve("needs.jsonl");
+        Files.writeString(input, String.join("\n",
+            "{\"id\":99,\"name\":\"Honey\",\"cost\":10,\"quantity\":5,\"type\":\"Food\",\"description\":\"Raw\"}",
+            "",
+            "{\"name\":\"Wax\",\"cost\":5,\"quantity\":-1}",
+            "not json",
+            "{\"name\":\"Comb\",\"cost\":3,\"quantity\":1}"));
+
+        CupboardImporter.Summary summary = importer.importFile(input, CupboardImporter.Format.of(input), cupboard, false);
+
+        assertEquals(2, summary.getImported());
+        assertEquals(2, summary.getRejected());
+        assertEquals("line 3: negative quantity", summary.getErrors().get(0));
+        CupboardFileDAO dao = new CupboardFileDAO(cupboard.toString(), mapper);
+        assertEquals(2, dao.getAllNeeds().length);
+        assertEquals("Honey", dao.getNeed(summary.getFirstId()).getName());
+        assertEquals(null, dao.getNeed(99));
+    }
+
+    /**
+     * Tests that appending keeps the existing needs and their log, and numbers
+     * the new needs after every id in either
+     */
+    @Test
+    public void testImportAppends() throws IOException {
+        CupboardFileDAO dao = new CupboardFileDAO(cupboard.toString(), mapper);
+        Need kept = dao.createNeed(new Need(0, "Kept", 1, 1, "Food", "Only in the log"));
+        Path input = tempDir.resolve("needs.csv");
+        Files.writeString(input, "name,cost,quantity\nHoney,10,5\n");
+
+        CupboardImporter.Summary summary = importer.importFile(input, CupboardImporter.Format.CSV, cupboard, true);
+
+        assertTrue(summary.getFirstId() > kept.getId());
+        CupboardFileDAO reloaded = new CupboardFileDAO(cupboard.toString(), mapper);
+        assertEquals(2, reloaded.getAllNeeds().length);
+        assertEquals("Kept", reloaded.getNeed(kept.getId()).getName());
+        assertEquals("Honey", reloaded.getNeed(summary.getFirstId()).getName());
+    }
+
+    /**
+     * Tests that replacing the cupboard drops its log as well
+     */
+    @Test
+    public void testImportReplaces() throws IOException {
+        CupboardFileDAO dao = new CupboardFileDAO(cupboard.toString(), mapper);
+        dao.createNeed(new Need(0, "Replaced", 1, 1, "Food", "Only in the log"));
+        Path input = tempDir.resolve("needs.csv");
+        Files.writeString(input, "name,cost,quantity\nHoney,10,5\n");
+
+        importer.importFile(input, CupboardImporter.Format.CSV, cupboard, false);
+
+        assertFalse(Files.exists(tempDir.resolve("cupboard.json.log")));
+        Need[] needs = new CupboardFileDAO(cupboard.toString(), mapper).getAllNeeds();
+        assertEquals(1, needs.length);
+        assertEquals("Honey", needs[0].getName());
+    }
+
+    /**
+     * Tests that a CSV input without the required columns is refused and leaves the cupboard alone
+     */
+    @Test
+    public void testImportBadHeader() throws IOException {
+        Path input = tempDir.resolve("needs.csv");
+        Files.writeString(input, "name,price\nHoney,10\n");
+
+        assertThrows(IOException.class, () -> importer.importFile(input, CupboardImporter.Format.CSV, cupboard, false));
+        assertEquals("[]", Files.readString(cupboard));
+        assertFalse(Files.exists(tempDir.resolve("cupboard.json.import")));
+    }
+
+    /**
+     * Tests that quoted fields are split and unquoted
+     */
+    @Test
+    public void testFields() {
+        assertEquals(List.of("a", "b, c", "", "d \"e\""), CupboardImporter.fields("a,\"b, c\",,\"d \"\"e\"\"\""));
+    }
+}
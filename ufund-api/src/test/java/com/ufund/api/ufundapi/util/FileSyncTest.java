@@ -0,0 +1,37 @@
+package com.ufund.api.ufundapi.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test the File Sync class
+ */
+@Tag("Persistence-Tier")
+public class FileSyncTest {
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Tests that a written file replaces the old one and the temporary name is gone
+     */
+    @Test
+    public void testReplace() throws IOException {
+        Path target = tempDir.resolve("cupboard.json");
+        Path temp = tempDir.resolve("cupboard.json.tmp");
+        Files.writeString(target, "[]");
+        Files.writeString(temp, "[{}]");
+
+        FileSync.replace(temp, target);
+
+        assertEquals("[{}]", Files.readString(target));
+        assertFalse(Files.exists(temp));
+    }
+}
@@ -21,8 +21,6 @@ export class BasketOverlay implements OnInit {
 
   checkOutValidated = false;
 
-  skippedBasket: BasketNeed[] = [];
-
   constructor(
     private userService: UserService,
     private needService: NeedService,
@@ -53,7 +51,7 @@ export class BasketOverlay implements OnInit {
 
   updateNeed(basketNeed: BasketNeed, newCount: number = 0): boolean {
     for (var need of this.needs) {
-      if (need.id === basketNeed.need.id) {
+      if (need.id === basketNeed.needId) {
         basketNeed.need = need;
         if (newCount != 0) {
           if (newCount < 0) {
@@ -78,36 +76,24 @@ export class BasketOverlay implements OnInit {
   }
 
   checkOutBasket(): void {
-    // for each element,
-    //      if quantity + count doesn't exceed cost then update need
-    //      if it does exceed cost, add to skippedBasket
-    for (var basketNeed of this.basket) {
-      var need = basketNeed.need;
-      var count = basketNeed.count;
-
-      var totalCount = need.quantity + count;
-
-      if (totalCount > need.cost) {
-        this.skippedBasket.push(basketNeed);
-        continue;
-      } else {
-        need.quantity = totalCount;
-        this.needs.find((cupboardneed) => cupboardneed.id === need.id)!.quantity = totalCount;
-        this.needs = [...this.needs];
-        this.needService.updateNeed(need).subscribe();
-        this.userService.removeNeed(this.user.id, need).subscribe();
+    // the server funds the whole basket or none of it
+    this.userService.checkout(this.user.id).subscribe((result) => {
+      if (!result) {
+        return;
       }
-    }
-
-    // once done, set basket to all skipped needs and empty skippedBasket
-    this.basket = this.skippedBasket;
-    this.skippedBasket = [];
-
-    // and update user's basket
-    if (this.basket.length != 0) {
-      this.checkOutValidated = true;
-    }
+      for (var funded of result.funded) {
+        // a need deleted since it was funded comes back with its id only
+        var need = this.needs.find((cupboardneed) => cupboardneed.id === funded.needId);
+        if (need && funded.need) {
+          need.quantity = funded.need.quantity;
+        }
+      }
+      this.needs = [...this.needs];
 
-    return;
+      if (result.completed) {
+        this.basket = [];
+      }
+      this.checkOutValidated = !result.completed;
+    });
   }
 }
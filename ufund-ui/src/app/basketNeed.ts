@@ -1,6 +1,7 @@
 import { Need } from "./need"
 
 export interface BasketNeed {
+  needId: number;
   need: Need;
   count: number;
-}
\ No newline at end of file
+}
@@ -0,0 +1,7 @@
+import { BasketNeed } from "./basketNeed"
+
+export interface CheckoutResult {
+  completed: boolean;
+  funded: BasketNeed[];
+  unavailable: number[];
+}
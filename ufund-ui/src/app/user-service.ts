@@ -4,6 +4,7 @@ import { HttpClient, HttpHeaders } from '@angular/common/http';
 import { catchError, map, tap } from 'rxjs/operators';
 import { User } from './user';
 import { BasketNeed } from './basketNeed';
+import { CheckoutResult } from './checkoutResult';
 import { Need } from './need';
 
 @Injectable({
@@ -107,6 +108,18 @@ export class UserService {
       .pipe(catchError(this.handleError<User>('editCount')));
   }
 
+  /** POST: fund every need in a user's basket, or none of them */
+  checkout(id: number): Observable<CheckoutResult> {
+    return this.http
+      .post<CheckoutResult>(`${this.usersUrl}/${id}/checkout`, null, this.httpOptions)
+      .pipe(
+        // a basket the cupboard cannot take still says which needs stopped it
+        catchError((error) =>
+          error.status === 409 ? of(error.error as CheckoutResult) : this.handleError<CheckoutResult>('checkout')(error)
+        )
+      );
+  }
+
   getCurrentUser(): Observable<User> {
     return of(this.currentUser);
   }